@@ -0,0 +1,115 @@
+package com.ecm.alfresco.migration.service;
+
+import com.ecm.alfresco.migration.bean.folderStructure.FolderStructureItem;
+import com.ecm.alfresco.migration.bean.folderStructure.FolderStructureProperty;
+import com.ecm.alfresco.migration.util.DestinationPathPlan;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Destination path of a document built from its properties (target.folder.structure.basedOn=PROPERTY1,PROPERTY2):
+ * the contract type split in 3 levels plus the whole value, then the created date formatted as yyyy/MM. The documents
+ * cycle over a fixed set of values, like the documents of a migration batch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DestinationPathBenchmark {
+    private static final String ROOT_FOLDER = "/Sites/contracts/documentLibrary";
+    private static final String PROPERTY_TYPE = "ecmc:contractType";
+    private static final String PROPERTY_CREATED = "cm:created";
+    private static final String DATE_FORMAT = "yyyy/MM";
+    private static final int DOCUMENTS = 4096;
+    private static final String[] CONTRACT_TYPES = {"Supply Agreement", "Service Level Agreement", "Non-Disclosure Agreement",
+            "Framework Contract", "Purchase Order", "Lease: Office", "Consulting \"Time & Materials\""};
+
+    private DocumentService documentService;
+    private List<FolderStructureItem> itemList;
+    private List<String[]> replaceList;
+    private JSONObject[] documentArray;
+    private int index;
+
+    @Setup
+    public void setup() {
+        documentService = new DocumentService();
+        itemList = getItemList();
+        replaceList = new ArrayList<>();
+        replaceList.add(new String[]{"&", "and"});
+
+        documentArray = new JSONObject[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            JSONObject document = new JSONObject();
+            document.put(PROPERTY_TYPE, CONTRACT_TYPES[i % CONTRACT_TYPES.length]);
+            document.put(PROPERTY_CREATED, String.format("%04d-%02d-%02dT10:15:30.000Z", 2010 + i % 7, 1 + i % 12, 1 + i % 28));
+            documentArray[i] = document;
+        }
+    }
+
+    /**
+     * Compiled plan, the cache size is a parameter so the cached and the uncached cost are both measured
+     */
+    @State(Scope.Thread)
+    public static class PlanState {
+        @Param({"0", "10000"})
+        public int cacheSize;
+
+        private DestinationPathPlan plan;
+
+        @Setup(Level.Trial)
+        public void setup(DestinationPathBenchmark benchmark) {
+            plan = new DestinationPathPlan(benchmark.itemList, benchmark.replaceList, "/Unclassified", cacheSize);
+        }
+    }
+
+    @Benchmark
+    public String getDestinationPath() throws ParseException, IllegalAccessException {
+        return documentService.getDestinationPath(nextDocument(), itemList, replaceList, ROOT_FOLDER);
+    }
+
+    @Benchmark
+    public String getDestinationPathFromPlan(PlanState planState) throws ParseException {
+        return planState.plan.getDestinationPath(nextDocument(), ROOT_FOLDER);
+    }
+
+    @Benchmark
+    public String getValidPropertyValueFolderLevel() throws ParseException {
+        return documentService.getValidPropertyValueFolderLevel(nextDocument().get(PROPERTY_TYPE), false, null);
+    }
+
+    @Benchmark
+    public String getValidPropertyValueFolderLevelDate() throws ParseException {
+        return documentService.getValidPropertyValueFolderLevel(nextDocument().get(PROPERTY_CREATED), true, DATE_FORMAT);
+    }
+
+    private JSONObject nextDocument() {
+        index = (index + 1) % DOCUMENTS;
+        return documentArray[index];
+    }
+
+    private static List<FolderStructureItem> getItemList() {
+        List<FolderStructureItem> itemList = new ArrayList<>();
+        itemList.add(new FolderStructureProperty("property1", new String[]{PROPERTY_TYPE}, null, 3, true));
+        itemList.add(new FolderStructureProperty("property2", new String[]{PROPERTY_CREATED}, DATE_FORMAT, 0, true));
+        return itemList;
+    }
+}
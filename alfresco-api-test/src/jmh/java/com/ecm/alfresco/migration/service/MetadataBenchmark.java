@@ -0,0 +1,120 @@
+package com.ecm.alfresco.migration.service;
+
+import com.ecm.alfresco.migration.bean.document.DocumentProperties;
+import com.ecm.alfresco.migration.job.config.MigrationProperties;
+import com.ecm.alfresco.migration.job.param.JobParameters;
+import com.ecm.alfresco.migration.util.JsonHelper;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata of a document as returned by the source repository: parsing the metadata and version history JSON,
+ * cleaning the properties and capturing the multi-valued ones. cleanProperties parses the metadata too, since it
+ * changes the JSON it cleans, so its own cost is cleanProperties minus parseMetadata. streamProperties reads, cleans and
+ * writes the properties request body in a single pass, to be compared with cleanProperties plus writeProperties
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+    private static final String METADATA_FILE = "benchmark-metadata.json";
+    private static final String VERSIONS_FILE = "benchmark-versions.json";
+    private static final String VERSION_NODE_ID = "8a7b6c5d-4e3f-4a2b-9c1d-0e9f8a7b6c5d";
+    private static final String PROPERTY_COST_CENTERS = "{http://www.ecm.com/model/contract/1.0}costCenters";
+
+    private String metadataJson;
+    private byte[] metadataBytes;
+    private DocumentProperties cleanedProperties;
+    private String versionsJson;
+    private JSONArray costCenters;
+    private JobParameters jobParameters;
+    private AlfrescoAPIService alfrescoAPIService;
+
+    @Setup
+    public void setup() throws Exception {
+        MigrationProperties.loadProperties("RUN");
+        metadataJson = getResource(METADATA_FILE);
+        versionsJson = getResource(VERSIONS_FILE);
+        costCenters = JsonHelper.getJSONObject(metadataJson).getJSONObject("properties").getJSONArray(PROPERTY_COST_CENTERS);
+
+        Map<String, String> namespacePrefixMap = new HashMap<>();
+        namespacePrefixMap.put("http://www.alfresco.org/model/content/1.0", "cm");
+        namespacePrefixMap.put("http://www.ecm.com/model/contract/1.0", "ecmc");
+
+        jobParameters = new JobParameters();
+        jobParameters.setNamespacePrefixMap(namespacePrefixMap);
+        jobParameters.setPropertyFilter(new String[]{"{http://www.alfresco.org/model/system/1.0}cascadeCRC",
+                "{http://www.alfresco.org/model/system/1.0}cascadeTx"});
+
+        alfrescoAPIService = new AlfrescoAPIService();
+        Field field = ReflectionUtils.findField(AlfrescoAPIService.class, "jobParameters");
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, alfrescoAPIService, jobParameters);
+
+        metadataBytes = metadataJson.getBytes(StandardCharsets.UTF_8);
+        cleanedProperties = cleanProperties();
+    }
+
+    @Benchmark
+    public JSONObject parseMetadata() {
+        return JsonHelper.getJSONObject(metadataJson);
+    }
+
+    @Benchmark
+    public JSONArray parseVersions() {
+        return JsonHelper.getJSONArray(versionsJson);
+    }
+
+    @Benchmark
+    public DocumentProperties cleanProperties() throws Exception {
+        return alfrescoAPIService.cleanProperties(JsonHelper.getJSONObject(metadataJson), VERSION_NODE_ID);
+    }
+
+    @Benchmark
+    public String writeProperties() {
+        return cleanedProperties.getDocumentProperties().toString();
+    }
+
+    @Benchmark
+    public DocumentProperties streamProperties() throws Exception {
+        return alfrescoAPIService.getMetadataStreamCleaner().clean(new ByteArrayInputStream(metadataBytes), VERSION_NODE_ID);
+    }
+
+    @Benchmark
+    public DocumentProperties addList() {
+        DocumentProperties documentProperties = new DocumentProperties();
+        documentProperties.addList(PROPERTY_COST_CENTERS, costCenters, jobParameters);
+        return documentProperties;
+    }
+
+    private static String getResource(String name) throws IOException {
+        try (InputStream in = MetadataBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ecm.alfresco.migration.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node id handling done for every document and version
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeRefBenchmark {
+    public String documentId = "5f3c8a2e-1b7d-4c9e-a0f4-2d6b9e8c7a51;1.3";
+    public String nodeRef = "workspace://SpacesStore/5f3c8a2e-1b7d-4c9e-a0f4-2d6b9e8c7a51";
+
+    @Benchmark
+    public String removeVersionLabel() {
+        return NodeRefUtil.removeVersionLabel(documentId);
+    }
+
+    @Benchmark
+    public String removeWorkSpace() {
+        return NodeRefUtil.removeWorkSpace(nodeRef);
+    }
+}
@@ -1,89 +1,208 @@
 package com.ecm.alfresco.migration.bean.counter;
 
+import com.ecm.alfresco.migration.job.config.MigrationProperties;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Counter {
-    private int counterProcessed = 0;
-    private int counterMigrated = 0;
-    private int counterSkipped = 0;
-    private int counterReplaced = 0;
-    private int counterNew = 0;
-    private int counterFailed = 0;
-    private int counterExtractedDocs = 0;
-    private int counterExtractedFolders = 0;
-    private int pageIndex = 0;
+    private static final int DEFAULT_RATE_WINDOW = 60;
+
+    private final StripedCounter counterProcessed = new StripedCounter();
+    private final StripedCounter counterMigrated = new StripedCounter();
+    private final StripedCounter counterSkipped = new StripedCounter();
+    private final StripedCounter counterReplaced = new StripedCounter();
+    private final StripedCounter counterNew = new StripedCounter();
+    private final StripedCounter counterFailed = new StripedCounter();
+    private final StripedCounter counterBytes = new StripedCounter();
+    private final StripedCounter counterValidated = new StripedCounter();
+    private final StripedCounter counterValidationFailed = new StripedCounter();
+    private final StripedCounter counterAssociationsCreated = new StripedCounter();
+    private final StripedCounter counterAssociationsSkipped = new StripedCounter();
+    private final StripedCounter counterAssociationsFailed = new StripedCounter();
+    private final AtomicInteger counterExtractedDocs = new AtomicInteger();
+    private final AtomicInteger counterExtractedFolders = new AtomicInteger();
+    private final AtomicInteger pageIndex = new AtomicInteger();
+    private final RateMeter docsRate;
+    private final RateMeter bytesRate;
+    private final long startTime = System.currentTimeMillis();
+
+    public Counter() {
+        int window = MigrationProperties.getInt(MigrationProperties.PROP_STATS_RATE_WINDOW, DEFAULT_RATE_WINDOW);
+        this.docsRate = new RateMeter(window);
+        this.bytesRate = new RateMeter(window);
+    }
+
+    public int increasePageIndex() {
+        return this.pageIndex.getAndIncrement();
+    }
+
+    public int increaseCounterExtractedDocs() {
+        return this.counterExtractedDocs.getAndIncrement();
+    }
+
+    public int increaseCounterExtractedFolders() {
+        return this.counterExtractedFolders.getAndIncrement();
+    }
+
+    public void increaseCounterProcessed() {
+        this.counterProcessed.increment();
+        this.docsRate.add(1);
+    }
+
+    public void increaseCounterMigrated() {
+        this.counterMigrated.increment();
+    }
 
-    public synchronized int increasePageIndex() {
-        return this.pageIndex++;
+    public void increaseCounterSkipped() {
+        this.counterSkipped.increment();
     }
 
-    public synchronized int increaseCounterExtractedDocs() {
-        return this.counterExtractedDocs++;
+    public void increaseCounterReplaced() {
+        this.counterReplaced.increment();
     }
 
-    public synchronized int increaseCounterExtractedFolders() {
-        return this.counterExtractedFolders++;
+    public void increaseCounterNew() {
+        this.counterNew.increment();
     }
 
-    public synchronized int increaseCounterProcessed() {
-        return this.counterProcessed++;
+    public void increaseCounterFailed() {
+        this.counterFailed.increment();
     }
 
-    public synchronized int increaseCounterMigrated() {
-        return this.counterMigrated++;
+    public void increaseCounterValidated() {
+        this.counterValidated.increment();
     }
 
-    public synchronized int increaseCounterSkipped() {
-        return this.counterSkipped++;
+    public void increaseCounterValidationFailed() {
+        this.counterValidationFailed.increment();
     }
 
-    public synchronized int increaseCounterReplaced() {
-        return this.counterReplaced++;
+    public void increaseCounterAssociationsCreated() {
+        this.counterAssociationsCreated.increment();
     }
 
-    public synchronized int increaseCounterNew() {
-        return this.counterNew++;
+    public void increaseCounterAssociationsSkipped() {
+        this.counterAssociationsSkipped.increment();
     }
 
-    public synchronized int increaseCounterFailed() {
-        return this.counterFailed++;
+    public void increaseCounterAssociationsFailed() {
+        this.counterAssociationsFailed.increment();
+    }
+
+    /**
+     * Adds the size of the content transferred
+     * @param bytes
+     */
+    public void addBytes(long bytes) {
+        if (bytes > 0) {
+            this.counterBytes.add(bytes);
+            this.bytesRate.add(bytes);
+        }
     }
 
     public int getCounterProcessed() {
-        return counterProcessed;
+        return (int) counterProcessed.sum();
     }
 
     public int getCounterMigrated() {
-        return counterMigrated;
+        return (int) counterMigrated.sum();
     }
 
     public int getCounterSkipped() {
-        return counterSkipped;
+        return (int) counterSkipped.sum();
     }
     public int getCounterReplaced() {
-        return counterReplaced;
+        return (int) counterReplaced.sum();
     }
 
 
     public int getCounterNew() {
-        return counterNew;
+        return (int) counterNew.sum();
     }
 
     public int getCounterFailed() {
-        return counterFailed;
+        return (int) counterFailed.sum();
     }
 
     public int getCounterExtractedDocs() {
-        return counterExtractedDocs;
+        return counterExtractedDocs.get();
     }
 
     public int getCounterExtractedFolders() {
-        return counterExtractedFolders;
+        return counterExtractedFolders.get();
+    }
+
+    public int getCounterValidated() {
+        return (int) counterValidated.sum();
+    }
+
+    /**
+     * Gets the documents migrated that failed the deferred validation, they are not counted as failed
+     * @return
+     */
+    public int getCounterValidationFailed() {
+        return (int) counterValidationFailed.sum();
+    }
+
+    public int getCounterAssociationsCreated() {
+        return (int) counterAssociationsCreated.sum();
+    }
+
+    public int getCounterAssociationsSkipped() {
+        return (int) counterAssociationsSkipped.sum();
+    }
+
+    public int getCounterAssociationsFailed() {
+        return (int) counterAssociationsFailed.sum();
+    }
+
+    public long getCounterBytes() {
+        return counterBytes.sum();
+    }
+
+    /**
+     * Gets the documents processed per second over the last rate window
+     * @return
+     */
+    public double getDocsRate() {
+        return docsRate.getRate();
+    }
+
+    /**
+     * Gets the bytes transferred per second over the last rate window
+     * @return
+     */
+    public double getBytesRate() {
+        return bytesRate.getRate();
+    }
+
+    /**
+     * Gets the documents processed per second since the counter was created
+     * @return
+     */
+    public double getAverageDocsRate() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed > 0 ? getCounterProcessed() * 1000d / elapsed : 0;
+    }
+
+    /**
+     * Gets the bytes transferred per second since the counter was created
+     * @return
+     */
+    public double getAverageBytesRate() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed > 0 ? getCounterBytes() * 1000d / elapsed : 0;
+    }
+
+    public int getRateWindow() {
+        return docsRate.getWindowSeconds();
     }
 
     public int getPageIndex() {
-        return pageIndex;
+        return pageIndex.get();
     }
 
     public void resetPageIndex() {
-        pageIndex = 0;
+        pageIndex.set(0);
     }
 }
@@ -0,0 +1,66 @@
+package com.ecm.alfresco.migration.bean.counter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures a rate per second over a sliding window. Values are added to one bucket per second, the buckets of the
+ * window are summed when the rate is read, so reading never blocks the threads adding values.
+ */
+public class RateMeter {
+    private final int windowSeconds;
+    private final AtomicLongArray buckets;
+    private final AtomicLongArray bucketSeconds;
+    private final long startTime;
+
+    /**
+     * Rate meter constructor
+     * @param windowSeconds number of seconds the rate is calculated over
+     */
+    public RateMeter(int windowSeconds) {
+        this.windowSeconds = Math.max(windowSeconds, 1);
+        this.buckets = new AtomicLongArray(this.windowSeconds + 1);
+        this.bucketSeconds = new AtomicLongArray(this.windowSeconds + 1);
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a value to the current second
+     * @param value
+     */
+    public void add(long value) {
+        long second = System.currentTimeMillis() / 1000;
+        int index = (int) (second % buckets.length());
+        long bucketSecond = bucketSeconds.get(index);
+
+        // the first thread in a new second resets the bucket, values added by other threads while it's being reset may be lost
+        if (bucketSecond != second && bucketSeconds.compareAndSet(index, bucketSecond, second)) {
+            buckets.set(index, 0);
+        }
+
+        buckets.addAndGet(index, value);
+    }
+
+    /**
+     * Gets the rate per second over the last window, the current second is not included as it's not complete yet
+     * @return
+     */
+    public double getRate() {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        long sum = 0;
+
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucketSecond = bucketSeconds.get(i);
+            if (bucketSecond < second && bucketSecond >= second - windowSeconds) {
+                sum += buckets.get(i);
+            }
+        }
+
+        long elapsedSeconds = Math.min(windowSeconds, (now - startTime) / 1000);
+        return elapsedSeconds > 0 ? (double) sum / elapsedSeconds : 0;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+}
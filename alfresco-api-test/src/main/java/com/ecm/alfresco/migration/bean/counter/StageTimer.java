@@ -0,0 +1,76 @@
+package com.ecm.alfresco.migration.bean.counter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long every stage of the migration takes. Each thread keeps its own start times, so any number of
+ * threads can time the same stage at once, and the durations are recorded in a histogram per stage.
+ */
+public class StageTimer {
+    private final ConcurrentMap<String, LatencyHistogram> histogramMap = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Long>> startTimeMap = new ThreadLocal<Map<String, Long>>() {
+        @Override
+        protected Map<String, Long> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * Starts timing a stage in the current thread
+     * @param stage
+     */
+    public void start(String stage) {
+        startTimeMap.get().put(stage, System.nanoTime());
+    }
+
+    /**
+     * Stops timing a stage in the current thread and records the duration, it does nothing if the stage was not started
+     * @param stage
+     */
+    public void stop(String stage) {
+        Long startTime = startTimeMap.get().remove(stage);
+
+        if (startTime != null)
+            record(stage, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Records a stage duration
+     * @param stage
+     * @param micros
+     */
+    public void record(String stage, long micros) {
+        getHistogram(stage).record(micros);
+    }
+
+    /**
+     * Gets the histogram of a stage, it's created the first time
+     * @param stage
+     * @return
+     */
+    public LatencyHistogram getHistogram(String stage) {
+        LatencyHistogram histogram = histogramMap.get(stage);
+
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histogramMap.putIfAbsent(stage, newHistogram);
+            if (histogram == null)
+                histogram = newHistogram;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Gets the histograms of all the stages timed so far
+     * @return
+     */
+    public Map<String, LatencyHistogram> getHistogramMap() {
+        return new LinkedHashMap<String, LatencyHistogram>(histogramMap);
+    }
+}
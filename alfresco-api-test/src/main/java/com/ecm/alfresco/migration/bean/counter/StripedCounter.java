@@ -0,0 +1,49 @@
+package com.ecm.alfresco.migration.bean.counter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over several cells, every thread adds to the cell picked by its id so threads don't compete for the
+ * same value. Cells are padded to sit on different cache lines. The total is the sum of all the cells.
+ */
+public class StripedCounter {
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    /**
+     * Adds a value to the current thread cell
+     * @param value
+     */
+    public void add(long value) {
+        cells.getAndAdd(((int) Thread.currentThread().getId() & mask) * PADDING, value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Gets the total, it's not an atomic snapshot when other threads are adding at the same time
+     * @return
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+
+        return sum;
+    }
+}
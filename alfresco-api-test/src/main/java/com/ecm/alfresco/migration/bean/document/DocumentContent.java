@@ -0,0 +1,156 @@
+package com.ecm.alfresco.migration.bean.document;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content of a document version, either spooled into a temp file or an open stream from the source repository
+ */
+public class DocumentContent {
+    private File file;
+    private InputStream stream;
+    private long length;
+    private MessageDigest digest;
+    private static final Logger logger = Logger.getLogger(DocumentContent.class);
+
+    public DocumentContent(File file) {
+        this.file = file;
+        this.length = file.length();
+    }
+
+    public DocumentContent(InputStream stream, long length) {
+        this.stream = stream;
+        this.length = length;
+    }
+
+    public boolean isStream() {
+        return stream != null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public InputStream getStream() {
+        return stream;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Reads the source stream into memory and closes it, so the source connection is released before the content is
+     * uploaded. Streams are only kept open for small contents, a temp file content is left as it is
+     * @throws IOException
+     */
+    public void buffer() throws IOException {
+        if (stream == null || stream instanceof ByteArrayInputStream)
+            return;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+        } finally {
+            stream.close();
+        }
+
+        stream = new ByteArrayInputStream(out.toByteArray());
+        length = out.size();
+    }
+
+    /**
+     * Calculates the checksum of the content, a stream while it's read through openStream, a temp file when the
+     * checksum is requested
+     */
+    public void enableChecksum() {
+        try {
+            digest = MessageDigest.getInstance("MD5");
+
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("Checksum not available: " + e.getMessage());
+        }
+    }
+
+    public boolean isChecksumEnabled() {
+        return digest != null;
+    }
+
+    /**
+     * Opens the content for reading, the source stream or the temp file
+     * @return
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        InputStream in = isStream() ? stream : new FileInputStream(file);
+
+        if (digest != null && isStream())
+            return new DigestInputStream(in, digest);
+        else
+            return in;
+    }
+
+    /**
+     * Gets the checksum of the content, the stream read so far or the whole temp file
+     * @return MD5 hex string, null if the checksum is not enabled
+     * @throws IOException
+     */
+    public String getChecksum() throws IOException {
+        if (digest == null)
+            return null;
+
+        if (!isStream()) {
+            digest.reset();
+            try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // read only to update the digest
+                }
+            }
+        }
+
+        StringBuilder checksum = new StringBuilder();
+        for (byte oneByte : digest.digest()) {
+            checksum.append(String.format("%02x", oneByte));
+        }
+
+        return checksum.toString();
+    }
+
+    /**
+     * Closes the stream or deletes the temp file
+     */
+    public void close() {
+        if (stream != null) {
+            try {
+                stream.close();
+
+            } catch (IOException e) {
+                logger.warn("Unable to close content stream: " + e.getMessage());
+            }
+        }
+
+        if (file != null && file.exists() && !file.delete()) {
+            logger.warn("File not deleted form temp folder: " + file.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isStream() ? "stream, length: " + length : "file: " + file.getAbsolutePath() + ", length: " + length;
+    }
+}
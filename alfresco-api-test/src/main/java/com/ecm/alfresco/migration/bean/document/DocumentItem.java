@@ -31,6 +31,8 @@ public class DocumentItem {
     private String exception;
     private int countVersions;
     private DocumentProperties documentProperties;
+    private DocumentContent content;
+    private String checksum;
     private List<DocumentAssociation> associations = new ArrayList<>();
     
     private String creator;
@@ -267,6 +269,22 @@ public class DocumentItem {
         this.documentProperties = documentProperties;
     }
 
+    public DocumentContent getContent() {
+        return content;
+    }
+
+    public void setContent(DocumentContent content) {
+        this.content = content;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
     public List<DocumentAssociation> getAssociations() {
         return associations;
     }
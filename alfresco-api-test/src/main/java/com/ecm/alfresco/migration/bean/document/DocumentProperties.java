@@ -14,17 +14,30 @@ import java.util.Map;
 public class DocumentProperties {
     private Map<String, List<String>> collectionProperties = new HashMap<>();
     private JSONObject documentProperties;
+    private String payload;
     private static final Logger logger = Logger.getLogger(DocumentProperties.class);
 
     public void addList(String property, JSONArray array, JobParameters jobParameters) {
         if (array != null && array.length() > 0) {
-            String[] namespaceProperty = property.split("}");
-            String prefix = jobParameters.getNamespacePrefixMap().get(namespaceProperty[0].replace("{", ""));
             List<String> list = new ArrayList<>();
 
             for (int i = 0; i < array.length(); i++) {
                 list.add(array.getString(i));
             }
+            addList(property, list, jobParameters);
+        }
+    }
+
+    /**
+     * Adds the values of a collection property already read from the metadata
+     * @param property
+     * @param list
+     * @param jobParameters
+     */
+    public void addList(String property, List<String> list, JobParameters jobParameters) {
+        if (list != null && !list.isEmpty()) {
+            String[] namespaceProperty = property.split("}");
+            String prefix = jobParameters.getNamespacePrefixMap().get(namespaceProperty[0].replace("{", ""));
             String prefixProperty = prefix + ":" + namespaceProperty[1];
             collectionProperties.put(prefixProperty, list);
             logger.trace("Added collection: " + prefixProperty + ", Size: " + list.size());
@@ -47,5 +60,17 @@ public class DocumentProperties {
         this.documentProperties = documentProperties;
     }
 
+    /**
+     * Gets the properties request body written while reading the metadata
+     * @return null if the body has to be written from the document properties
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
 
 }
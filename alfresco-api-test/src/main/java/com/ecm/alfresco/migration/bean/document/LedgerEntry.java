@@ -0,0 +1,53 @@
+package com.ecm.alfresco.migration.bean.document;
+
+/**
+ * Migration ledger entry, the last known migration result of a source document
+ */
+public class LedgerEntry {
+    private String sourceNodeId;
+    private String versionLabel;
+    private String targetNodeRef;
+    private String status;
+    private String checksum;
+
+    public LedgerEntry(String sourceNodeId, String versionLabel, String targetNodeRef, String status, String checksum) {
+        this.sourceNodeId = sourceNodeId;
+        this.versionLabel = versionLabel;
+        this.targetNodeRef = targetNodeRef;
+        this.status = status;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Checks if the document is in the target repository
+     * @return
+     */
+    public boolean isMigrated() {
+        return targetNodeRef != null && !targetNodeRef.isEmpty() && !"FAILED".equals(status);
+    }
+
+    public String getSourceNodeId() {
+        return sourceNodeId;
+    }
+
+    public String getVersionLabel() {
+        return versionLabel;
+    }
+
+    public String getTargetNodeRef() {
+        return targetNodeRef;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "sourceNodeId: " + sourceNodeId + ", version: " + versionLabel + ", targetNodeRef: " + targetNodeRef + ", status: " + status + ", checksum: " + checksum;
+    }
+}
@@ -0,0 +1,94 @@
+package com.ecm.alfresco.migration.bean.document;
+
+/**
+ * Migration report row, a copy of the document result taken when the document finishes so the document can change
+ * afterwards (ie. deferred validation) while the row waits to be written
+ */
+public class ReportRow {
+    public static final String[] MIGRATION_HEADER = {"Date Time", "File Name", "Source Node Status", "Source Destination Folder", "Source Node ID", "Target Node ID", "Target Destination Folder", "Target Node Status", "Message"};
+    public static final String[] ERROR_HEADER = {"Date Time", "File Name", "Source Node Status", "Source Destination Folder", "Source Node ID", "Target Destination Folder", "Message"};
+    private static final String FAILED = "FAILED";
+
+    private final long time = System.currentTimeMillis();
+    private final String fileName;
+    private final String sourceStatus;
+    private final String sourceDestinationFolder;
+    private final String sourceNodeRef;
+    private final String targetNodeRef;
+    private final String targetDestinationFolder;
+    private final String status;
+    private final String message;
+
+    public ReportRow(DocumentItem documentItem, String sourceStatus, String sourceDestinationFolder) {
+        this.fileName = documentItem.getFilename();
+        this.sourceStatus = sourceStatus;
+        this.sourceDestinationFolder = sourceDestinationFolder;
+        this.sourceNodeRef = documentItem.getSourceNodeRef();
+        this.targetNodeRef = documentItem.getTargetNodeRef();
+        this.targetDestinationFolder = documentItem.getTargetDestinationFolder();
+        this.status = documentItem.getStatus();
+        this.message = documentItem.getException() != null ? documentItem.getException() : documentItem.getMessage();
+    }
+
+    /**
+     * Checks if the row goes to the error report too
+     * @return
+     */
+    public boolean isFailed() {
+        return FAILED.equals(status);
+    }
+
+    /**
+     * Gets the values of the migration report columns
+     * @param dateTime formatted row time
+     * @return
+     */
+    public String[] getMigrationValues(String dateTime) {
+        return new String[]{dateTime, fileName, sourceStatus, sourceDestinationFolder, sourceNodeRef, targetNodeRef, targetDestinationFolder, status, message};
+    }
+
+    /**
+     * Gets the values of the error report columns
+     * @param dateTime formatted row time
+     * @return
+     */
+    public String[] getErrorValues(String dateTime) {
+        return new String[]{dateTime, fileName, sourceStatus, sourceDestinationFolder, sourceNodeRef, targetDestinationFolder, message};
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getSourceStatus() {
+        return sourceStatus;
+    }
+
+    public String getSourceDestinationFolder() {
+        return sourceDestinationFolder;
+    }
+
+    public String getSourceNodeRef() {
+        return sourceNodeRef;
+    }
+
+    public String getTargetNodeRef() {
+        return targetNodeRef;
+    }
+
+    public String getTargetDestinationFolder() {
+        return targetDestinationFolder;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -12,6 +12,7 @@ public class FolderChildren {
     private Queue<DocumentItem> documentQueue = new LinkedList<>();
     private Queue<Folder> folderQueue = new LinkedList<>();
     private Queue<CmisObject> objectQueue = new LinkedList<>();
+    private int itemCount = 0;
 
     public void addFolder(Folder folder) {
         folderQueue.add(folder);
@@ -25,6 +26,14 @@ public class FolderChildren {
         objectQueue.add(object);
     }
 
+    public void increaseItemCount() {
+        itemCount++;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
     public Queue<DocumentItem> getDocumentQueue() {
         return documentQueue;
     }
@@ -24,11 +24,17 @@ public class DataSourceComponent {
 
     @PostConstruct
     private void init() {
+        databaseDriver = MigrationProperties.get(MigrationProperties.PROP_DB_DRIVER);
+        databaseURL = MigrationProperties.get(MigrationProperties.PROP_DB_URL);
+        databaseUsername = MigrationProperties.get(MigrationProperties.PROP_DB_USER);
+        databasePassword = MigrationProperties.get(MigrationProperties.PROP_DB_PASSWORD);
                 
-        String databasePool = MigrationProperties.get(MigrationProperties.PROP_NUM_THREADS);
+        String databasePool = MigrationProperties.get(MigrationProperties.PROP_DB_POOL_SIZE);
+        if (StringUtils.isBlank(databasePool)) // only the report thread and the ledger use the pool
+            databasePool = DEFAULT_DB_POOL;
 
         if (!StringUtils.isNumeric(databasePool)) {
-            logger.error("Propety " + MigrationProperties.PROP_NUM_THREADS + " is not set in 'migration.properties'. Setting DB pool to " + DEFAULT_DB_POOL);
+            logger.error("Propety " + MigrationProperties.PROP_DB_POOL_SIZE + " is not a number in 'migration.properties'. Setting DB pool to " + DEFAULT_DB_POOL);
             databasePool = DEFAULT_DB_POOL;
         }
 
@@ -40,6 +46,7 @@ public class DataSourceComponent {
         basicDataSource.setUsername(databaseUsername);
         basicDataSource.setPassword(databasePassword);
         basicDataSource.setInitialSize(Integer.parseInt(databasePool));
+        basicDataSource.setMaxTotal(Integer.parseInt(databasePool));
         jdbcTemplate = new NamedParameterJdbcTemplate(basicDataSource);
                 
     }
@@ -0,0 +1,212 @@
+package com.ecm.alfresco.migration.component.association;
+
+import com.ecm.alfresco.migration.util.NodeRefUtil;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Documents whose associations have to be migrated, kept in a local tab separated file. The migration step appends
+ * every migrated document with its target id, the association step reads them back to discover the associations and
+ * uses the same entries to resolve both ends of every association to target ids. Only the documents added in this run
+ * are read back, entries of previous runs are loaded when the queue is opened just to resolve associations with
+ * documents migrated in a previous run, and a document migrated again keeps its last target id.
+ */
+public class AssociationQueue {
+    private static final Logger logger = Logger.getLogger(AssociationQueue.class);
+    private static final String SEPARATOR = "\t";
+
+    private final Map<String, Entry> entryMap = new HashMap<>();
+    private final Map<String, Entry> runMap = new LinkedHashMap<>();
+    private final File file;
+    private final int loaded;
+    private BufferedWriter writer;
+    private Iterator<Entry> readIterator;
+
+    /**
+     * Opens the queue file, it's created if it doesn't exist
+     * @param file
+     * @throws IOException
+     */
+    public AssociationQueue(File file) throws IOException {
+        this.file = file;
+
+        if (file.exists())
+            load();
+        else if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+
+        loaded = entryMap.size();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        logger.info("Association queue file: " + file.getAbsolutePath() + ", documents: " + loaded);
+    }
+
+    /**
+     * Adds a migrated document
+     * @param sourceId source document id
+     * @param targetId target document id
+     */
+    public synchronized void add(String sourceId, String targetId) {
+        Entry entry = new Entry(sourceId, targetId);
+        put(entry);
+
+        String key = getKey(sourceId);
+        runMap.remove(key);
+        runMap.put(key, entry);
+        write(sourceId, targetId);
+    }
+
+    /**
+     * Removes a document that is no longer in the target repository, ie. rolled back after a failed validation. It's
+     * written without target id so the next runs forget it too
+     * @param sourceId source document id
+     */
+    public synchronized void remove(String sourceId) {
+        String key = getKey(sourceId);
+
+        if (entryMap.remove(key) != null) {
+            runMap.remove(key);
+            write(sourceId, "");
+        }
+    }
+
+    /**
+     * Gets the next documents added in this run to discover their associations, the first call starts reading from the
+     * first document
+     * @param max
+     * @return an empty list when all the documents have been read
+     */
+    public synchronized List<Entry> poll(int max) {
+        if (readIterator == null)
+            readIterator = new ArrayList<>(runMap.values()).iterator();
+
+        List<Entry> entryList = new ArrayList<>(max);
+        while (entryList.size() < max && readIterator.hasNext()) {
+            entryList.add(readIterator.next());
+        }
+
+        return entryList;
+    }
+
+    /**
+     * Gets the target id of a source document
+     * @param sourceId
+     * @return null if the document is not in the queue
+     */
+    public synchronized String getTargetId(String sourceId) {
+        Entry entry = entryMap.get(getKey(sourceId));
+        return entry == null ? null : entry.getTargetId();
+    }
+
+    public synchronized int getSize() {
+        return entryMap.size();
+    }
+
+    public synchronized void close() {
+        try {
+            writer.close();
+
+        } catch (IOException e) {
+            logger.warn("Unable to close association queue: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends a line to the queue file
+     * @param sourceId
+     * @param targetId empty for a removed document
+     */
+    private void write(String sourceId, String targetId) {
+        try {
+            writer.write(sourceId + SEPARATOR + targetId);
+            writer.newLine();
+            writer.flush();
+
+        } catch (IOException e) {
+            logger.error("EXCEPTION writing association queue entry: " + sourceId + ", exception: " + e.getMessage());
+            throw new RuntimeException("Unable to write association queue " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Loads the entries of the queue file
+     * @throws IOException
+     */
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+
+                if (fields.length >= 2 && !fields[0].isEmpty() && !fields[1].isEmpty()) {
+                    put(new Entry(fields[0], fields[1]));
+
+                } else if (fields.length >= 2 && !fields[0].isEmpty()) { // removed document
+                    entryMap.remove(getKey(fields[0]));
+
+                } else if (!line.isEmpty()) { // last line may be incomplete if the job crashed while writing it
+                    logger.warn("Ignoring invalid association queue line: " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entry, a document added again keeps its new target id
+     * @param entry
+     */
+    private void put(Entry entry) {
+        entryMap.put(getKey(entry.getSourceId()), entry);
+    }
+
+    /**
+     * Gets the key of a document, its node id without store and version, so ids in any CMIS format match
+     * @param id
+     * @return
+     */
+    private String getKey(String id) {
+        return NodeRefUtil.removeWorkSpace(NodeRefUtil.removeVersionLabel(id));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "file: " + file.getAbsolutePath() + ", documents: " + entryMap.size() + ", this run: " + runMap.size() + ", previous runs: " + loaded;
+    }
+
+    /**
+     * Migrated document
+     */
+    public static class Entry {
+        private final String sourceId;
+        private final String targetId;
+
+        public Entry(String sourceId, String targetId) {
+            this.sourceId = sourceId;
+            this.targetId = targetId;
+        }
+
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        public String getTargetId() {
+            return targetId;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.ecm.alfresco.migration.component.ledger;
+
+import com.ecm.alfresco.migration.bean.document.LedgerEntry;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ledger kept in a local tab separated file. Entries are appended as they are recorded, the last line of a document
+ * wins. When the ledger is opened the file is compacted to the last line of each document, and the position of that
+ * line is kept in an index file mapped outside the heap: the entries are read from the file when they are looked up,
+ * the most recent ones are kept in a bounded cache. Lookups run in parallel, only the appends are serialized
+ */
+public class FileMigrationLedger implements MigrationLedger {
+    private static final Logger logger = Logger.getLogger(FileMigrationLedger.class);
+    private static final String SEPARATOR = "\t";
+    private static final int LINE_SIZE = 512;
+
+    private final Map<String, LedgerEntry> entryCache;
+    private final File file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong reads = new AtomicLong();
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private LedgerIndex index;
+    private long length;
+
+    /**
+     * Opens the ledger file, it's created if it doesn't exist
+     * @param file
+     * @param cacheSize max number of entries kept in memory
+     * @throws IOException
+     */
+    public FileMigrationLedger(File file, final int cacheSize) throws IOException {
+        this.file = file;
+        this.entryCache = new LinkedHashMap<String, LedgerEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LedgerEntry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        if (!file.exists() && file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+
+        long lines = open();
+        if (lines != index.size() || length != channel.size()) // not one valid line per document ending with a new line
+            compact(lines);
+
+        logger.info("Migration ledger file: " + file.getAbsolutePath() + ", entries: " + index.size() + ", cache size: " + cacheSize);
+    }
+
+    @Override
+    public LedgerEntry get(String sourceNodeId) {
+        lock.readLock().lock();
+        try {
+            LedgerEntry entry;
+            synchronized (entryCache) {
+                entry = entryCache.get(sourceNodeId);
+            }
+            if (entry != null)
+                return entry;
+
+            long position = index.get(sourceNodeId);
+            if (position < 0)
+                return null;
+
+            entry = toEntry(readLine(position));
+            reads.incrementAndGet();
+
+            if (entry != null) {
+                synchronized (entryCache) {
+                    entryCache.put(sourceNodeId, entry);
+                }
+            }
+
+            return entry;
+
+        } catch (IOException e) {
+            logger.error("EXCEPTION reading ledger entry: " + sourceNodeId + ", exception: " + e.getMessage());
+            throw new RuntimeException("Unable to read migration ledger " + file.getAbsolutePath(), e);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void record(LedgerEntry entry) {
+        lock.writeLock().lock();
+        try {
+            byte[] line = toLine(entry);
+            channel.write(ByteBuffer.wrap(line), length);
+            index.put(entry.getSourceNodeId(), length);
+            length += line.length;
+
+            synchronized (entryCache) {
+                entryCache.put(entry.getSourceNodeId(), entry);
+            }
+
+        } catch (IOException e) {
+            logger.error("EXCEPTION writing ledger entry: " + entry + ", exception: " + e.getMessage());
+            throw new RuntimeException("Unable to write migration ledger " + file.getAbsolutePath(), e);
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            randomAccessFile.close();
+
+        } catch (IOException e) {
+            logger.warn("Unable to close migration ledger: " + e.getMessage());
+
+        } finally {
+            index.close();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens the ledger file and indexes the position of the last line of each document, the invalid lines are skipped
+     * @return number of lines read
+     * @throws IOException
+     */
+    private long open() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        index = new LedgerIndex(new File(file.getAbsolutePath() + ".idx")) {
+            @Override
+            protected String readKey(long position) throws IOException {
+                byte[] line = readLine(position);
+                String text = new String(line, StandardCharsets.UTF_8);
+                int separator = text.indexOf(SEPARATOR);
+                return separator < 0 ? text : text.substring(0, separator);
+            }
+        };
+
+        long lines = 0;
+        length = 0;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(LINE_SIZE);
+            byte[] line;
+
+            while ((line = readLine(in, lineBuffer)) != null) {
+                LedgerEntry entry = toEntry(line);
+                if (entry != null)
+                    index.put(entry.getSourceNodeId(), length);
+
+                length += line.length + 1;
+                lines++;
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Rewrites the ledger file with the last line of each document and opens it again
+     * @param lines number of lines of the ledger file
+     * @throws IOException
+     */
+    private void compact(long lines) throws IOException {
+        File compactFile = new File(file.getAbsolutePath() + ".compact");
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(compactFile))) {
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(LINE_SIZE);
+            long offset = 0;
+            byte[] line;
+
+            while ((line = readLine(in, lineBuffer)) != null) {
+                LedgerEntry entry = toEntry(line);
+
+                if (entry != null && index.get(entry.getSourceNodeId()) == offset) { // last line of the document
+                    out.write(line);
+                    out.write('\n');
+                }
+
+                offset += line.length + 1;
+            }
+        }
+
+        randomAccessFile.close();
+        index.close();
+
+        if (!file.delete() || !compactFile.renameTo(file))
+            throw new IOException("Unable to replace migration ledger " + file.getAbsolutePath() + " with " + compactFile.getAbsolutePath());
+
+        open();
+        logger.info("Migration ledger compacted, lines: " + lines + ", entries: " + index.size());
+    }
+
+    /**
+     * Reads a line of the ledger file from a stream
+     * @param in
+     * @param lineBuffer
+     * @return null at the end of the file
+     * @throws IOException
+     */
+    private byte[] readLine(InputStream in, ByteArrayOutputStream lineBuffer) throws IOException {
+        lineBuffer.reset();
+        int b;
+
+        while ((b = in.read()) != -1 && b != '\n')
+            lineBuffer.write(b);
+
+        return b == -1 && lineBuffer.size() == 0 ? null : lineBuffer.toByteArray();
+    }
+
+    /**
+     * Reads the line of the ledger file at a position, it doesn't move the file pointer so lines can be read by
+     * several threads at once
+     * @param position
+     * @return
+     * @throws IOException
+     */
+    private byte[] readLine(long position) throws IOException {
+        ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(LINE_SIZE);
+        ByteBuffer readBuffer = ByteBuffer.allocate(LINE_SIZE);
+        int read;
+
+        while ((read = channel.read(readBuffer, position)) > 0) {
+            byte[] bytes = readBuffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    lineBuffer.write(bytes, 0, i);
+                    return lineBuffer.toByteArray();
+                }
+            }
+
+            lineBuffer.write(bytes, 0, read);
+            position += read;
+            readBuffer.clear();
+        }
+
+        return lineBuffer.toByteArray();
+    }
+
+    /**
+     * Parses a line of the ledger file
+     * @param line
+     * @return null if the line is not valid
+     */
+    private LedgerEntry toEntry(byte[] line) {
+        String text = new String(line, StandardCharsets.UTF_8);
+        String[] fields = text.split(SEPARATOR, -1);
+
+        if (fields.length >= 5)
+            return new LedgerEntry(fields[0], fromField(fields[1]), fromField(fields[2]), fromField(fields[3]), fromField(fields[4]));
+
+        if (!text.isEmpty()) // last line may be incomplete if the job crashed while writing it
+            logger.warn("Ignoring invalid ledger line: " + text);
+
+        return null;
+    }
+
+    private byte[] toLine(LedgerEntry entry) {
+        return (entry.getSourceNodeId() + SEPARATOR + toField(entry.getVersionLabel()) + SEPARATOR + toField(entry.getTargetNodeRef()) + SEPARATOR + toField(entry.getStatus()) + SEPARATOR + toField(entry.getChecksum()) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String toField(String value) {
+        return value == null ? "" : value.replace(SEPARATOR, " ").replace("\n", " ");
+    }
+
+    private String fromField(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            synchronized (entryCache) {
+                return file.getName() + ", entries: " + index.size() + ", cached: " + entryCache.size() + ", file reads: " + reads;
+            }
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
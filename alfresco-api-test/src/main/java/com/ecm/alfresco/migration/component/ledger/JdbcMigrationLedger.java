@@ -0,0 +1,98 @@
+package com.ecm.alfresco.migration.component.ledger;
+
+import com.ecm.alfresco.migration.bean.document.LedgerEntry;
+
+import org.apache.log4j.Logger;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Ledger kept in a database table, looked up by its primary key (source node id)
+ */
+public class JdbcMigrationLedger implements MigrationLedger {
+    private static final Logger logger = Logger.getLogger(JdbcMigrationLedger.class);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String selectSql;
+    private final String updateSql;
+    private final String insertSql;
+
+    /**
+     * Ledger constructor, the table is created if it doesn't exist
+     * @param jdbcTemplate
+     * @param table
+     */
+    public JdbcMigrationLedger(NamedParameterJdbcTemplate jdbcTemplate, String table) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.selectSql = "SELECT source_node_id, version_label, target_node_ref, status, checksum FROM " + table + " WHERE source_node_id = :sourceNodeId";
+        this.updateSql = "UPDATE " + table + " SET version_label = :versionLabel, target_node_ref = :targetNodeRef, status = :status, checksum = :checksum, updated = :updated WHERE source_node_id = :sourceNodeId";
+        this.insertSql = "INSERT INTO " + table + " (source_node_id, version_label, target_node_ref, status, checksum, updated) VALUES (:sourceNodeId, :versionLabel, :targetNodeRef, :status, :checksum, :updated)";
+
+        createTable();
+    }
+
+    @Override
+    public LedgerEntry get(String sourceNodeId) {
+        List<LedgerEntry> entryList = jdbcTemplate.query(selectSql, new MapSqlParameterSource("sourceNodeId", sourceNodeId), new RowMapper<LedgerEntry>() {
+            @Override
+            public LedgerEntry mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new LedgerEntry(rs.getString("source_node_id"), rs.getString("version_label"), rs.getString("target_node_ref"), rs.getString("status"), rs.getString("checksum"));
+            }
+        });
+
+        return entryList.isEmpty() ? null : entryList.get(0);
+    }
+
+    @Override
+    public void record(LedgerEntry entry) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("sourceNodeId", entry.getSourceNodeId())
+                .addValue("versionLabel", entry.getVersionLabel())
+                .addValue("targetNodeRef", entry.getTargetNodeRef())
+                .addValue("status", entry.getStatus())
+                .addValue("checksum", entry.getChecksum())
+                .addValue("updated", new Timestamp(System.currentTimeMillis()));
+
+        if (jdbcTemplate.update(updateSql, params) == 0) {
+            try {
+                jdbcTemplate.update(insertSql, params);
+
+            } catch (DuplicateKeyException e) { // inserted by another thread in the meantime
+                jdbcTemplate.update(updateSql, params);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // the connection pool is owned by DataSourceComponent
+    }
+
+    /**
+     * Creates the ledger table if it doesn't exist
+     */
+    private void createTable() {
+        logger.info("Migration ledger table: " + table);
+        jdbcTemplate.getJdbcOperations().execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                + "source_node_id VARCHAR(255) NOT NULL PRIMARY KEY, "
+                + "version_label VARCHAR(50), "
+                + "target_node_ref VARCHAR(255), "
+                + "status VARCHAR(20), "
+                + "checksum VARCHAR(64), "
+                + "updated TIMESTAMP NULL)");
+    }
+
+    @Override
+    public String toString() {
+        return "ledger table: " + table;
+    }
+}
@@ -0,0 +1,167 @@
+package com.ecm.alfresco.migration.component.ledger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Position of the line of every document in the ledger file, kept in a memory mapped hash table outside the heap. A
+ * slot holds the hash of the source node id and the line position, the id itself is read from the ledger file to tell
+ * documents with the same hash apart. The table is rebuilt every time the ledger is opened and it's not thread safe
+ */
+abstract class LedgerIndex {
+    private static final int SLOT_SIZE = 12; // hash (int) and line position + 1 (long), 0 is an empty slot
+    private static final int MIN_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = 1 << 27; // the mapped file must stay under 2GB
+
+    private final File file;
+    private MappedByteBuffer slots;
+    private int capacity;
+    private int size;
+    private int generation;
+
+    LedgerIndex(File file) throws IOException {
+        this.file = file;
+        map(MIN_CAPACITY);
+    }
+
+    /**
+     * Reads the source node id of the ledger line at a position
+     * @param position
+     * @return
+     * @throws IOException
+     */
+    protected abstract String readKey(long position) throws IOException;
+
+    /**
+     * Gets the position of the line of a document
+     * @param sourceNodeId
+     * @return -1 if the document is not in the index
+     * @throws IOException
+     */
+    long get(String sourceNodeId) throws IOException {
+        int slot = find(sourceNodeId, hash(sourceNodeId));
+        return slots.getLong(slot * SLOT_SIZE + 4) - 1;
+    }
+
+    /**
+     * Sets the position of the line of a document, it replaces any previous position of the document
+     * @param sourceNodeId
+     * @param position
+     * @throws IOException
+     */
+    void put(String sourceNodeId, long position) throws IOException {
+        int hash = hash(sourceNodeId);
+        int slot = find(sourceNodeId, hash);
+
+        if (slots.getLong(slot * SLOT_SIZE + 4) == 0) {
+            if ((size + 1) * 4L > capacity * 3L) { // keep the table under 75% full
+                grow();
+                slot = find(sourceNodeId, hash);
+            }
+            slots.putInt(slot * SLOT_SIZE, hash);
+            size++;
+        }
+
+        slots.putLong(slot * SLOT_SIZE + 4, position + 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Deletes the index file, the mapping is released by the garbage collector
+     */
+    void close() {
+        slots = null;
+        delete(getFile(generation));
+    }
+
+    /**
+     * Finds the slot of a document, or the empty slot where it would be added
+     * @param sourceNodeId
+     * @param hash
+     * @return
+     * @throws IOException
+     */
+    private int find(String sourceNodeId, int hash) throws IOException {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+
+        while (true) {
+            long position = slots.getLong(slot * SLOT_SIZE + 4);
+
+            if (position == 0 || (slots.getInt(slot * SLOT_SIZE) == hash && sourceNodeId.equals(readKey(position - 1))))
+                return slot;
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Moves the slots into a new table twice as large, the table is mapped to a new file
+     * @throws IOException
+     */
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY)
+            throw new IOException("Migration ledger index full: " + size + " entries");
+
+        MappedByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        File oldFile = getFile(generation);
+
+        generation++;
+        map(capacity * 2);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long position = oldSlots.getLong(i * SLOT_SIZE + 4);
+            if (position == 0)
+                continue;
+
+            int hash = oldSlots.getInt(i * SLOT_SIZE);
+            int slot = hash & mask;
+            while (slots.getLong(slot * SLOT_SIZE + 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots.putInt(slot * SLOT_SIZE, hash);
+            slots.putLong(slot * SLOT_SIZE + 4, position);
+        }
+
+        delete(oldFile);
+    }
+
+    /**
+     * Maps an empty table to the index file of the current generation
+     * @param newCapacity
+     * @throws IOException
+     */
+    private void map(int newCapacity) throws IOException {
+        File indexFile = getFile(generation);
+        delete(indexFile);
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw")) {
+            slots = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) newCapacity * SLOT_SIZE);
+        }
+
+        capacity = newCapacity;
+    }
+
+    private File getFile(int fileGeneration) {
+        return new File(file.getAbsolutePath() + "." + fileGeneration);
+    }
+
+    private void delete(File indexFile) {
+        if (indexFile.exists() && !indexFile.delete()) // still mapped on some platforms, it's released when the job ends
+            indexFile.deleteOnExit();
+    }
+
+    private static int hash(String sourceNodeId) {
+        int hash = sourceNodeId.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,27 @@
+package com.ecm.alfresco.migration.component.ledger;
+
+import com.ecm.alfresco.migration.bean.document.LedgerEntry;
+
+/**
+ * Durable record of the documents already migrated, it lets a rerun decide whether a document has to be skipped or
+ * replaced without asking the target repository
+ */
+public interface MigrationLedger {
+    /**
+     * Gets the last entry recorded for a source document
+     * @param sourceNodeId
+     * @return null if the document was never recorded
+     */
+    LedgerEntry get(String sourceNodeId);
+
+    /**
+     * Records a migration result, it replaces any previous entry of the same source document
+     * @param entry
+     */
+    void record(LedgerEntry entry);
+
+    /**
+     * Releases the ledger resources
+     */
+    void close();
+}
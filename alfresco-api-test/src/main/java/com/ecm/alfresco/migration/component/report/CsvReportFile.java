@@ -0,0 +1,76 @@
+package com.ecm.alfresco.migration.component.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CSV report file, it rolls over when the file reaches the size limit in bytes
+ */
+public class CsvReportFile extends RollingReportFile {
+    private static final String SEPARATOR = ",";
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private BufferedWriter writer;
+    private long size;
+
+    /**
+     * CSV report file constructor
+     * @param folder
+     * @param baseName file name without extension
+     * @param header
+     * @param maxSize max file size in bytes
+     */
+    public CsvReportFile(File folder, String baseName, String[] header, long maxSize) {
+        super(folder, baseName, ".csv", header, maxSize);
+    }
+
+    @Override
+    protected void openFile(File file) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        size = 0;
+    }
+
+    @Override
+    protected void writeRow(String[] values) throws IOException {
+        StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                line.append(SEPARATOR);
+            line.append(toField(values[i]));
+        }
+
+        line.append(LINE_SEPARATOR);
+        writer.write(line.toString());
+        size += line.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    protected long getSize() {
+        return size;
+    }
+
+    @Override
+    protected void closeFile() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Quotes a value if it contains separators, quotes or line breaks
+     * @param value
+     * @return
+     */
+    private String toField(String value) {
+        if (value == null)
+            return "";
+
+        if (value.contains(SEPARATOR) || value.contains("\"") || value.contains("\n") || value.contains("\r"))
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+
+        return value;
+    }
+}
@@ -0,0 +1,72 @@
+package com.ecm.alfresco.migration.component.report;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Excel report file written with a streaming workbook: only the last rows are kept in memory, older rows are flushed
+ * to a compressed temp file, so the heap used doesn't grow with the report. It rolls over when the sheet reaches the
+ * max number of rows.
+ */
+public class ExcelReportFile extends RollingReportFile {
+    private static final String LIST = "List";
+    public static final int MAX_ROWS = 1048575; // Excel sheet limit, without the header
+
+    private final int windowSize;
+    private SXSSFWorkbook workbook;
+    private Sheet sheet;
+    private File file;
+    private int rowCount;
+
+    /**
+     * Excel report file constructor
+     * @param folder
+     * @param baseName file name without extension
+     * @param header
+     * @param maxRows max number of rows of a file
+     * @param windowSize number of rows kept in memory
+     */
+    public ExcelReportFile(File folder, String baseName, String[] header, int maxRows, int windowSize) {
+        super(folder, baseName, ".xlsx", header, Math.min(Math.max(maxRows, 1), MAX_ROWS) + 1);
+        this.windowSize = Math.max(windowSize, 1);
+    }
+
+    @Override
+    protected void openFile(File file) throws IOException {
+        this.file = file;
+        workbook = new SXSSFWorkbook(windowSize);
+        workbook.setCompressTempFiles(true);
+        sheet = workbook.createSheet(LIST);
+        rowCount = 0;
+    }
+
+    @Override
+    protected void writeRow(String[] values) throws IOException {
+        Row row = sheet.createRow(rowCount++);
+
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                row.createCell(i).setCellValue(values[i]);
+        }
+    }
+
+    @Override
+    protected long getSize() {
+        return rowCount;
+    }
+
+    @Override
+    protected void closeFile() throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            workbook.write(fileOut);
+
+        } finally {
+            workbook.dispose(); // deletes the temp files
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.ecm.alfresco.migration.component.report;
+
+import com.ecm.alfresco.migration.bean.document.ReportRow;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes the migration report and the error report into local files, every row goes to the migration report and the
+ * failed ones to the error report too
+ */
+public class FileReportSink implements ReportSink {
+    private final RollingReportFile migrationFile;
+    private final RollingReportFile errorFile;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"); // only used by the report writer thread
+
+    public FileReportSink(RollingReportFile migrationFile, RollingReportFile errorFile) {
+        this.migrationFile = migrationFile;
+        this.errorFile = errorFile;
+    }
+
+    @Override
+    public void write(List<ReportRow> rowList) throws Exception {
+        for (ReportRow oneRow : rowList) {
+            String dateTime = dateFormat.format(new Date(oneRow.getTime()));
+            migrationFile.write(oneRow.getMigrationValues(dateTime));
+
+            if (oneRow.isFailed())
+                errorFile.write(oneRow.getErrorValues(dateTime));
+        }
+    }
+
+    @Override
+    public void close() {
+        migrationFile.close();
+        errorFile.close();
+    }
+
+    @Override
+    public String toString() {
+        return "report files: " + migrationFile.getFileCount() + ", error files: " + errorFile.getFileCount();
+    }
+}
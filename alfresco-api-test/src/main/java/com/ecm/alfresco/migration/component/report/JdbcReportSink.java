@@ -0,0 +1,92 @@
+package com.ecm.alfresco.migration.component.report;
+
+import com.ecm.alfresco.migration.bean.document.ReportRow;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Writes the migration report into a database table, every batch of rows is sent in a single JDBC batch so the report
+ * takes one connection and one round trip per batch instead of one per document
+ */
+public class JdbcReportSink implements ReportSink {
+    private static final Logger logger = Logger.getLogger(JdbcReportSink.class);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String batchId;
+    private final String insertSql;
+    private long rowCount;
+
+    /**
+     * Report sink constructor, the table is created if it doesn't exist
+     * @param jdbcTemplate
+     * @param table
+     * @param batchId
+     */
+    public JdbcReportSink(NamedParameterJdbcTemplate jdbcTemplate, String table, String batchId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.batchId = batchId;
+        this.insertSql = "INSERT INTO " + table + " (batch_id, date_time, file_name, source_status, source_destination_folder, source_node_ref, target_node_ref, target_destination_folder, status, message) "
+                + "VALUES (:batchId, :dateTime, :fileName, :sourceStatus, :sourceDestinationFolder, :sourceNodeRef, :targetNodeRef, :targetDestinationFolder, :status, :message)";
+
+        createTable();
+    }
+
+    @Override
+    public void write(List<ReportRow> rowList) throws Exception {
+        MapSqlParameterSource[] batchParams = new MapSqlParameterSource[rowList.size()];
+
+        for (int i = 0; i < rowList.size(); i++) {
+            ReportRow oneRow = rowList.get(i);
+            batchParams[i] = new MapSqlParameterSource()
+                    .addValue("batchId", batchId)
+                    .addValue("dateTime", new Timestamp(oneRow.getTime()))
+                    .addValue("fileName", oneRow.getFileName())
+                    .addValue("sourceStatus", oneRow.getSourceStatus())
+                    .addValue("sourceDestinationFolder", oneRow.getSourceDestinationFolder())
+                    .addValue("sourceNodeRef", oneRow.getSourceNodeRef())
+                    .addValue("targetNodeRef", oneRow.getTargetNodeRef())
+                    .addValue("targetDestinationFolder", oneRow.getTargetDestinationFolder())
+                    .addValue("status", oneRow.getStatus())
+                    .addValue("message", oneRow.getMessage());
+        }
+
+        jdbcTemplate.batchUpdate(insertSql, batchParams);
+        rowCount += rowList.size();
+    }
+
+    @Override
+    public void close() {
+        // the connection pool is owned by DataSourceComponent
+    }
+
+    /**
+     * Creates the report table if it doesn't exist
+     */
+    private void createTable() {
+        logger.info("Migration report table: " + table);
+        jdbcTemplate.getJdbcOperations().execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                + "batch_id VARCHAR(50), "
+                + "date_time TIMESTAMP NULL, "
+                + "file_name VARCHAR(255), "
+                + "source_status VARCHAR(50), "
+                + "source_destination_folder VARCHAR(1000), "
+                + "source_node_ref VARCHAR(255), "
+                + "target_node_ref VARCHAR(255), "
+                + "target_destination_folder VARCHAR(1000), "
+                + "status VARCHAR(20), "
+                + "message TEXT)");
+    }
+
+    @Override
+    public String toString() {
+        return "report table: " + table + ", rows: " + rowCount;
+    }
+}
@@ -0,0 +1,206 @@
+package com.ecm.alfresco.migration.component.report;
+
+import com.ecm.alfresco.migration.bean.document.ReportRow;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Migration report written off the migration threads. The threads only add rows to a lock-free queue, a single writer
+ * thread takes them in batches and passes them to the report sink, so no migration thread waits for the report and
+ * the rows are not kept in memory once written. A batch is written when it's full or when its first row has waited
+ * for the flush interval, whichever comes first. The queue is bounded: when it's full the migration threads wait
+ * for the writer.
+ */
+public class MigrationReport {
+    private static final Logger logger = Logger.getLogger(MigrationReport.class);
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long FULL_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ReportSink reportSink;
+    private final Queue<ReportRow> rowQueue = new ConcurrentLinkedQueue<>();
+    private final int batchSize;
+    private final long flushInterval;
+    private final long queueSize;
+    private final Thread writerThread;
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile boolean flushRequested = false;
+    private volatile boolean finished = false;
+
+    /**
+     * Report constructor, the writer thread starts straight away
+     * @param reportSink
+     * @param batchSize max number of rows passed to the sink at once
+     * @param flushInterval max milliseconds a row waits for its batch to be full, 0 to write the rows available at once
+     * @param queueSize max number of rows waiting to be written
+     */
+    public MigrationReport(ReportSink reportSink, int batchSize, long flushInterval, int queueSize) {
+        this.reportSink = reportSink;
+        this.batchSize = Math.max(batchSize, 1);
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(flushInterval, 0));
+        this.queueSize = Math.max(queueSize, this.batchSize);
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processQueue();
+
+                } catch (Throwable t) {
+                    logger.error("EXCEPTION in migration report writer, rows will be written by the migration threads, exception: " + t);
+                }
+            }
+        }, "migration-report");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Adds a row to the report, it only waits if the queue is full. If the writer thread is gone the row is written by
+     * the calling thread
+     * @param reportRow
+     */
+    public void add(ReportRow reportRow) {
+        while (getPending() >= queueSize && !finished && writerThread.isAlive()) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(this, FULL_WAIT);
+        }
+
+        added.incrementAndGet();
+        rowQueue.add(reportRow);
+
+        if (!writerThread.isAlive())
+            writePending();
+    }
+
+    /**
+     * Writes the rows left in the queue from the calling thread, used when the writer thread is gone
+     */
+    private void writePending() {
+        synchronized (reportSink) {
+            List<ReportRow> batch = new ArrayList<>(batchSize);
+            ReportRow reportRow;
+
+            while ((reportRow = rowQueue.poll()) != null) {
+                batch.add(reportRow);
+                if (batch.size() >= batchSize) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+
+            if (!batch.isEmpty())
+                write(batch);
+        }
+    }
+
+    /**
+     * Writes all the rows added so far, it waits until they are written
+     */
+    public void flush() {
+        long target = added.get();
+        flushRequested = true;
+
+        while (written.get() + failed.get() < target && writerThread.isAlive()) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(this, FULL_WAIT);
+        }
+
+        logger.debug("Migration report flushed, rows: " + written.get());
+    }
+
+    /**
+     * Writes the pending rows and closes the sink
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        logger.info("Waiting for migration report, pending rows: " + getPending());
+        finished = true;
+        LockSupport.unpark(writerThread);
+        writerThread.join();
+        writePending();
+        reportSink.close();
+    }
+
+    /**
+     * Writes batches of rows until the report is closed and the queue is empty
+     */
+    private void processQueue() {
+        List<ReportRow> batch = new ArrayList<>(batchSize);
+        long batchStart = 0;
+
+        while (true) {
+            ReportRow reportRow;
+            while (batch.size() < batchSize && (reportRow = rowQueue.poll()) != null) {
+                if (batch.isEmpty())
+                    batchStart = System.nanoTime();
+                batch.add(reportRow);
+            }
+
+            boolean flush = finished || flushRequested;
+            if (!batch.isEmpty() && (batch.size() >= batchSize || flush || System.nanoTime() - batchStart >= flushInterval)) {
+                write(batch);
+                batch.clear();
+
+            } else if (batch.isEmpty() && flush) {
+                flushRequested = false;
+                if (finished)
+                    return;
+
+            } else {
+                long wait = batch.isEmpty() ? IDLE_WAIT : Math.max(flushInterval - (System.nanoTime() - batchStart), 0);
+                LockSupport.parkNanos(this, Math.min(wait, IDLE_WAIT));
+
+                if (Thread.interrupted()) // the report is only stopped by close, an interrupt would make park return at once
+                    logger.debug("Migration report writer interrupted, it goes on until the report is closed");
+            }
+        }
+    }
+
+    /**
+     * Passes a batch to the sink, a batch that fails is written again one row at a time so only the rows failing on
+     * their own are lost
+     * @param batch
+     */
+    private void write(List<ReportRow> batch) {
+        try {
+            reportSink.write(batch);
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                failed.incrementAndGet();
+                logger.error("EXCEPTION writing migration report row, file: " + batch.get(0).getFileName() + ", exception: " + e.getMessage());
+
+                if (logger.isDebugEnabled()) {
+                    e.printStackTrace();
+                }
+
+            } else {
+                logger.warn("EXCEPTION writing migration report, rows: " + batch.size() + ", writing them one by one, exception: " + e.getMessage());
+                for (ReportRow oneRow : batch)
+                    write(Collections.singletonList(oneRow));
+            }
+        }
+    }
+
+    public long getPending() {
+        return added.get() - written.get() - failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "rows: " + written.get() + ", batches: " + batches.get() + ", failed: " + failed.get() + ", pending: " + getPending() + ", " + reportSink;
+    }
+}
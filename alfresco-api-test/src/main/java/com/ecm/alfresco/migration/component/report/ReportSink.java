@@ -0,0 +1,22 @@
+package com.ecm.alfresco.migration.component.report;
+
+import com.ecm.alfresco.migration.bean.document.ReportRow;
+
+import java.util.List;
+
+/**
+ * Destination of the migration report rows, it's only called by the report writer thread
+ */
+public interface ReportSink {
+    /**
+     * Writes a batch of rows
+     * @param rowList
+     * @throws Exception
+     */
+    void write(List<ReportRow> rowList) throws Exception;
+
+    /**
+     * Writes the pending rows and releases the sink resources
+     */
+    void close();
+}
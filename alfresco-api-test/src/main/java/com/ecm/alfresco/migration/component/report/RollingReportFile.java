@@ -0,0 +1,94 @@
+package com.ecm.alfresco.migration.component.report;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Report file that rolls over to a new file once it reaches its size limit. The first file is named after the base
+ * name, the next ones get a sequence number (report.csv, report-2.csv, report-3.csv...), every file starts with the
+ * header row.
+ */
+public abstract class RollingReportFile {
+    private static final Logger logger = Logger.getLogger(RollingReportFile.class);
+
+    private final File folder;
+    private final String baseName;
+    private final String extension;
+    private final String[] header;
+    private final long limit;
+    private int fileIndex = 0;
+    private boolean open = false;
+
+    /**
+     * Report file constructor, the file is created with the first row
+     * @param folder
+     * @param baseName file name without extension
+     * @param extension
+     * @param header
+     * @param limit size limit of a file, in the unit of getSize
+     */
+    protected RollingReportFile(File folder, String baseName, String extension, String[] header, long limit) {
+        this.folder = folder;
+        this.baseName = baseName;
+        this.extension = extension;
+        this.header = header;
+        this.limit = limit;
+    }
+
+    /**
+     * Writes a row, the current file is closed and a new one is opened if the current one is full
+     * @param values
+     * @throws IOException
+     */
+    public void write(String[] values) throws IOException {
+        if (open && getSize() >= limit) {
+            closeFile();
+            open = false;
+        }
+
+        if (!open) {
+            fileIndex++;
+            File file = new File(folder, baseName + (fileIndex > 1 ? "-" + fileIndex : "") + extension);
+            logger.info("Opening report file: " + file.getAbsolutePath());
+            openFile(file);
+            open = true;
+            writeRow(header);
+        }
+
+        writeRow(values);
+    }
+
+    /**
+     * Closes the current file
+     */
+    public void close() {
+        if (open) {
+            try {
+                closeFile();
+
+            } catch (IOException e) {
+                logger.error("EXCEPTION closing report file: " + baseName + extension + ", exception: " + e.getMessage());
+            }
+
+            open = false;
+        }
+    }
+
+    public int getFileCount() {
+        return fileIndex;
+    }
+
+    protected abstract void openFile(File file) throws IOException;
+
+    protected abstract void writeRow(String[] values) throws IOException;
+
+    /**
+     * Gets the size of the current file
+     * @return
+     */
+    protected abstract long getSize();
+
+    protected abstract void closeFile() throws IOException;
+}
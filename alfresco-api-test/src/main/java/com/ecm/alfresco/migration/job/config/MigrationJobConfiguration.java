@@ -5,6 +5,7 @@ import com.ecm.alfresco.migration.bean.document.DocumentItem;
 import com.ecm.alfresco.migration.component.DataSourceComponent;
 import com.ecm.alfresco.migration.job.param.JobParameters;
 
+import com.ecm.alfresco.migration.job.reader.AssociationReader;
 import com.ecm.alfresco.migration.job.reader.DocumentCMISReader;
 import com.ecm.alfresco.migration.job.reader.DocumentDatasourceReader;
 import com.ecm.alfresco.migration.job.reader.FolderReader;
@@ -20,6 +21,7 @@ import org.springframework.batch.core.Step;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.job.builder.SimpleJobBuilder;
 import org.springframework.batch.core.step.builder.SimpleStepBuilder;
 import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.item.ItemReader;
@@ -28,7 +30,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
 
 @Configuration
 @EnableBatchProcessing
@@ -48,9 +49,15 @@ public class MigrationJobConfiguration {
      */
     @Bean
     public Job job() throws Exception {
-        return jobBuilderFactory.get("migrationJob").
+        SimpleJobBuilder jobBuilder = jobBuilderFactory.get("migrationJob").
                 start(initStep()).
-                next(migrationStep()).
+                next(migrationStep());
+
+        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_COPY_ASSOCIATIONS)))
+            jobBuilder = jobBuilder.next(associationStep());
+
+        return jobBuilder.
+                next(finalStep()).
                 build();
     }
 
@@ -62,14 +69,13 @@ public class MigrationJobConfiguration {
     @Bean
     public Step migrationStep() throws Exception {
         String threads = MigrationProperties.get(MigrationProperties.PROP_NUM_THREADS);
-        String profile = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_PROFILE);
 
-        if (threads != null) {
-            int intThreads = Integer.parseInt(threads);
+        if (threads != null && !threads.trim().isEmpty()) {
+            StepTaskExecutor stepTaskExecutor = stepTaskExecutor();
 
                 return getSimpleStepBuilder()
-                        .taskExecutor(new SimpleAsyncTaskExecutor())
-                        .throttleLimit(intThreads)
+                        .taskExecutor(stepTaskExecutor)
+                        .throttleLimit(stepTaskExecutor.getConcurrency())
                         .build();
         } else {
             
@@ -77,6 +83,34 @@ public class MigrationJobConfiguration {
         }
     }
 
+    /**
+     * Creates the association step, it runs on the migration step executor once the documents are migrated
+     * @return
+     * @throws Exception
+     */
+    @Bean
+    public Step associationStep() throws Exception {
+        int threads = MigrationProperties.getInt(MigrationProperties.PROP_ASSOCIATION_THREADS, MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1));
+
+        return getAssociationStepBuilder()
+                .taskExecutor(stepTaskExecutor())
+                .throttleLimit(Math.max(threads, 1))
+                .build();
+    }
+
+    /**
+     * Creates the executor running the migration chunks
+     * @return
+     */
+    @Bean
+    public StepTaskExecutor stepTaskExecutor() {
+        int threads = MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1);
+        int queueSize = MigrationProperties.getInt(MigrationProperties.PROP_STEP_EXECUTOR_QUEUE_SIZE, threads);
+        String type = MigrationProperties.get(MigrationProperties.PROP_STEP_EXECUTOR_TYPE);
+
+        return new StepTaskExecutor(type == null ? StepTaskExecutor.TYPE_POOL : type.trim(), threads, queueSize, MigrationProperties.getStepConcurrency());
+    }
+
     /**
      * Creates the step builder for documentItem
      * @return
@@ -85,11 +119,14 @@ public class MigrationJobConfiguration {
     private SimpleStepBuilder<DocumentItem, DocumentItem> getSimpleStepBuilder() throws Exception {
         try {
             int batchSize = Integer.parseInt(MigrationProperties.get(MigrationProperties.PROP_SOURCE_BATCH_SIZE));
-            return stepBuilderFactory.get("migrate")
+            SimpleStepBuilder<DocumentItem, DocumentItem> stepBuilder = stepBuilderFactory.get("migrate")
                     .<DocumentItem, DocumentItem>chunk(batchSize)
                     .reader(reader())
                     .writer(writer());
 
+            stepBuilder.listener(reportFlushListener());
+            return stepBuilder;
+
         } catch (Exception e) {
             logger.error(MigrationProperties.PROP_SOURCE_BATCH_SIZE + " value is not a integer: " + MigrationProperties.get(MigrationProperties.PROP_SOURCE_BATCH_SIZE));
             throw e;
@@ -100,11 +137,11 @@ public class MigrationJobConfiguration {
      * Creates the step builder for documentAssociation
      * @return
      * @throws Exception
-     
+     */
     private SimpleStepBuilder<DocumentAssociation, DocumentAssociation> getAssociationStepBuilder() throws Exception {
         try {
             int batchSize = Integer.parseInt(MigrationProperties.get(MigrationProperties.PROP_SOURCE_BATCH_SIZE));
-            return stepBuilderFactory.get("migrate")
+            return stepBuilderFactory.get("associations")
                     .<DocumentAssociation, DocumentAssociation>chunk(batchSize)
                     .reader(associationReader())
                     .writer(associationWriter());
@@ -113,7 +150,7 @@ public class MigrationJobConfiguration {
             logger.error(MigrationProperties.PROP_SOURCE_BATCH_SIZE + " value is not a integer: " + MigrationProperties.get(MigrationProperties.PROP_SOURCE_BATCH_SIZE));
             throw e;
         }
-    }*/
+    }
 
     /**
      * Creates the reader based on the profile
@@ -140,23 +177,32 @@ public class MigrationJobConfiguration {
             return new FolderReader();
     }
 
+    /**
+     * Creates the listener flushing the migration report at the end of the migration step
+     * @return
+     */
+    @Bean
+    public ReportFlushListener reportFlushListener() {
+        return new ReportFlushListener();
+    }
+
     /**
      * Creates the final tasklet
      * @return
-     
+     */
     @Bean
     public Tasklet finalTasklet() {
         return new FinalTasklet();
-    }*/
+    }
 
     /**
      * Creates the final step
      * @return
-     
+     */
     @Bean
     public Step finalStep() {
         return stepBuilderFactory.get("final").tasklet(finalTasklet()).build();
-    }*/
+    }
 
     /**
      * Creates the initial tasklet
@@ -234,11 +280,11 @@ public class MigrationJobConfiguration {
     /**
      * Creates the associationReader
      * @return
-     
+     */
     @Bean
-    public ItemReader<DocumentAssociation> associationReader() throws Exception {
-        return new AssociationDatasourceReader();
-    }*/
+    public ItemReader<DocumentAssociation> associationReader() {
+        return new AssociationReader();
+    }
 
     /**
      * Creates the writer
@@ -33,6 +33,7 @@ public class MigrationProperties {
     public static final String PROP_TARGET_STRUCTURE_RULE = "target.folder.structure.";
     public static final String PROP_TARGET_STRUCTURE_DEFAULT = "target.folder.structure.default";
     public static final String PROP_TARGET_STRUCTURE_REPLACE = "target.folder.structure.string.replace";
+    public static final String PROP_TARGET_STRUCTURE_CACHE_SIZE = "target.folder.structure.cache.size";
     public static final String PROP_TARGET_KEEP_SOURCE_NODEID_ENABLED = "target.keep.source.nodeId.enabled";
     public static final String PROP_TARGET_KEEP_SOURCE_NODEID_PROPERTY = "target.keep.source.nodeId.property";
     public static final String PROP_TARGET_NEW_ASPECT_LIST = "target.new.aspect.list";
@@ -44,9 +45,83 @@ public class MigrationProperties {
     public static final String PROP_BATCH_LOG_LEVEL = "migration.process.log4j.batch.level";
     public static final String PROP_ALFRESCO_HOST_URL = "alfresco.host.url";
     public static final String PROP_ALFRESCO_CMIS_URL = "alfresco.cmis.url";
+    public static final String PROP_ALFRESCO_CMIS_BINDING = "alfresco.cmis.binding";
     public static final String PROP_ALFRESCO_USER = "alfresco.user";
     public static final String PROP_ALFRESCO_PASSWORD = "alfresco.password";
     public static final String PROP_NUM_THREADS = "migration.process.threads";
+    public static final String PROP_CRAWLER_THREADS = "migration.crawler.threads";
+    public static final String PROP_CRAWLER_QUEUE_SIZE = "migration.crawler.queue.size";
+    public static final String PROP_PIPELINE_ENABLED = "migration.pipeline.enabled";
+    public static final String PROP_PIPELINE_QUEUE_SIZE = "migration.pipeline.queue.size";
+    public static final String PROP_PIPELINE_THREADS = "migration.pipeline.threads.";
+    public static final String PROP_CONTENT_STREAMING_ENABLED = "migration.content.streaming.enabled";
+    public static final String PROP_CONTENT_SPOOL_THRESHOLD = "migration.content.spool.threshold";
+    public static final String PROP_CONTENT_BUFFER_SIZE = "migration.content.buffer.size";
+    public static final String PROP_FOLDER_CACHE_SIZE = "migration.folder.cache.size";
+    public static final String PROP_PAGING_MODE = "migration.paging.mode";
+    public static final String PROP_PAGING_QUERY_KEY = "migration.paging.query.key";
+    public static final String PROP_PARENT_PATH_CACHE_SIZE = "migration.parent.path.cache.size";
+    public static final String PROP_QUERY_FILTER_PUSHDOWN = "migration.query.filter.pushdown";
+    public static final String PROP_QUERY_FILTER_MAX_FOLDERS = "migration.query.filter.max.folders";
+    public static final String PROP_VALIDATION_MODE = "migration.validation.mode";
+    public static final String PROP_VALIDATION_SAMPLE = "migration.validation.sample";
+    public static final String PROP_VALIDATION_THREADS = "migration.validation.threads";
+    public static final String PROP_VALIDATION_BATCH_SIZE = "migration.validation.batch.size";
+    public static final String PROP_VALIDATION_QUEUE_SIZE = "migration.validation.queue.size";
+    public static final String PROP_VALIDATION_MAX_DOCUMENTS = "migration.validation.max.documents";
+    public static final String PROP_FOLDER_INDEX_ENABLED = "migration.folder.index.enabled";
+    public static final String PROP_FOLDER_INDEX_SIZE = "migration.folder.index.size";
+    public static final String PROP_FOLDER_INDEX_MAX_DOCUMENTS = "migration.folder.index.max.documents";
+    public static final String PROP_STEP_EXECUTOR_TYPE = "migration.step.executor";
+    public static final String PROP_STEP_EXECUTOR_QUEUE_SIZE = "migration.step.executor.queue.size";
+    public static final String PROP_STEP_EXECUTOR_CONCURRENCY = "migration.step.executor.concurrency";
+    public static final String PROP_CMIS_SESSION_POOL_SIZE = "cmis.session.pool.size";
+    public static final String PROP_CMIS_SESSION_TTL = "cmis.session.ttl";
+    public static final String PROP_CMIS_SESSION_CACHE_SIZE = "cmis.session.cache.size";
+    public static final String PROP_CMIS_SESSION_CACHE_TTL = "cmis.session.cache.ttl";
+    public static final String PROP_HTTP_POOL_MAX_TOTAL = "http.pool.max.total";
+    public static final String PROP_HTTP_POOL_MAX_PER_ROUTE = "http.pool.max.per.route";
+    public static final String PROP_HTTP_POOL_VALIDATE_AFTER_INACTIVITY = "http.pool.validate.after.inactivity";
+    public static final String PROP_HTTP_POOL_TTL = "http.pool.ttl";
+    public static final String PROP_HTTP_POOL_KEEP_ALIVE = "http.pool.keep.alive";
+    public static final String PROP_METADATA_PREFETCH_ENABLED = "migration.metadata.prefetch.enabled";
+    public static final String PROP_METADATA_PREFETCH_THREADS = "migration.metadata.prefetch.threads";
+    public static final String PROP_METADATA_STREAMING_ENABLED = "migration.metadata.streaming.enabled";
+    public static final String PROP_VERSION_PREFETCH_ENABLED = "migration.version.prefetch.enabled";
+    public static final String PROP_VERSION_PREFETCH_DEPTH = "migration.version.prefetch.depth";
+    public static final String PROP_VERSION_PREFETCH_THREADS = "migration.version.prefetch.threads";
+    public static final String PROP_STATS_RATE_WINDOW = "migration.stats.rate.window";
+    public static final String PROP_STATS_REPORT_INTERVAL = "migration.stats.report.interval";
+    public static final String PROP_MIGRATION_REPORT_TYPE = "migration.report.type";
+    public static final String PROP_MIGRATION_REPORT_FOLDER = "migration.report.folder";
+    public static final String PROP_MIGRATION_REPORT_FILE = "migration.report.file";
+    public static final String PROP_MIGRATION_REPORT_FILE_ERROR = "migration.report.file.error";
+    public static final String PROP_MIGRATION_REPORT_MAX_ROWS = "migration.report.max.rows";
+    public static final String PROP_MIGRATION_REPORT_MAX_SIZE = "migration.report.max.size";
+    public static final String PROP_MIGRATION_REPORT_WINDOW_SIZE = "migration.report.window.size";
+    public static final String PROP_MIGRATION_REPORT_BATCH_SIZE = "migration.report.batch.size";
+    public static final String PROP_MIGRATION_REPORT_FLUSH_INTERVAL = "migration.report.flush.interval";
+    public static final String PROP_MIGRATION_REPORT_QUEUE_SIZE = "migration.report.queue.size";
+    public static final String PROP_MIGRATION_REPORT_TABLE = "migration.report.table";
+    public static final String PROP_DB_DRIVER = "migration.db.driver";
+    public static final String PROP_DB_URL = "migration.db.url";
+    public static final String PROP_DB_USER = "migration.db.user";
+    public static final String PROP_DB_PASSWORD = "migration.db.password";
+    public static final String PROP_DB_POOL_SIZE = "migration.db.pool.size";
+    public static final String PROP_LEDGER_ENABLED = "migration.ledger.enabled";
+    public static final String PROP_LEDGER_FILE = "migration.ledger.file";
+    public static final String PROP_LEDGER_TABLE = "migration.ledger.table";
+    public static final String PROP_LEDGER_CACHE_SIZE = "migration.ledger.cache.size";
+    public static final String PROP_LEDGER_VERIFY_CONTENT = "migration.ledger.verify.content";
+    public static final String PROP_ASSOCIATION_QUEUE_FILE = "migration.association.queue.file";
+    public static final String PROP_ASSOCIATION_BATCH_SIZE = "migration.association.batch.size";
+    public static final String PROP_ASSOCIATION_THREADS = "migration.association.threads";
+    public static final String PROP_ASSOCIATION_DISCOVERY_THREADS = "migration.association.discovery.threads";
+    public static final String PROP_PERMISSIONS_THREADS = "migration.permissions.threads";
+    public static final String PROP_PERMISSIONS_QUEUE_SIZE = "migration.permissions.queue.size";
+    public static final String PROP_PERMISSIONS_SIGNATURE_CACHE_SIZE = "migration.permissions.signature.cache.size";
+    public static final String PROP_HTTP_AUTH_PREEMPTIVE = "http.auth.preemptive";
+    public static final String PROP_HTTP_POOL_STATS_INTERVAL = "migration.http.pool.stats.interval";
     
 
     private static Map<String, String> properties = new HashMap<String, String>();
@@ -57,6 +132,63 @@ public class MigrationProperties {
         return properties.get(key);
     }
 
+    /**
+     * Gets a numeric property, falls back to the default value when the property is empty or not a number
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+
+        try {
+            return Integer.parseInt(value.trim());
+
+        } catch (NumberFormatException e) {
+            logger.warn("Property " + key + " is not a number: '" + value + "', using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a long numeric property, falls back to the default value when the property is empty or not a number
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key);
+
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value.trim());
+
+        } catch (NumberFormatException e) {
+            logger.warn("Property " + key + " is not a number: '" + value + "', using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the max number of chunks the migration step runs at once: the number of threads for a thread pool, for
+     * virtual threads the step executor concurrency, by default the number of threads plus the executor queue size
+     * @return
+     */
+    public static int getStepConcurrency() {
+        int threads = getInt(PROP_NUM_THREADS, 1);
+        String type = get(PROP_STEP_EXECUTOR_TYPE);
+
+        if (type == null || !StepTaskExecutor.TYPE_VIRTUAL.equalsIgnoreCase(type.trim()))
+            return threads;
+
+        return Math.max(getInt(PROP_STEP_EXECUTOR_CONCURRENCY, threads + getInt(PROP_STEP_EXECUTOR_QUEUE_SIZE, threads)), 1);
+    }
+
     /**
      * Loads properties from migration.properties
      *
@@ -0,0 +1,39 @@
+package com.ecm.alfresco.migration.job.config;
+
+import com.ecm.alfresco.migration.job.param.JobParameters;
+
+import org.apache.log4j.Logger;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.listener.StepExecutionListenerSupport;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Finishes the deferred validation and writes the pending rows of the migration report when the migration step ends,
+ * so the documents failing validation are rolled back before the association step starts and the report is complete
+ * once the step is finished, without depending on the flush interval
+ */
+public class ReportFlushListener extends StepExecutionListenerSupport {
+    private static final Logger logger = Logger.getLogger(ReportFlushListener.class);
+
+    @Autowired
+    private JobParameters jobParameters;
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (jobParameters.getDeferredValidator() != null) {
+            try {
+                jobParameters.getDeferredValidator().finish();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for deferred validation: " + e.getMessage());
+            }
+        }
+
+        if (jobParameters.getMigrationReport() != null)
+            jobParameters.getMigrationReport().flush();
+
+        return null;
+    }
+}
@@ -0,0 +1,175 @@
+package com.ecm.alfresco.migration.job.config;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Task executor used by the migration step to run chunks concurrently. Two types are available:
+ * POOL, a bounded pool of named threads with a bounded queue (when the queue is full the chunk runs in the caller thread),
+ * VIRTUAL, one virtual thread per chunk, only available when the JVM supports it. Otherwise POOL is used.
+ * The step throttle limit is the executor concurrency: the pool threads, or the max number of virtual threads.
+ */
+public class StepTaskExecutor implements TaskExecutor, DisposableBean {
+    private static final Logger logger = Logger.getLogger(StepTaskExecutor.class);
+    public static final String TYPE_POOL = "POOL";
+    public static final String TYPE_VIRTUAL = "VIRTUAL";
+    private static final String THREAD_PREFIX = "migration-step-";
+
+    private final ExecutorService executorService;
+    private final String type;
+    private final int threads;
+    private final int queueSize;
+    private final int concurrency;
+    private final AtomicInteger activeTasks = new AtomicInteger();
+
+    /**
+     * Executor constructor
+     * @param type POOL or VIRTUAL
+     * @param threads number of pool threads
+     * @param queueSize max number of chunks waiting for a pool thread
+     * @param concurrency max number of chunks running at once on virtual threads
+     */
+    public StepTaskExecutor(String type, int threads, int queueSize, int concurrency) {
+        this.threads = Math.max(threads, 1);
+        this.queueSize = Math.max(queueSize, 1);
+        this.concurrency = Math.max(concurrency, 1);
+
+        ExecutorService virtualExecutor = TYPE_VIRTUAL.equalsIgnoreCase(type) ? createVirtualExecutor() : null;
+
+        if (virtualExecutor != null) {
+            this.type = TYPE_VIRTUAL;
+            this.executorService = virtualExecutor;
+
+        } else {
+            this.type = TYPE_POOL;
+            this.executorService = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(this.queueSize), new NamedThreadFactory(THREAD_PREFIX),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+
+        logger.info("Step executor: " + this);
+    }
+
+    /**
+     * Runs a task
+     * @param task
+     */
+    @Override
+    public void execute(final Runnable task) {
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                activeTasks.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeTasks.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the executor once the context is closed
+     */
+    @Override
+    public void destroy() {
+        logger.debug("Shutting down step executor");
+        executorService.shutdown();
+    }
+
+    /**
+     * Creates a virtual thread per task executor by reflection, so it still compiles and runs on older JVMs
+     * @return null if virtual threads are not supported
+     */
+    private ExecutorService createVirtualExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+
+        } catch (NoSuchMethodException e) {
+            logger.warn("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + "), using a thread pool instead");
+
+        } catch (Exception e) {
+            logger.warn("Unable to create virtual thread executor, using a thread pool instead. Error: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Gets the max number of chunks running at once, the step throttle limit
+     * @return the number of threads for a thread pool
+     */
+    public int getConcurrency() {
+        return TYPE_VIRTUAL.equals(type) ? concurrency : threads;
+    }
+
+    /**
+     * Gets the number of chunks running
+     * @return
+     */
+    public int getActiveCount() {
+        return activeTasks.get();
+    }
+
+    /**
+     * Gets the number of chunks waiting for a thread, always 0 for virtual threads
+     * @return
+     */
+    public int getQueueDepth() {
+        if (executorService instanceof ThreadPoolExecutor)
+            return ((ThreadPoolExecutor) executorService).getQueue().size();
+        else
+            return 0;
+    }
+
+    @Override
+    public String toString() {
+        if (TYPE_VIRTUAL.equals(type))
+            return "type: " + type + ", concurrency: " + concurrency + ", active: " + getActiveCount();
+        else
+            return "type: " + type + ", threads: " + threads + ", active: " + getActiveCount() + ", queue: " + getQueueDepth() + "/" + queueSize;
+    }
+
+    /**
+     * Creates daemon threads named with a prefix and a sequence number
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + sequence.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -2,16 +2,29 @@ package com.ecm.alfresco.migration.job.param;
 
 import com.ecm.alfresco.migration.bean.access.AccessDetails;
 import com.ecm.alfresco.migration.bean.counter.Counter;
-import com.ecm.alfresco.migration.bean.document.DocumentAssociation;
-import com.ecm.alfresco.migration.bean.document.DocumentItem;
+import com.ecm.alfresco.migration.bean.counter.StageTimer;
 import com.ecm.alfresco.migration.bean.folderStructure.FolderStructureItem;
+import com.ecm.alfresco.migration.component.association.AssociationQueue;
+import com.ecm.alfresco.migration.component.ledger.MigrationLedger;
+import com.ecm.alfresco.migration.component.report.MigrationReport;
 import com.ecm.alfresco.migration.job.config.MigrationProperties;
+import com.ecm.alfresco.migration.job.reader.PermissionCopier;
+import com.ecm.alfresco.migration.job.writer.DeferredValidator;
+import com.ecm.alfresco.migration.job.writer.VersionPrefetcher;
+import com.ecm.alfresco.migration.job.writer.MetadataPrefetcher;
+import com.ecm.alfresco.migration.job.writer.DocumentPipeline;
+import com.ecm.alfresco.migration.util.CmisHelper;
+import com.ecm.alfresco.migration.util.CmisSessionPool;
+import com.ecm.alfresco.migration.util.DestinationPathPlan;
+import com.ecm.alfresco.migration.util.FolderCache;
+import com.ecm.alfresco.migration.util.FolderIndex;
+import com.ecm.alfresco.migration.util.KeysetQueryPager;
+import com.ecm.alfresco.migration.util.ParentPathCache;
 
 import org.apache.chemistry.opencmis.client.api.*;
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.log4j.Logger;
-import org.apache.poi.ss.usermodel.Workbook;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -20,23 +33,16 @@ import java.util.Queue;
 
 public class JobParameters {
     private Queue<String> documentQueue = new LinkedList<>();
-    private Queue<DocumentItem> folderDocumentQueue = new LinkedList<>();
-    private Queue<Folder> folderQueue = new LinkedList<>();
-    private Queue<DocumentAssociation> associationQueue = new LinkedList<>();
+    private AssociationQueue associationQueue;
     private Folder currentFolder;
     private Counter counter = new Counter();
     private StopWatch stopWatchTotal = new StopWatch();
-    private StopWatch stopWatchGetNodeRef = new StopWatch();
-    private StopWatch stopWatchGetProperties = new StopWatch();
-    private StopWatch stopWatchGetFile = new StopWatch();
-    private StopWatch stopWatchUpload = new StopWatch();
-    private StopWatch stopWatchReport = new StopWatch();
-    private StopWatch stopWatchCMISObject = new StopWatch();
-    private StopWatch stopWatchDestinationFolder = new StopWatch();
+    private StageTimer stageTimer = new StageTimer();
     private Session sessionSource;
     private Session sessionTarget;
-    private Workbook migrationReport;
-    private Workbook errorReport;
+    private CmisSessionPool sessionPoolSource;
+    private CmisSessionPool sessionPoolTarget;
+    private MigrationReport migrationReport;
     private int pageSize;
     private String query;    
     private List<FolderStructureItem> itemList;
@@ -55,72 +61,39 @@ public class JobParameters {
     private boolean skipDocuments;
     private String reportDBTable;
     private String assocDBTable;
+    private FolderCache folderCache;
+    private MigrationLedger migrationLedger;
+    private FolderIndex folderIndex;
+    private DeferredValidator deferredValidator;
+    private VersionPrefetcher versionPrefetcher;
+    private MetadataPrefetcher metadataPrefetcher;
+    private DocumentPipeline documentPipeline;
+    private PermissionCopier permissionCopier;
+    private ParentPathCache parentPathCache;
+    private DestinationPathPlan destinationPathPlan;
+    private KeysetQueryPager queryPager;
 
     private static final Logger logger = Logger.getLogger(JobParameters.class);
+    private static final String WEB_CONVERSION = "WebConversion";
 
     /**
-     * Gets next document from the folder document queue
-     * @return
-     */
-    public synchronized DocumentItem getNextFolderDocument() {
-        logger.trace("Documents in queue:");
-        for(DocumentItem oneDocumentItem : folderDocumentQueue) {
-            logger.trace(oneDocumentItem.getDocumentId());
-        }
-        return folderDocumentQueue.poll();
-    }
-
-    /**
-     * Gets next folder from the folder queue
-     * @return
-     */
-    public synchronized Folder getNextFolder() {
-        logger.trace("Folders in queue:");
-        for(Folder oneFolder : folderQueue) {
-            logger.trace(oneFolder.getName());
-        }
-
-        Folder nextFolder = folderQueue.poll();
-        if(nextFolder != null) {
-            String folderName = (String) nextFolder.getProperty(PropertyIds.NAME).getFirstValue();
-
-            if (folderName.equalsIgnoreCase("WebConversion")) {
-                logger.info("Folder Skipped: " + nextFolder.getPath());
-                return getNextFolder();
-
-            } else {
-                logger.debug("Next folder: " + folderName);
-                return nextFolder;
-            }
-        }
-
-        logger.debug("Next folder: null");
-
-        return null;
-
-    }
-
-    /**
-     * Adds documents Id to the document queue. Filters those that belong to a webconversion folder
+     * Adds documents Id to the document queue. Filters those that belong to a WebConversion folder at any level, the
+     * name is compared ignoring case like the folder crawler does. The check is kept when the query already excludes
+     * the WebConversion folders, the exclusion may miss folders spelled in an unusual case
      * @param itemList
      */
-    public synchronized void addAll(ItemIterable<QueryResult> itemList) {
-        QueryResult oneQueryResult;
+    public synchronized void addAll(Iterable<QueryResult> itemList) {
         String documentId;
 
-        while (itemList.iterator().hasNext()) {
-            oneQueryResult = itemList.iterator().next();
+        for (QueryResult oneQueryResult : itemList) {
             documentId = (String) oneQueryResult.getPropertyByQueryName(PropertyIds.OBJECT_ID).getFirstValue();
 
             if (MigrationProperties.get(MigrationProperties.PROP_MIGRATION_PROFILE).equalsIgnoreCase("DELTA") ||
                     MigrationProperties.get(MigrationProperties.PROP_MIGRATION_PROFILE).equalsIgnoreCase("QUERY")) {
                 // verify no document belongs to webconversion folder when running DELTA or QUERY profiles
+                String path = parentPathCache.getParentPath(getSessionSource(), documentId);
 
-                Document document = (Document) getSessionSource().getObject(documentId);
-                List<String> pathList = document.getPaths();
-                String path = pathList.get(0).substring(0, pathList.get(0).lastIndexOf("/"));
-
-                if (path.toLowerCase().contains("webconversion")) {
+                if (path != null && CmisHelper.isInFolderNamed(path, WEB_CONVERSION)) {
                     logger.debug(documentId + ", document Skipped because it belongs to WebConversion folder");
 
                 } else {
@@ -141,111 +114,211 @@ public class JobParameters {
     }
 
     /**
-     * Adds documents Id to the folder document queue
-     * @param documentList
+     *
+     * @return
      */
-    public synchronized void addAllDocument(Queue<DocumentItem> documentList) {
-        logger.debug("Adding documents into the queue: " + documentList.size());
+    public FolderCache getFolderCache() {
+        return folderCache;
+    }
 
-        for(DocumentItem oneDocumentItem : documentList) {
-            folderDocumentQueue.add(oneDocumentItem);
-        }
+    /**
+     *
+     * @param folderCache
+     */
+    public void setFolderCache(FolderCache folderCache) {
+        this.folderCache = folderCache;
     }
 
     /**
-     * Adds folders to the folder queue
-     * @param folderList
+     *
+     * @return
      */
-    public synchronized void addAllFolder(Queue<Folder> folderList) {
-        logger.debug("Adding folders into the queue: " + folderList.size());
+    public ParentPathCache getParentPathCache() {
+        return parentPathCache;
+    }
 
-        for (Folder oneFolder : folderList) {
-            folderQueue.add(oneFolder);
-        }
+    /**
+     *
+     * @param parentPathCache
+     */
+    public void setParentPathCache(ParentPathCache parentPathCache) {
+        this.parentPathCache = parentPathCache;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public DestinationPathPlan getDestinationPathPlan() {
+        return destinationPathPlan;
     }
 
     /**
-     * Adds associations to the association queue
-     * @param assocList
+     *
+     * @param destinationPathPlan
      */
-    public synchronized void addAllAssociation(List<DocumentAssociation> assocList) {
-        logger.debug("Adding associations into the queue: " + assocList.size());
+    public void setDestinationPathPlan(DestinationPathPlan destinationPathPlan) {
+        this.destinationPathPlan = destinationPathPlan;
+    }
 
-        for(DocumentAssociation oneAssociation : assocList) {
-            associationQueue.add(oneAssociation);
-        }
+    /**
+     *
+     * @return null if the query is paged by offset
+     */
+    public KeysetQueryPager getQueryPager() {
+        return queryPager;
     }
 
     /**
      *
-     * @return
+     * @param queryPager
      */
-    public boolean isSkipDocuments() {
-        return skipDocuments;
+    public void setQueryPager(KeysetQueryPager queryPager) {
+        this.queryPager = queryPager;
     }
 
     /**
      *
-     * @param skipDocuments
+     * @return null if the validation is not deferred or no document has been written yet
      */
-    public void setSkipDocuments(boolean skipDocuments) {
-        this.skipDocuments = skipDocuments;
+    public DeferredValidator getDeferredValidator() {
+        return deferredValidator;
     }
 
     /**
      *
-     * @return
+     * @param deferredValidator
      */
-    public StopWatch getStopWatchCMISObject() {
-        return stopWatchCMISObject;
+    public void setDeferredValidator(DeferredValidator deferredValidator) {
+        this.deferredValidator = deferredValidator;
     }
 
     /**
      *
-     * @return
+     * @return null if all versions are not copied or no document has been written yet
      */
-    public StopWatch getStopWatchDestinationFolder() {
-        return stopWatchDestinationFolder;
+    public VersionPrefetcher getVersionPrefetcher() {
+        return versionPrefetcher;
     }
 
     /**
      *
-     * @return
+     * @param versionPrefetcher
      */
-    public StopWatch getStopWatchGetNodeRef() {
-        return stopWatchGetNodeRef;
+    public void setVersionPrefetcher(VersionPrefetcher versionPrefetcher) {
+        this.versionPrefetcher = versionPrefetcher;
     }
 
     /**
      *
-     * @return
+     * @return null if no document has been written yet
      */
-    public StopWatch getStopWatchGetProperties() {
-        return stopWatchGetProperties;
+    public MetadataPrefetcher getMetadataPrefetcher() {
+        return metadataPrefetcher;
     }
 
     /**
      *
-     * @return
+     * @param metadataPrefetcher
      */
-    public StopWatch getStopWatchGetFile() {
-        return stopWatchGetFile;
+    public void setMetadataPrefetcher(MetadataPrefetcher metadataPrefetcher) {
+        this.metadataPrefetcher = metadataPrefetcher;
     }
 
     /**
      *
-     * @return
+     * @return null if no document has been written yet
+     */
+    public DocumentPipeline getDocumentPipeline() {
+        return documentPipeline;
+    }
+
+    /**
+     *
+     * @param documentPipeline
+     */
+    public void setDocumentPipeline(DocumentPipeline documentPipeline) {
+        this.documentPipeline = documentPipeline;
+    }
+
+    /**
+     *
+     * @return null if permissions are not copied or no folder has been crawled
+     */
+    public PermissionCopier getPermissionCopier() {
+        return permissionCopier;
+    }
+
+    /**
+     *
+     * @param permissionCopier
      */
-    public StopWatch getStopWatchUpload() {
-        return stopWatchUpload;
+    public void setPermissionCopier(PermissionCopier permissionCopier) {
+        this.permissionCopier = permissionCopier;
+    }
+
+    /**
+     *
+     * @return null if the folder index is not enabled
+     */
+    public FolderIndex getFolderIndex() {
+        return folderIndex;
+    }
+
+    /**
+     *
+     * @param folderIndex
+     */
+    public void setFolderIndex(FolderIndex folderIndex) {
+        this.folderIndex = folderIndex;
+    }
+
+    /**
+     *
+     * @return null if the ledger is not enabled
+     */
+    public MigrationLedger getMigrationLedger() {
+        return migrationLedger;
+    }
+
+    /**
+     *
+     * @param migrationLedger
+     */
+    public void setMigrationLedger(MigrationLedger migrationLedger) {
+        this.migrationLedger = migrationLedger;
+    }
+
+    /**
+     *
+     * @return null if associations are not migrated
+     */
+    public AssociationQueue getAssociationQueue() {
+        return associationQueue;
+    }
+
+    /**
+     *
+     * @param associationQueue
+     */
+    public void setAssociationQueue(AssociationQueue associationQueue) {
+        this.associationQueue = associationQueue;
     }
 
     /**
      *
      * @return
      */
-    public StopWatch getStopWatchReport() {
-        return stopWatchReport;
+    public boolean isSkipDocuments() {
+        return skipDocuments;
+    }
+
+    /**
+     *
+     * @param skipDocuments
+     */
+    public void setSkipDocuments(boolean skipDocuments) {
+        this.skipDocuments = skipDocuments;
     }
 
     /**
@@ -362,18 +435,42 @@ public class JobParameters {
 
     /**
      *
-     * @param migrationReport
+     * @return null if sessions are not pooled
      */
-    public void setMigrationReport(Workbook migrationReport) {
-        this.migrationReport = migrationReport;
+    public CmisSessionPool getSessionPoolSource() {
+        return sessionPoolSource;
+    }
+
+    /**
+     * Sets the source session pool, every thread gets its own session of the pool
+     * @param sessionPoolSource
+     */
+    public void setSessionPoolSource(CmisSessionPool sessionPoolSource) {
+        this.sessionPoolSource = sessionPoolSource;
     }
 
     /**
      *
-     * @param errorReport
+     * @return null if sessions are not pooled
      */
-    public void setErrorReport(Workbook errorReport) {
-        this.errorReport = errorReport;
+    public CmisSessionPool getSessionPoolTarget() {
+        return sessionPoolTarget;
+    }
+
+    /**
+     * Sets the target session pool, every thread gets its own session of the pool
+     * @param sessionPoolTarget
+     */
+    public void setSessionPoolTarget(CmisSessionPool sessionPoolTarget) {
+        this.sessionPoolTarget = sessionPoolTarget;
+    }
+
+    /**
+     *
+     * @param migrationReport
+     */
+    public void setMigrationReport(MigrationReport migrationReport) {
+        this.migrationReport = migrationReport;
     }
 
     /**
@@ -420,40 +517,40 @@ public class JobParameters {
      *
      * @return
      */
-    public StopWatch getStopWatchTotal() {
-        return stopWatchTotal;
+    public StageTimer getStageTimer() {
+        return stageTimer;
     }
 
     /**
      *
      * @return
      */
-    public Session getSessionSource() {
-        return sessionSource;
+    public StopWatch getStopWatchTotal() {
+        return stopWatchTotal;
     }
 
     /**
      *
      * @return
      */
-    public Session getSessionTarget() {
-        return sessionTarget;
+    public Session getSessionSource() {
+        return sessionPoolSource != null ? sessionPoolSource.getSession() : sessionSource;
     }
 
     /**
      *
      * @return
      */
-    public Workbook getMigrationReport() {
-        return migrationReport;
+    public Session getSessionTarget() {
+        return sessionPoolTarget != null ? sessionPoolTarget.getSession() : sessionTarget;
     }
 
     /**
      *
-     * @return
+     * @return null if there is no file report
      */
-    public Workbook getErrorReport() {
-        return errorReport;
+    public MigrationReport getMigrationReport() {
+        return migrationReport;
     }
 
     /**
@@ -592,14 +689,6 @@ public class JobParameters {
         return documentQueue.poll();
     }
 
-    /**
-     *
-     * @return
-     */
-    public synchronized DocumentAssociation getNextAssociation() {
-        return associationQueue.poll();
-    }
-
     /**
      *
      * @return
@@ -0,0 +1,142 @@
+package com.ecm.alfresco.migration.job.reader;
+
+import com.ecm.alfresco.migration.bean.document.DocumentAssociation;
+import com.ecm.alfresco.migration.component.association.AssociationQueue;
+import com.ecm.alfresco.migration.job.config.MigrationProperties;
+import com.ecm.alfresco.migration.job.param.JobParameters;
+import com.ecm.alfresco.migration.util.OperationContexts;
+
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Relationship;
+import org.apache.log4j.Logger;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the associations of the documents in the association queue. Documents are taken from the queue in batches and
+ * the associations of a batch are discovered in parallel, one relationships request per source document, then passed
+ * to the writer one by one. The source end of every association is already resolved, it's the document of the queue.
+ */
+public class AssociationReader implements ItemReader<DocumentAssociation> {
+    @Autowired
+    private JobParameters jobParameters;
+    private final Queue<DocumentAssociation> associationBuffer = new LinkedList<>();
+    private ExecutorService executorService;
+    private boolean finished = false;
+
+    private static final Logger logger = Logger.getLogger(AssociationReader.class);
+
+    /**
+     * Reads an association and passes it to the writer
+     * @return null when the associations of all the documents have been read
+     */
+    @Override
+    public synchronized DocumentAssociation read() throws Exception {
+        while (associationBuffer.isEmpty() && !finished) {
+            readNextBatch();
+        }
+
+        return associationBuffer.poll();
+    }
+
+    /**
+     * Discovers the associations of the next batch of documents
+     * @throws Exception
+     */
+    private void readNextBatch() throws Exception {
+        AssociationQueue associationQueue = jobParameters.getAssociationQueue();
+        int batchSize = MigrationProperties.getInt(MigrationProperties.PROP_ASSOCIATION_BATCH_SIZE, MigrationProperties.getInt(MigrationProperties.PROP_SOURCE_BATCH_SIZE, 100));
+        List<AssociationQueue.Entry> entryList = associationQueue == null ? new ArrayList<AssociationQueue.Entry>() : associationQueue.poll(batchSize);
+
+        if (entryList.isEmpty()) {
+            logger.debug("No more documents left to read associations");
+            finished = true;
+            if (executorService != null)
+                executorService.shutdown();
+            return;
+        }
+
+        List<Future<List<DocumentAssociation>>> futureList = new ArrayList<>(entryList.size());
+        for (final AssociationQueue.Entry oneEntry : entryList) {
+            futureList.add(getExecutorService().submit(new Callable<List<DocumentAssociation>>() {
+                @Override
+                public List<DocumentAssociation> call() throws Exception {
+                    return getAssociations(oneEntry);
+                }
+            }));
+        }
+
+        for (int i = 0; i < futureList.size(); i++) {
+            try {
+                associationBuffer.addAll(futureList.get(i).get());
+
+            } catch (ExecutionException e) {
+                logger.error("EXCEPTION reading associations of document: " + entryList.get(i).getSourceId() + ", exception: " + e.getCause().getMessage());
+                jobParameters.getCounter().increaseCounterAssociationsFailed();
+
+                if (logger.isDebugEnabled()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        logger.debug("Associations read, documents: " + entryList.size() + ", associations: " + associationBuffer.size());
+    }
+
+    /**
+     * Gets the associations where a document is the source
+     * @param entry
+     * @return
+     */
+    private List<DocumentAssociation> getAssociations(AssociationQueue.Entry entry) {
+        List<DocumentAssociation> associationList = new ArrayList<>();
+        CmisObject document = jobParameters.getSessionSource().getObject(entry.getSourceId(), OperationContexts.RELATIONSHIPS);
+
+        if (document.getRelationships() != null) {
+            for (Relationship oneRelation : document.getRelationships()) {
+                DocumentAssociation association = new DocumentAssociation(oneRelation.getSourceId().getId(), oneRelation.getTargetId().getId(), oneRelation.getType().getId());
+                association.setTarRepoSourceId(entry.getTargetId());
+                associationList.add(association);
+            }
+        }
+
+        return associationList;
+    }
+
+    /**
+     * Gets the executor discovering the associations, it's created on the first read
+     * @return
+     */
+    private ExecutorService getExecutorService() {
+        if (executorService == null) {
+            int numThreads = MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1);
+            int discoveryThreads = MigrationProperties.getInt(MigrationProperties.PROP_ASSOCIATION_DISCOVERY_THREADS, numThreads);
+            logger.info("Starting association discovery, threads: " + discoveryThreads);
+
+            executorService = Executors.newFixedThreadPool(Math.max(discoveryThreads, 1), new ThreadFactory() {
+                private final AtomicInteger sequence = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "association-discovery-" + sequence.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return executorService;
+    }
+}
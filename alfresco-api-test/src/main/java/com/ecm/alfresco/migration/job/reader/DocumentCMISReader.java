@@ -4,9 +4,7 @@ import com.ecm.alfresco.migration.bean.document.DocumentItem;
 import com.ecm.alfresco.migration.job.param.JobParameters;
 import com.ecm.alfresco.migration.service.DocumentService;
 import com.ecm.alfresco.migration.util.CmisHelper;
-import com.ecm.alfresco.migration.util.TimeUtil;
 
-import org.apache.chemistry.opencmis.client.api.ItemIterable;
 import org.apache.chemistry.opencmis.client.api.QueryResult;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisInvalidArgumentException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -29,17 +27,17 @@ public class DocumentCMISReader implements ItemReader<DocumentItem> {
     @Override
     public DocumentItem read() {
         try {
-            TimeUtil.resume("NODEREF", jobParameters.getStopWatchGetNodeRef());
+            jobParameters.getStageTimer().start("NODEREF");
             String documentId = getNextDocumentId();
 
             if (documentId != null) {
                 logger.debug("Document read: " + documentId);
-                TimeUtil.suspend("NODEREF", jobParameters.getStopWatchGetNodeRef());
+                jobParameters.getStageTimer().stop("NODEREF");
                 return new DocumentItem(documentId);
             }
 
         }catch (Exception e) {
-            TimeUtil.suspend("NODEREF", jobParameters.getStopWatchGetNodeRef());
+            jobParameters.getStageTimer().stop("NODEREF");
             throw e;
         }
 
@@ -54,7 +52,7 @@ public class DocumentCMISReader implements ItemReader<DocumentItem> {
         try {
             String oneDocumentId = jobParameters.getNextDocumentId();
             if (oneDocumentId == null) {
-                ItemIterable<QueryResult> onePage = getNextPageByQuery(jobParameters);
+                Iterable<QueryResult> onePage = getNextPageByQuery(jobParameters);
                 if (onePage == null || !onePage.iterator().hasNext()) {
                     logger.debug("No more documents left to process");
                     return null;
@@ -74,12 +72,18 @@ public class DocumentCMISReader implements ItemReader<DocumentItem> {
     }
 
     /**
-     * Gets next page based on a CMIS query
+     * Gets next page based on a CMIS query, by key when keyset paging is enabled or by offset otherwise
      * @param jobParameters
      * @return
      */
-    public synchronized ItemIterable<QueryResult> getNextPageByQuery(JobParameters jobParameters) {
+    public synchronized Iterable<QueryResult> getNextPageByQuery(JobParameters jobParameters) {
         logger.debug("Extracting page " + jobParameters.getCounter().getPageIndex());
+
+        if (jobParameters.getQueryPager() != null) {
+            jobParameters.getCounter().increasePageIndex();
+            return jobParameters.getQueryPager().nextPage(jobParameters.getSessionSource());
+        }
+
         return CmisHelper.getDocuments(jobParameters.getSessionSource(), jobParameters.getQuery(), jobParameters.getCounter().increasePageIndex(), jobParameters.getPageSize());
     }
 }
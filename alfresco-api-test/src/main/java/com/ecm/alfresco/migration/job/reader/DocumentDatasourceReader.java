@@ -2,7 +2,6 @@ package com.ecm.alfresco.migration.job.reader;
 
 import com.ecm.alfresco.migration.bean.document.DocumentItem;
 import com.ecm.alfresco.migration.job.param.JobParameters;
-import com.ecm.alfresco.migration.util.TimeUtil;
 
 import org.apache.log4j.Logger;
 import org.springframework.batch.item.ItemReader;
@@ -23,17 +22,17 @@ public class DocumentDatasourceReader implements ItemReader<DocumentItem> {
     @Override
     public DocumentItem read() {
         try {
-            TimeUtil.resume("NODEREF", jobParameters.getStopWatchGetNodeRef());
+            jobParameters.getStageTimer().start("NODEREF");
             String documentId = getNextDocumentId();
 
             if (documentId != null) {
                 logger.debug("Document read: " + documentId);
-                TimeUtil.suspend("NODEREF", jobParameters.getStopWatchGetNodeRef());
+                jobParameters.getStageTimer().stop("NODEREF");
                 return new DocumentItem(documentId);
             }
 
         } catch (Exception e) {
-            TimeUtil.suspend("NODEREF", jobParameters.getStopWatchGetNodeRef());
+            jobParameters.getStageTimer().stop("NODEREF");
             throw e;
         }
 
@@ -0,0 +1,347 @@
+package com.ecm.alfresco.migration.job.reader;
+
+import com.ecm.alfresco.migration.bean.document.DocumentItem;
+import com.ecm.alfresco.migration.bean.folder.FolderChildren;
+import com.ecm.alfresco.migration.job.config.MigrationProperties;
+import com.ecm.alfresco.migration.job.param.JobParameters;
+import com.ecm.alfresco.migration.service.AlfrescoAPIService;
+import com.ecm.alfresco.migration.util.CmisHelper;
+
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Crawls the source folder tree with several workers. Every worker owns a deque of folders, it takes folders from the
+ * head of its own deque and steals from the tail of the other workers' deques when its own deque is empty.
+ * A folder is always listed by a single worker, so documents are emitted in the same order they are listed.
+ */
+public class FolderCrawler {
+    private static final Logger logger = Logger.getLogger(FolderCrawler.class);
+    private static final String WEB_CONVERSION = "WebConversion";
+    private static final long POLL_TIMEOUT = 500;
+    private static final long IDLE_TIMEOUT = 100;
+
+    private final JobParameters jobParameters;
+    private final AlfrescoAPIService alfrescoAPIService;
+    private final String rootFolder;
+    private final List<LinkedBlockingDeque<Folder>> folderDequeList = new ArrayList<>();
+    private final List<CrawlerWorker> workerList = new ArrayList<>();
+    private final BlockingQueue<DocumentItem> documentQueue;
+    private final AtomicInteger pendingFolders = new AtomicInteger();
+    private final boolean keysetPaging;
+    private final PermissionCopier permissionCopier;
+    private volatile boolean finished = false;
+
+    /**
+     * Crawler constructor
+     * @param jobParameters
+     * @param alfrescoAPIService
+     * @param rootFolder target root folder path
+     * @param numWorkers number of crawling threads
+     * @param queueSize max number of documents waiting to be read
+     */
+    public FolderCrawler(JobParameters jobParameters, AlfrescoAPIService alfrescoAPIService, String rootFolder, int numWorkers, int queueSize) {
+        this.jobParameters = jobParameters;
+        this.alfrescoAPIService = alfrescoAPIService;
+        this.rootFolder = rootFolder;
+        this.documentQueue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.keysetPaging = "KEYSET".equalsIgnoreCase(MigrationProperties.get(MigrationProperties.PROP_PAGING_MODE));
+        this.permissionCopier = getPermissionCopier();
+
+        for (int i = 0; i < Math.max(numWorkers, 1); i++) {
+            folderDequeList.add(new LinkedBlockingDeque<Folder>());
+            workerList.add(new CrawlerWorker(i));
+        }
+    }
+
+    /**
+     * Starts crawling from the source root folder
+     * @param sourceRootFolder
+     */
+    public void start(Folder sourceRootFolder) {
+        if (sourceRootFolder == null) {
+            logger.debug("Source root folder is null, nothing to crawl");
+            finished = true;
+            return;
+        }
+
+        logger.info("Starting folder crawler, workers: " + workerList.size() + ", queue size: " + documentQueue.remainingCapacity());
+        addFolder(0, sourceRootFolder);
+
+        for (CrawlerWorker oneWorker : workerList) {
+            oneWorker.start();
+        }
+    }
+
+    /**
+     * Gets next document extracted by the crawler, it waits until a document is available or the crawl is finished
+     * @return null when there are no more documents left
+     * @throws InterruptedException
+     */
+    public DocumentItem poll() throws InterruptedException {
+        while (true) {
+            if (finished) {
+                return documentQueue.poll();
+            }
+
+            DocumentItem documentItem = documentQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (documentItem != null) {
+                return documentItem;
+            }
+        }
+    }
+
+    /**
+     * Stops all the workers
+     */
+    public void shutdown() {
+        finished = true;
+        for (CrawlerWorker oneWorker : workerList) {
+            oneWorker.interrupt();
+        }
+    }
+
+    /**
+     * Adds a folder to the worker's deque
+     * @param workerIndex
+     * @param folder
+     */
+    private void addFolder(int workerIndex, Folder folder) {
+        pendingFolders.incrementAndGet();
+        folderDequeList.get(workerIndex).addFirst(folder);
+    }
+
+    /**
+     * Gets next folder for a worker, steals it from another worker if its own deque is empty
+     * @param workerIndex
+     * @return
+     * @throws InterruptedException
+     */
+    private Folder getNextFolder(int workerIndex) throws InterruptedException {
+        Folder folder = folderDequeList.get(workerIndex).pollFirst();
+        if (folder != null)
+            return folder;
+
+        for (int i = 1; i < folderDequeList.size(); i++) {
+            folder = folderDequeList.get((workerIndex + i) % folderDequeList.size()).pollLast();
+            if (folder != null) {
+                logger.trace("Worker " + workerIndex + " stole folder " + folder.getName());
+                return folder;
+            }
+        }
+
+        return folderDequeList.get(workerIndex).pollFirst(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Extracts all the pages of a folder, adds the subfolders to the worker's deque and the documents to the document queue
+     * @param workerIndex
+     * @param folder
+     * @throws InterruptedException
+     */
+    private void crawlFolder(int workerIndex, Folder folder) throws InterruptedException {
+        String folderName = (String) folder.getProperty(PropertyIds.NAME).getFirstValue();
+
+        if (WEB_CONVERSION.equalsIgnoreCase(folderName)) {
+            logger.info("Folder Skipped: " + folder.getPath());
+            return;
+        }
+
+        String folderPath = getClearPath(folder.getPath());
+        int pageSize = jobParameters.getPageSize();
+        int pageIndex = 0;
+
+        if (keysetPaging) {
+            crawlFolderByName(workerIndex, folder, folderName, folderPath);
+            return;
+        }
+
+        try {
+            FolderChildren folderChildren;
+
+            do {
+                folderChildren = CmisHelper.getFolderChildren(jobParameters.getSessionSource(), folderPath, pageIndex, pageSize, jobParameters.isSkipDocuments());
+                logger.info(Thread.currentThread().getName() + " - Extracting Folder: " + folderName + ", Page: " + pageIndex + ", Subfolders: " + folderChildren.getFolderQueue().size() + ", Documents: " + folderChildren.getDocumentQueue().size() + ", Objects: " + folderChildren.getObjectQueue().size());
+
+                for (Folder oneFolder : folderChildren.getFolderQueue()) {
+                    addFolder(workerIndex, oneFolder);
+                }
+
+                for (DocumentItem oneDocumentItem : folderChildren.getDocumentQueue()) {
+                    documentQueue.put(oneDocumentItem);
+                }
+
+                pageIndex++;
+
+            } while (folderChildren.getItemCount() >= pageSize);
+
+            createTargetFolder(folder, folderPath);
+            jobParameters.getCounter().increaseCounterExtractedFolders();
+
+        } catch (InterruptedException e) {
+            throw e;
+
+        } catch (Exception e) {
+            logger.error("EXCEPTION extracting folder: " + folderPath + ", page: " + pageIndex + ", exception: " + e.getMessage());
+
+            if (logger.isDebugEnabled()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Extracts a folder paging its subfolders and documents by name, every page starts after the last name read
+     * @param workerIndex
+     * @param folder
+     * @param folderName
+     * @param folderPath
+     * @throws InterruptedException
+     */
+    private void crawlFolderByName(int workerIndex, Folder folder, String folderName, String folderPath) throws InterruptedException {
+        int pageSize = jobParameters.getPageSize();
+        String lastName = null;
+        int pageIndex = 0;
+
+        try {
+            int itemCount;
+
+            do { // subfolders first, so the other workers can start crawling them
+                itemCount = 0;
+                for (CmisObject oneObject : CmisHelper.getChildrenAfterName(jobParameters.getSessionSource(), folder.getId(), BaseTypeId.CMIS_FOLDER.value(), lastName, pageSize)) {
+                    addFolder(workerIndex, (Folder) oneObject);
+                    lastName = oneObject.getName();
+                    itemCount++;
+                }
+
+                logger.info(Thread.currentThread().getName() + " - Extracting Folder: " + folderName + ", Page: " + pageIndex++ + ", Subfolders: " + itemCount);
+
+            } while (itemCount >= pageSize);
+
+            lastName = null;
+
+            while (!jobParameters.isSkipDocuments()) {
+                itemCount = 0;
+                for (CmisObject oneObject : CmisHelper.getChildrenAfterName(jobParameters.getSessionSource(), folder.getId(), BaseTypeId.CMIS_DOCUMENT.value(), lastName, pageSize)) {
+                    DocumentItem documentItem = new DocumentItem((Document) oneObject, folderPath);
+                    lastName = oneObject.getName();
+                    itemCount++;
+
+                    if (!documentItem.getDocumentId().endsWith(";pwc")) //verify if it's not a working copy
+                        documentQueue.put(documentItem);
+                }
+
+                logger.info(Thread.currentThread().getName() + " - Extracting Folder: " + folderName + ", Page: " + pageIndex++ + ", Documents: " + itemCount);
+
+                if (itemCount < pageSize)
+                    break;
+            }
+
+            createTargetFolder(folder, folderPath);
+            jobParameters.getCounter().increaseCounterExtractedFolders();
+
+        } catch (InterruptedException e) {
+            throw e;
+
+        } catch (Exception e) {
+            logger.error("EXCEPTION extracting folder: " + folderPath + ", after: " + lastName + ", exception: " + e.getMessage());
+
+            if (logger.isDebugEnabled()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Creates a folder in the target repository
+     * @param sourceFolder
+     * @param sourceFolderPath
+     * @throws Exception
+     */
+    private void createTargetFolder(Folder sourceFolder, String sourceFolderPath) throws Exception {
+        String folderPath = rootFolder + sourceFolderPath;
+        String newFolderId = jobParameters.getFolderCache().getFolderId(jobParameters.getSessionTarget(), folderPath);
+        // copy permissions
+        if (permissionCopier != null) {
+            permissionCopier.submit(sourceFolder.getId(), newFolderId, folderPath); // set folder permissions
+        }
+    }
+
+    /**
+     * Gets the permission copier of the job, it's created by the first crawler when permissions are copied
+     * @return null if permissions are not copied
+     */
+    private PermissionCopier getPermissionCopier() {
+        if (!Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_COPY_PERMISSIONS)))
+            return null;
+
+        synchronized (jobParameters) {
+            if (jobParameters.getPermissionCopier() == null) {
+                int numThreads = MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1);
+                jobParameters.setPermissionCopier(new PermissionCopier(jobParameters, alfrescoAPIService,
+                        MigrationProperties.getInt(MigrationProperties.PROP_PERMISSIONS_THREADS, numThreads),
+                        MigrationProperties.getInt(MigrationProperties.PROP_PERMISSIONS_QUEUE_SIZE, 1000),
+                        MigrationProperties.getInt(MigrationProperties.PROP_PERMISSIONS_SIGNATURE_CACHE_SIZE, 1000)));
+            }
+
+            return jobParameters.getPermissionCopier();
+        }
+    }
+
+    /**
+     * Replaces an unwanted character in the path
+     * @param path
+     * @return
+     */
+    private String getClearPath(String path) {
+        return path.replace("\\u2019", "’");
+    }
+
+    /**
+     * Crawler worker, it processes folders until there are no pending folders left
+     */
+    private class CrawlerWorker extends Thread {
+        private final int workerIndex;
+
+        public CrawlerWorker(int workerIndex) {
+            super("folder-crawler-" + workerIndex);
+            this.workerIndex = workerIndex;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!finished) {
+                    Folder folder = getNextFolder(workerIndex);
+
+                    if (folder != null) {
+                        try {
+                            crawlFolder(workerIndex, folder);
+                        } finally {
+                            if (pendingFolders.decrementAndGet() == 0) {
+                                logger.info("Folder crawl finished, folders extracted: " + jobParameters.getCounter().getCounterExtractedFolders());
+                                finished = true;
+                            }
+                        }
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                logger.debug(getName() + " interrupted");
+            }
+        }
+    }
+}
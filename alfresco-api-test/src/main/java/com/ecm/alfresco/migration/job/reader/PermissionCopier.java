@@ -0,0 +1,197 @@
+package com.ecm.alfresco.migration.job.reader;
+
+import com.ecm.alfresco.migration.job.param.JobParameters;
+import com.ecm.alfresco.migration.service.AlfrescoAPIService;
+import com.ecm.alfresco.migration.util.NodeRefUtil;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies folder permissions in background threads while the folder tree is crawled. Folders that only inherit their
+ * permissions are skipped without sending anything, new target folders already inherit. The direct permissions of the
+ * other folders are reduced to a signature (inheritance flag and sorted authority/role pairs): identical permission
+ * sets share the same request body and a target folder is not sent the same permissions twice.
+ */
+public class PermissionCopier {
+    private static final Logger logger = Logger.getLogger(PermissionCopier.class);
+
+    private final JobParameters jobParameters;
+    private final AlfrescoAPIService alfrescoAPIService;
+    private final ThreadPoolExecutor executorService;
+    private final Map<String, String> bodyMap;
+    private final ConcurrentMap<String, String> appliedMap = new ConcurrentHashMap<>();
+    private final int cacheSize;
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong inherited = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+    private final AtomicLong signatureHits = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Permission copier constructor
+     * @param jobParameters
+     * @param alfrescoAPIService
+     * @param threads number of threads copying permissions
+     * @param queueSize max number of folders waiting, the crawler copies the permissions itself when the queue is full
+     * @param cacheSize max number of permission signatures kept
+     */
+    public PermissionCopier(JobParameters jobParameters, AlfrescoAPIService alfrescoAPIService, int threads, int queueSize, final int cacheSize) {
+        this.jobParameters = jobParameters;
+        this.alfrescoAPIService = alfrescoAPIService;
+        this.cacheSize = cacheSize;
+        this.bodyMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        this.executorService = new ThreadPoolExecutor(Math.max(threads, 1), Math.max(threads, 1), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(queueSize, 1)), new ThreadFactory() {
+            private final AtomicInteger sequence = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "permission-copy-" + sequence.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        logger.info("Permission copy started, threads: " + executorService.getCorePoolSize() + ", queue size: " + Math.max(queueSize, 1));
+    }
+
+    /**
+     * Adds a folder to copy its permissions
+     * @param sourceFolderId
+     * @param targetFolderId
+     * @param folderPath target folder path
+     */
+    public void submit(final String sourceFolderId, final String targetFolderId, final String folderPath) {
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    copy(sourceFolderId, targetFolderId, folderPath);
+
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    logger.error("EXCEPTION copying permissions: " + folderPath + ", exception: " + e.getMessage());
+
+                    if (logger.isDebugEnabled()) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until the permissions of all the folders submitted are copied and stops the threads
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        logger.info("Waiting for permission copy, pending folders: " + executorService.getQueue().size());
+        executorService.shutdown();
+
+        while (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+            logger.info("Waiting for permission copy, pending folders: " + executorService.getQueue().size());
+        }
+    }
+
+    /**
+     * Copies the permissions of a folder
+     * @param sourceFolderId
+     * @param targetFolderId
+     * @param folderPath
+     * @throws Exception
+     */
+    private void copy(String sourceFolderId, String targetFolderId, String folderPath) throws Exception {
+        JSONObject sourcePermissions = alfrescoAPIService.getNodePermissions(sourceFolderId, jobParameters);
+        boolean isInherited = sourcePermissions.getBoolean("isInherited");
+        JSONArray directArray = sourcePermissions.getJSONArray("direct");
+
+        if (isInherited && directArray.length() == 0) {
+            inherited.incrementAndGet();
+            logger.debug("Permissions only inherited, nothing to copy: " + folderPath);
+            return;
+        }
+
+        String signature = getSignature(isInherited, directArray);
+        String targetNodeId = NodeRefUtil.removeWorkSpace(targetFolderId);
+
+        if (signature.equals(appliedMap.put(targetNodeId, signature))) {
+            duplicated.incrementAndGet();
+            logger.debug("Permissions already copied to the target folder: " + folderPath);
+            return;
+        }
+
+        String body;
+        synchronized (bodyMap) {
+            body = bodyMap.get(signature);
+        }
+
+        if (body != null) {
+            signatureHits.incrementAndGet();
+
+        } else {
+            body = alfrescoAPIService.getTargetPermissions(sourcePermissions).toString();
+            synchronized (bodyMap) {
+                bodyMap.put(signature, body);
+            }
+        }
+
+        try {
+            alfrescoAPIService.postNodePermissions(targetFolderId, body, jobParameters);
+            posted.incrementAndGet();
+            logger.info("Permissions set for: " + folderPath + ",  JSON: " + body);
+
+        } catch (Exception e) {
+            appliedMap.remove(targetNodeId, signature);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the signature of a permission set, the same permissions in any order get the same signature
+     * @param isInherited
+     * @param directArray
+     * @return
+     */
+    private String getSignature(boolean isInherited, JSONArray directArray) {
+        Set<String> permissionSet = new TreeSet<>();
+
+        for (int i = 0; i < directArray.length(); i++) {
+            JSONObject onePermission = directArray.getJSONObject(i);
+            permissionSet.add(onePermission.getJSONObject("authority").getString("name") + "=" + onePermission.getString("role"));
+        }
+
+        return isInherited + "|" + permissionSet;
+    }
+
+    @Override
+    public String toString() {
+        int signatures;
+        synchronized (bodyMap) {
+            signatures = bodyMap.size();
+        }
+
+        return "posted: " + posted.get() + ", inherited only: " + inherited.get() + ", already copied: " + duplicated.get() + ", failed: " + failed.get()
+                + ", signatures: " + signatures + "/" + cacheSize + ", signature hits: " + signatureHits.get();
+    }
+}
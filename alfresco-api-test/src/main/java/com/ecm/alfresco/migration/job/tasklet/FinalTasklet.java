@@ -1,5 +1,6 @@
 package com.ecm.alfresco.migration.job.tasklet;
 
+import com.ecm.alfresco.migration.job.config.StepTaskExecutor;
 import com.ecm.alfresco.migration.job.param.JobParameters;
 import com.ecm.alfresco.migration.service.LoggerService;
 import com.ecm.alfresco.migration.util.ExcelUtil;
@@ -24,6 +25,8 @@ public class FinalTasklet implements Tasklet {
     private LoggerService loggerService;
     @Autowired
     private JobParameters jobParameters;
+    @Autowired(required = false)
+    private StepTaskExecutor stepTaskExecutor;
 
     private static final Logger logger = Logger.getLogger(FinalTasklet.class);
 
@@ -37,9 +40,68 @@ public class FinalTasklet implements Tasklet {
     @Override
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
         logger.debug("Starting final tasklet");
+
+        if (jobParameters.getDocumentPipeline() != null) // every chunk is complete, stop the idle stage workers
+            jobParameters.getDocumentPipeline().shutdown();
+
+        if (jobParameters.getMetadataPrefetcher() != null)
+            jobParameters.getMetadataPrefetcher().shutdown();
+
+        if (jobParameters.getVersionPrefetcher() != null) {
+            jobParameters.getVersionPrefetcher().shutdown();
+            logger.info("Version prefetch: " + jobParameters.getVersionPrefetcher());
+        }
+
+        if (jobParameters.getDeferredValidator() != null) // wait for the pending validations before reporting
+            jobParameters.getDeferredValidator().finish();
+
+        if (jobParameters.getPermissionCopier() != null)
+            jobParameters.getPermissionCopier().finish();
+
+        if (jobParameters.getMigrationReport() != null) {
+            jobParameters.getMigrationReport().close();
+            logger.info("Migration report: " + jobParameters.getMigrationReport());
+        }
+
         String status = getStatus();
-        loggerService.printResults(status, jobParameters.getBatchId(), jobParameters.getStopWatchTotal().toString(), jobParameters.getCounter());
+        loggerService.stopProgressReport();
+        loggerService.printResults(status, jobParameters.getBatchId(), jobParameters.getStopWatchTotal().toString(), jobParameters.getCounter(), jobParameters.getStageTimer());
+
+        if (jobParameters.getFolderCache() != null)
+            logger.info("Target folder cache: " + jobParameters.getFolderCache());
+
+        if (jobParameters.getSessionPoolSource() != null)
+            logger.info("CMIS sessions: " + jobParameters.getSessionPoolSource() + " / " + jobParameters.getSessionPoolTarget());
+
+        if (jobParameters.getParentPathCache() != null)
+            logger.info("Source parent path cache: " + jobParameters.getParentPathCache());
+
+        if (jobParameters.getDestinationPathPlan() != null)
+            logger.info("Destination path cache: " + jobParameters.getDestinationPathPlan());
+
+        if (jobParameters.getFolderIndex() != null)
+            logger.info("Target folder index: " + jobParameters.getFolderIndex());
+
+        if (jobParameters.getDeferredValidator() != null)
+            logger.info("Deferred validation: " + jobParameters.getDeferredValidator());
+
+        if (jobParameters.getPermissionCopier() != null)
+            logger.info("Permission copy: " + jobParameters.getPermissionCopier());
+
+        if (jobParameters.getAssociationQueue() != null) {
+            logger.info("Association queue: " + jobParameters.getAssociationQueue());
+            jobParameters.getAssociationQueue().close();
+        }
+
+        if (stepTaskExecutor != null)
+            logger.info("Step executor: " + stepTaskExecutor);
+
+        if (jobParameters.getMigrationLedger() != null) {
+            logger.info("Migration ledger: " + jobParameters.getMigrationLedger());
+            jobParameters.getMigrationLedger().close();
+        }
 
+        HttpPoolHelper.logPoolStats();
         logger.debug("Closing HTTP pool");
         HttpPoolHelper.closeAllConnections();
 
@@ -51,7 +113,7 @@ public class FinalTasklet implements Tasklet {
      * @return
      */
     private String getStatus() {
-        if (jobParameters.getCounter().getCounterFailed() == 0)
+        if (jobParameters.getCounter().getCounterFailed() == 0 && jobParameters.getCounter().getCounterValidationFailed() == 0 && jobParameters.getCounter().getCounterAssociationsFailed() == 0)
             return "SUCCESS";
         else
             return "ERROR";
@@ -1,18 +1,35 @@
 package com.ecm.alfresco.migration.job.tasklet;
 
 import com.ecm.alfresco.migration.bean.access.AccessDetails;
-import com.ecm.alfresco.migration.bean.document.DocumentItem;
+import com.ecm.alfresco.migration.bean.document.ReportRow;
 import com.ecm.alfresco.migration.bean.folderStructure.*;
 import com.ecm.alfresco.migration.component.DataSourceComponent;
+import com.ecm.alfresco.migration.component.association.AssociationQueue;
+import com.ecm.alfresco.migration.component.ledger.FileMigrationLedger;
+import com.ecm.alfresco.migration.component.ledger.JdbcMigrationLedger;
+import com.ecm.alfresco.migration.component.ledger.MigrationLedger;
+import com.ecm.alfresco.migration.component.report.CsvReportFile;
+import com.ecm.alfresco.migration.component.report.ExcelReportFile;
+import com.ecm.alfresco.migration.component.report.FileReportSink;
+import com.ecm.alfresco.migration.component.report.JdbcReportSink;
+import com.ecm.alfresco.migration.component.report.MigrationReport;
+import com.ecm.alfresco.migration.component.report.ReportSink;
+import com.ecm.alfresco.migration.component.report.RollingReportFile;
 import com.ecm.alfresco.migration.job.config.MigrationProperties;
 import com.ecm.alfresco.migration.job.param.JobParameters;
 import com.ecm.alfresco.migration.service.*;
 import com.ecm.alfresco.migration.util.CmisHelper;
-import com.ecm.alfresco.migration.util.ExcelUtil;
+import com.ecm.alfresco.migration.util.CmisSessionPool;
+import com.ecm.alfresco.migration.util.DestinationPathPlan;
+import com.ecm.alfresco.migration.util.FolderCache;
+import com.ecm.alfresco.migration.util.FolderIndex;
+import com.ecm.alfresco.migration.util.HttpPoolHelper;
+import com.ecm.alfresco.migration.util.KeysetQueryPager;
+import com.ecm.alfresco.migration.util.ParentPathCache;
 
 import org.apache.chemistry.opencmis.client.api.Folder;
-import org.apache.chemistry.opencmis.client.api.Session;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.springframework.batch.core.StepContribution;
@@ -23,6 +40,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.BadSqlGrammarException;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
@@ -38,6 +56,25 @@ public class InitTasklet implements Tasklet {
     @Autowired
     private DataSourceComponent dataSourceComponent;
     private static final Logger logger = Logger.getLogger(InitTasklet.class);
+    private static final int DEFAULT_FOLDER_CACHE_SIZE = 10000;
+    private static final int DEFAULT_STATS_REPORT_INTERVAL = 300;
+    private static final int DEFAULT_FOLDER_INDEX_SIZE = 1000;
+    private static final int DEFAULT_PARENT_PATH_CACHE_SIZE = 10000;
+    private static final int DEFAULT_DESTINATION_PATH_CACHE_SIZE = 10000;
+    private static final int DEFAULT_QUERY_FILTER_MAX_FOLDERS = 100;
+    private static final String WEB_CONVERSION = "WebConversion";
+    private static final String DEFAULT_PAGING_QUERY_KEY = "cmis:lastModificationDate";
+    private static final int DEFAULT_FOLDER_INDEX_MAX_DOCUMENTS = 10000;
+    private static final String DEFAULT_LEDGER_TABLE = "migration_ledger";
+    private static final String DEFAULT_LEDGER_FILE = "migration-ledger.tsv";
+    private static final int DEFAULT_LEDGER_CACHE_SIZE = 10000;
+    private static final String DEFAULT_ASSOCIATION_QUEUE_FILE = "migration-associations.tsv";
+    private static final int DEFAULT_REPORT_WINDOW_SIZE = 100;
+    private static final long DEFAULT_REPORT_MAX_SIZE = 104857600;
+    private static final int DEFAULT_REPORT_BATCH_SIZE = 500;
+    private static final long DEFAULT_REPORT_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_REPORT_QUEUE_SIZE = 10000;
+    private static final String DEFAULT_REPORT_TABLE = "migration_report";
     private String[] propertyFilter;
 
     /**
@@ -55,6 +92,7 @@ public class InitTasklet implements Tasklet {
             initFolders();
             validationService.validateRepository(jobParameters.getSessionSource(), jobParameters.getSessionTarget());
             loggerService.initBatchLog4JConfiguration(jobParameters.getBatchFolder());
+            loggerService.startProgressReport(jobParameters, MigrationProperties.getInt(MigrationProperties.PROP_STATS_REPORT_INTERVAL, DEFAULT_STATS_REPORT_INTERVAL));
 
         } catch (IllegalArgumentException e) {
             sendNotificationError(e);
@@ -84,12 +122,73 @@ public class InitTasklet implements Tasklet {
     }
 
     /**
-     * Initializes the excel report
+     * Creates the migration report, EXCEL, CSV or DATABASE, written by its own thread
+     * @return null if the report type is not set
      */
-    private void initExcelReport() {
-        DocumentItem documentItem = new DocumentItem("Source Node ID", "File Name", "Target Destination Folder", "Target Node ID", null, "Target Node Status", "Message", null, null);
-        ExcelUtil.addMigrationRow(jobParameters.getMigrationReport(), "Date Time", "Source Node Status", "Source Destination Folder", documentItem);
-        ExcelUtil.addErrorRow(jobParameters.getErrorReport(), "Date Time", "Source Node Status", "Source Destination Folder", documentItem);
+    private MigrationReport getMigrationReport() {
+        String type = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_TYPE);
+        ReportSink reportSink;
+
+        if ("DATABASE".equalsIgnoreCase(type)) {
+            reportSink = getJdbcReportSink();
+
+        } else if ("EXCEL".equalsIgnoreCase(type) || "CSV".equalsIgnoreCase(type))
+            reportSink = getFileReportSink("EXCEL".equalsIgnoreCase(type));
+
+        else
+            return null;
+
+        int batchSize = MigrationProperties.getInt(MigrationProperties.PROP_MIGRATION_REPORT_BATCH_SIZE, DEFAULT_REPORT_BATCH_SIZE);
+        long flushInterval = MigrationProperties.getLong(MigrationProperties.PROP_MIGRATION_REPORT_FLUSH_INTERVAL, DEFAULT_REPORT_FLUSH_INTERVAL);
+        int queueSize = MigrationProperties.getInt(MigrationProperties.PROP_MIGRATION_REPORT_QUEUE_SIZE, DEFAULT_REPORT_QUEUE_SIZE);
+        logger.info("Migration report: " + type.toUpperCase() + ", batch size: " + batchSize + ", flush interval: " + flushInterval + " ms, queue size: " + queueSize);
+
+        return new MigrationReport(reportSink, batchSize, flushInterval, queueSize);
+    }
+
+    /**
+     * Creates the report sink writing into the report table
+     * @return
+     */
+    private ReportSink getJdbcReportSink() {
+        String table = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_TABLE);
+        jobParameters.setReportDBTable(StringUtils.isBlank(table) ? DEFAULT_REPORT_TABLE : table.trim());
+
+        return new JdbcReportSink(dataSourceComponent.getJdbcTemplate(), jobParameters.getReportDBTable(), jobParameters.getBatchId());
+    }
+
+    /**
+     * Creates the report sink writing into the EXCEL or CSV report files
+     * @param excel
+     * @return
+     */
+    private ReportSink getFileReportSink(boolean excel) {
+        String reportFolder = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_FOLDER);
+        File folder = new File(StringUtils.isBlank(reportFolder) ? "." : reportFolder.trim());
+        folder.mkdirs();
+
+        String fileName = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_FILE);
+        String errorFileName = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_FILE_ERROR);
+        fileName = StringUtils.isBlank(fileName) ? "migration-report-" + jobParameters.getBatchId() : fileName.trim();
+        errorFileName = StringUtils.isBlank(errorFileName) ? "migration-errors-" + jobParameters.getBatchId() : errorFileName.trim();
+
+        RollingReportFile migrationFile;
+        RollingReportFile errorFile;
+
+        if (excel) {
+            int maxRows = MigrationProperties.getInt(MigrationProperties.PROP_MIGRATION_REPORT_MAX_ROWS, ExcelReportFile.MAX_ROWS);
+            int windowSize = MigrationProperties.getInt(MigrationProperties.PROP_MIGRATION_REPORT_WINDOW_SIZE, DEFAULT_REPORT_WINDOW_SIZE);
+            migrationFile = new ExcelReportFile(folder, fileName, ReportRow.MIGRATION_HEADER, maxRows, windowSize);
+            errorFile = new ExcelReportFile(folder, errorFileName, ReportRow.ERROR_HEADER, maxRows, windowSize);
+
+        } else {
+            long maxSize = MigrationProperties.getLong(MigrationProperties.PROP_MIGRATION_REPORT_MAX_SIZE, DEFAULT_REPORT_MAX_SIZE);
+            migrationFile = new CsvReportFile(folder, fileName, ReportRow.MIGRATION_HEADER, maxSize);
+            errorFile = new CsvReportFile(folder, errorFileName, ReportRow.ERROR_HEADER, maxSize);
+        }
+
+        logger.info("Migration report folder: " + folder.getAbsolutePath() + ", file: " + fileName + ", error file: " + errorFileName);
+        return new FileReportSink(migrationFile, errorFile);
     }
 
     /**
@@ -103,15 +202,24 @@ public class InitTasklet implements Tasklet {
      * Sets job parameters and creates database tables if any
      */
     private void initParameters() {
-        jobParameters.setSessionSource(getSession("source"));
-        jobParameters.setSessionTarget(getSession("target"));
+        jobParameters.setSessionPoolSource(getSessionPool("source"));
+        jobParameters.setSessionPoolTarget(getSessionPool("target"));
         jobParameters.setAccessDetailsSource(getAccessDetails("source"));
         jobParameters.setAccessDetailsTarget(getAccessDetails("target"));
+        HttpPoolHelper.init(jobParameters.getAccessDetailsSource(), jobParameters.getAccessDetailsTarget());
         jobParameters.setPageSize(Integer.parseInt(MigrationProperties.get(MigrationProperties.PROP_SOURCE_PAGE_SIZE)));
-        jobParameters.setQuery(MigrationProperties.get(MigrationProperties.PROP_SOURCE_QUERY));
+        jobParameters.setParentPathCache(new ParentPathCache(MigrationProperties.getInt(MigrationProperties.PROP_PARENT_PATH_CACHE_SIZE, DEFAULT_PARENT_PATH_CACHE_SIZE)));
+        jobParameters.setQuery(getFilteredQuery(MigrationProperties.get(MigrationProperties.PROP_SOURCE_QUERY)));
+
+        if (isKeysetPaging() && StringUtils.isNotBlank(jobParameters.getQuery())) {
+            String key = MigrationProperties.get(MigrationProperties.PROP_PAGING_QUERY_KEY);
+            jobParameters.setQueryPager(new KeysetQueryPager(jobParameters.getQuery(), StringUtils.isBlank(key) ? DEFAULT_PAGING_QUERY_KEY : key.trim(), jobParameters.getPageSize()));
+        }
         jobParameters.setItemList(getFolderStructureItemList());
         jobParameters.setPropertyFilter(getPropertyFilter());
         jobParameters.setReplaceStringInDestinationPath(getReplaceStringArray());
+        jobParameters.setDestinationPathPlan(new DestinationPathPlan(jobParameters.getItemList(), jobParameters.getReplaceStringInDestinationPath(),
+                MigrationProperties.get(MigrationProperties.PROP_TARGET_STRUCTURE_DEFAULT), MigrationProperties.getInt(MigrationProperties.PROP_TARGET_STRUCTURE_CACHE_SIZE, DEFAULT_DESTINATION_PATH_CACHE_SIZE)));
         jobParameters.setNamespacePrefixMap(getNamespacePrefixList());
         jobParameters.setBatchId(getBatchId());
         jobParameters.getStopWatchTotal().start();
@@ -121,9 +229,115 @@ public class InitTasklet implements Tasklet {
         jobParameters.setErrorFolder(MigrationProperties.get(MigrationProperties.PROP_SOURCE_ERROR_FOLDER) + "/" + jobParameters.getBatchId());
         jobParameters.setCurrentFolder(getRootFolder());
         jobParameters.setSkipDocuments(Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_COPY_FOLDERS_ONLY)));
+        jobParameters.setFolderCache(new FolderCache(MigrationProperties.getInt(MigrationProperties.PROP_FOLDER_CACHE_SIZE, DEFAULT_FOLDER_CACHE_SIZE)));
+        jobParameters.setMigrationLedger(getMigrationLedger());
+        jobParameters.setAssociationQueue(getAssociationQueue());
+        jobParameters.setMigrationReport(getMigrationReport());
+
+        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_FOLDER_INDEX_ENABLED)))
+            jobParameters.setFolderIndex(new FolderIndex(MigrationProperties.getInt(MigrationProperties.PROP_FOLDER_INDEX_SIZE, DEFAULT_FOLDER_INDEX_SIZE), MigrationProperties.getInt(MigrationProperties.PROP_FOLDER_INDEX_MAX_DOCUMENTS, DEFAULT_FOLDER_INDEX_MAX_DOCUMENTS), jobParameters.getPageSize()));
         
     }
 
+    /**
+     * Checks if queries and folders are paged by key instead of by offset
+     * @return
+     */
+    private boolean isKeysetPaging() {
+        return "KEYSET".equalsIgnoreCase(MigrationProperties.get(MigrationProperties.PROP_PAGING_MODE));
+    }
+
+    /**
+     * Adds the webconversion folders exclusion to the source query for DELTA and QUERY profiles, so most of their
+     * documents are not returned by the query. The documents are still checked one by one when they are read, the
+     * folders are looked up by name in their usual spellings only
+     * @param query
+     * @return the original query if the exclusion can't be added
+     */
+    private String getFilteredQuery(String query) {
+        String profile = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_PROFILE);
+        boolean pushdown = !"false".equalsIgnoreCase(MigrationProperties.get(MigrationProperties.PROP_QUERY_FILTER_PUSHDOWN));
+
+        if (!pushdown || StringUtils.isBlank(query) || !("DELTA".equalsIgnoreCase(profile) || "QUERY".equalsIgnoreCase(profile)))
+            return query;
+
+        List<String> folderIdList = CmisHelper.getFolderIdsByName(jobParameters.getSessionSource(), WEB_CONVERSION);
+        int maxFolders = MigrationProperties.getInt(MigrationProperties.PROP_QUERY_FILTER_MAX_FOLDERS, DEFAULT_QUERY_FILTER_MAX_FOLDERS);
+
+        if (folderIdList.size() > maxFolders) {
+            logger.info("WebConversion folders found: " + folderIdList.size() + ", more than " + maxFolders + ", documents will be filtered when they are read");
+            return query;
+        }
+
+        String filteredQuery = CmisHelper.excludeFolders(query, folderIdList);
+        if (filteredQuery == null) {
+            logger.info("WebConversion exclusion can't be added to the source query, documents will be filtered when they are read");
+            return query;
+        }
+
+        logger.info("WebConversion folders (any case, with their subfolders) excluded in the source query: " + folderIdList.size() + ", query: " + filteredQuery);
+        return filteredQuery;
+    }
+
+    /**
+     * Opens the migration ledger, in the database when the report type is DATABASE or in a local file otherwise
+     * @return null if the ledger is not enabled
+     */
+    private MigrationLedger getMigrationLedger() {
+        if (!Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_LEDGER_ENABLED)))
+            return null;
+
+        if ("DATABASE".equalsIgnoreCase(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_TYPE))) {
+            String table = MigrationProperties.get(MigrationProperties.PROP_LEDGER_TABLE);
+            return new JdbcMigrationLedger(dataSourceComponent.getJdbcTemplate(), StringUtils.isBlank(table) ? DEFAULT_LEDGER_TABLE : table.trim());
+        }
+
+        return getFileMigrationLedger();
+    }
+
+    /**
+     * Opens the migration ledger kept in a local file
+     * @return
+     */
+    private MigrationLedger getFileMigrationLedger() {
+        String filePath = MigrationProperties.get(MigrationProperties.PROP_LEDGER_FILE);
+        if (StringUtils.isBlank(filePath)) {
+            String reportFolder = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_FOLDER);
+            filePath = StringUtils.isBlank(reportFolder) ? DEFAULT_LEDGER_FILE : reportFolder.trim() + "/" + DEFAULT_LEDGER_FILE;
+        }
+
+        try {
+            return new FileMigrationLedger(new File(filePath.trim()), MigrationProperties.getInt(MigrationProperties.PROP_LEDGER_CACHE_SIZE, DEFAULT_LEDGER_CACHE_SIZE));
+
+        } catch (IOException e) {
+            logger.error("EXCEPTION opening migration ledger: " + filePath + ", exception: " + e.getMessage());
+            throw new RuntimeException("Unable to open migration ledger " + filePath, e);
+        }
+    }
+
+    /**
+     * Opens the queue of documents for the association step
+     * @return null if associations are not migrated
+     */
+    private AssociationQueue getAssociationQueue() {
+        if (!Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_COPY_ASSOCIATIONS)))
+            return null;
+
+        String filePath = MigrationProperties.get(MigrationProperties.PROP_ASSOCIATION_QUEUE_FILE);
+        if (StringUtils.isBlank(filePath)) {
+            String reportFolder = MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_FOLDER);
+            filePath = StringUtils.isBlank(reportFolder) ? DEFAULT_ASSOCIATION_QUEUE_FILE : reportFolder.trim() + "/" + DEFAULT_ASSOCIATION_QUEUE_FILE;
+        }
+
+        try {
+            return new AssociationQueue(new File(filePath.trim()));
+
+        } catch (IOException e) {
+            logger.error("EXCEPTION opening association queue: " + filePath + ", exception: " + e.getMessage());
+            throw new RuntimeException("Unable to open association queue " + filePath, e);
+        }
+    }
+
     /**
      * Gets source root folder
      * @return
@@ -193,19 +407,26 @@ public class InitTasklet implements Tasklet {
     }
 
     /**
-     * Gets a CMIS session
-     *
-     * @param type repository type, source or target
-     * @return CMIS session from the node number i
+     * Creates the session pool of a repository, the first session is created straight away to check the connection
+     * @param type source or target
+     * @return
      */
-    private Session getSession(String type) {
+    private CmisSessionPool getSessionPool(String type) {
         String hostUrl = MigrationProperties.get(type + "." + MigrationProperties.PROP_ALFRESCO_HOST_URL);
         String user = MigrationProperties.get(type + "." + MigrationProperties.PROP_ALFRESCO_USER);
         String password = MigrationProperties.get(type + "." + MigrationProperties.PROP_ALFRESCO_PASSWORD);
         String cmisUrl = MigrationProperties.get(type + "." + MigrationProperties.PROP_ALFRESCO_CMIS_URL);
-        logger.info("Getting session " + type + ": " + hostUrl + ", user: " + user);
+        String binding = MigrationProperties.get(type + "." + MigrationProperties.PROP_ALFRESCO_CMIS_BINDING);
+        int cacheSize = MigrationProperties.getInt(type + "." + MigrationProperties.PROP_CMIS_SESSION_CACHE_SIZE, 0);
+        long cacheTtl = MigrationProperties.getLong(type + "." + MigrationProperties.PROP_CMIS_SESSION_CACHE_TTL, 0);
+        int poolSize = MigrationProperties.getInt(type + "." + MigrationProperties.PROP_CMIS_SESSION_POOL_SIZE, MigrationProperties.getStepConcurrency());
+        long ttl = MigrationProperties.getLong(type + "." + MigrationProperties.PROP_CMIS_SESSION_TTL, 0);
+
+        CmisSessionPool sessionPool = new CmisSessionPool(type, CmisHelper.getSessionParameter(hostUrl, user, password, cmisUrl, binding, cacheSize, cacheTtl), poolSize, ttl);
+        logger.info("Getting session " + type + ": " + hostUrl + ", user: " + user + ", binding: " + (StringUtils.isBlank(binding) ? "ATOMPUB" : binding.trim()) + ", pool: " + sessionPool);
+        sessionPool.getSession();
 
-        return CmisHelper.getSession(hostUrl, user, password, cmisUrl);
+        return sessionPool;
     }
 
     private AccessDetails getAccessDetails(String type) {
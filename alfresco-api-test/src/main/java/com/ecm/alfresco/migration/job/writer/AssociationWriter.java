@@ -1,19 +1,33 @@
 package com.ecm.alfresco.migration.job.writer;
 
 import com.ecm.alfresco.migration.bean.document.DocumentAssociation;
+import com.ecm.alfresco.migration.bean.document.LedgerEntry;
+import com.ecm.alfresco.migration.component.association.AssociationQueue;
+import com.ecm.alfresco.migration.component.ledger.MigrationLedger;
 import com.ecm.alfresco.migration.job.param.JobParameters;
+import com.ecm.alfresco.migration.util.NodeRefUtil;
+import com.ecm.alfresco.migration.util.OperationContexts;
 import com.ecm.alfresco.migration.util.TimeUtil;
 
-import org.apache.chemistry.opencmis.commons.exceptions.CmisRuntimeException;
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Relationship;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisContentAlreadyExistsException;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.log4j.Logger;
 import org.springframework.batch.item.ItemWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Creates the associations read by the association step. The target ends of a chunk are resolved together from the
+ * association queue (or the migration ledger for documents migrated before), and the associations already in the
+ * target repository are read once per source document, so running the step again doesn't create them twice.
+ */
 public class AssociationWriter implements ItemWriter<DocumentAssociation> {
     private static final String SUCCESS = "SUCCESS";
     private static final String SKIPPED = "SKIPPED";
@@ -33,12 +47,15 @@ public class AssociationWriter implements ItemWriter<DocumentAssociation> {
      */
     @Override
     public void write(List<? extends DocumentAssociation> documentAssociationList) throws Exception {
+        resolveTargetIds(documentAssociationList);
+        Map<String, Set<String>> existingMap = new HashMap<>();
+
         for (DocumentAssociation association : documentAssociationList) {
             StopWatch stopwatch = TimeUtil.startStopWatch();
 
             if (association != null) {
                 try {
-                    createAssociation(association, stopwatch);
+                    createAssociation(association, existingMap, stopwatch);
                     processSuccess(association, stopwatch);
 
                 } catch (Exception e) {
@@ -55,16 +72,93 @@ public class AssociationWriter implements ItemWriter<DocumentAssociation> {
         }
     }
 
+    /**
+     * Resolves the target repository id of the target end of the associations
+     * @param documentAssociationList
+     */
+    private void resolveTargetIds(List<? extends DocumentAssociation> documentAssociationList) {
+        AssociationQueue associationQueue = jobParameters.getAssociationQueue();
+        MigrationLedger migrationLedger = jobParameters.getMigrationLedger();
+
+        for (DocumentAssociation association : documentAssociationList) {
+            if (association == null || association.getTarRepoTargetId() != null)
+                continue;
+
+            String targetId = associationQueue == null ? null : associationQueue.getTargetId(association.getSrcRepoTargetId());
+
+            if (targetId == null && migrationLedger != null) { // migrated in a previous run
+                LedgerEntry entry = migrationLedger.get(NodeRefUtil.removeVersionLabel(association.getSrcRepoTargetId()));
+                if (entry != null && entry.isMigrated())
+                    targetId = entry.getTargetNodeRef();
+            }
+
+            association.setTarRepoTargetId(targetId);
+        }
+    }
+
+    /**
+     * Gets the associations a document already has in the target repository, they are read once per document
+     * @param existingMap associations read so far by target source id
+     * @param targetSourceId
+     * @return type and target node id of every association
+     */
+    private Set<String> getExistingAssociations(Map<String, Set<String>> existingMap, String targetSourceId) {
+        Set<String> existingSet = existingMap.get(targetSourceId);
+
+        if (existingSet == null) {
+            existingSet = new HashSet<>();
+
+            try {
+                CmisObject document = jobParameters.getSessionTarget().getObject(targetSourceId, OperationContexts.RELATIONSHIPS);
+                if (document.getRelationships() != null) {
+                    for (Relationship oneRelation : document.getRelationships()) {
+                        existingSet.add(getAssociationKey(oneRelation.getType().getId(), oneRelation.getTargetId().getId()));
+                    }
+                }
+
+            } catch (Exception e) {
+                logger.debug("Unable to read target associations, Target Repo Source Node ID: " + targetSourceId + ", exception: " + e.getMessage());
+            }
+
+            existingMap.put(targetSourceId, existingSet);
+        }
+
+        return existingSet;
+    }
+
+    /**
+     * Gets the key of an association, its type and its target node id without store and version
+     * @param type
+     * @param targetId
+     * @return
+     */
+    private String getAssociationKey(String type, String targetId) {
+        return type + "|" + NodeRefUtil.removeWorkSpace(NodeRefUtil.removeVersionLabel(targetId));
+    }
+
     /**
      * Creates an association in the target repository
      * @param association
+     * @param existingMap associations already in the target repository by target source id
      * @param stopwatch
      * @throws Exception
      */
-    private void createAssociation(DocumentAssociation association, StopWatch stopwatch) throws Exception {
+    private void createAssociation(DocumentAssociation association, Map<String, Set<String>> existingMap, StopWatch stopwatch) throws Exception {
         checkSkipAssociation(association, stopwatch);// check if the association has to be skipped
 
         if (!SKIPPED.equals(association.getStatus()) && !EXCLUDED.equals(association.getStatus())) {
+            if (association.getTarRepoTargetId() == null) {
+                logger.warn("The association target document was not migrated, Source Repo Source Node ID: " + association.getSrcRepoSourceId() + ", Source Repo Target ID: " + association.getSrcRepoTargetId());
+                association.setStatus(EXCLUDED);
+                association.setMessage("Target document not migrated");
+                return;
+            }
+
+            if (getExistingAssociations(existingMap, association.getTarRepoSourceId()).contains(getAssociationKey(association.getType(), association.getTarRepoTargetId()))) {
+                logger.debug("The association already exists, Target Repo Source Node ID: " + association.getTarRepoSourceId() + ", Target Repo Target ID: " + association.getTarRepoTargetId());
+                association.setStatus(SKIPPED);
+                return;
+            }
 
             try {
                 Map<String, String> associationProperties = new HashMap<>();
@@ -74,8 +168,8 @@ public class AssociationWriter implements ItemWriter<DocumentAssociation> {
                 jobParameters.getSessionTarget().createRelationship(associationProperties);
                 association.setStatus(SUCCESS);
 
-            } catch (CmisRuntimeException e) {
-                // the association already exists
+            } catch (CmisContentAlreadyExistsException e) {
+                // the association already exists, any other error fails the association
                 logger.debug("The association already exists, Target Repo Source Node ID: " + association.getTarRepoSourceId() + ", Target Repo Target ID: " + association.getTarRepoTargetId());
                 association.setStatus(SKIPPED);
             }
@@ -107,9 +201,10 @@ public class AssociationWriter implements ItemWriter<DocumentAssociation> {
      * @throws Exception
      */
     private void processSuccess(DocumentAssociation association, StopWatch stopWatch) throws Exception {
-        jobParameters.getCounter().increaseCounterProcessed();
-        jobParameters.getCounter().increaseCounterMigrated();
-        jobParameters.getCounter().increaseCounterNew();
+        if (SUCCESS.equals(association.getStatus()))
+            jobParameters.getCounter().increaseCounterAssociationsCreated();
+        else
+            jobParameters.getCounter().increaseCounterAssociationsSkipped();
     }
 
     /**
@@ -123,8 +218,7 @@ public class AssociationWriter implements ItemWriter<DocumentAssociation> {
         logger.error("EXCEPTION Source Repo Source Node ID: " + association.getSrcRepoSourceId() + ", Source Repo Target ID: " + association.getSrcRepoTargetId());
         association.setStatus(FAILED);
         association.setMessage(e.getMessage());
-        jobParameters.getCounter().increaseCounterProcessed();
-        jobParameters.getCounter().increaseCounterFailed();
+        jobParameters.getCounter().increaseCounterAssociationsFailed();
         
         if (logger.isDebugEnabled()) {
             e.printStackTrace();
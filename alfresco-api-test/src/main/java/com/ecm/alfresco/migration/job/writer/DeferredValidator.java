@@ -0,0 +1,246 @@
+package com.ecm.alfresco.migration.job.writer;
+
+import com.ecm.alfresco.migration.bean.document.DocumentItem;
+import com.ecm.alfresco.migration.job.param.JobParameters;
+import com.ecm.alfresco.migration.util.CmisHelper;
+
+import org.apache.chemistry.opencmis.client.api.Document;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates migrated documents in background threads, off the migration path. Documents are taken from the queue in
+ * batches and grouped by target folder, every folder is checked with one request: a folder listing for small folders or
+ * a CMIS query by name for large ones. Documents the query doesn't return are looked up by path before failing them,
+ * because the query only sees documents already indexed by the repository.
+ */
+public class DeferredValidator {
+    private static final Logger logger = Logger.getLogger(DeferredValidator.class);
+    private static final long POLL_TIMEOUT = 500;
+
+    private final JobParameters jobParameters;
+    private final ValidationHandler handler;
+    private final BlockingQueue<DocumentItem> documentQueue;
+    private final List<Thread> workerList = new ArrayList<>();
+    private final int batchSize;
+    private final int maxDocuments;
+    private final int pageSize;
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong listings = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private volatile boolean finished = false;
+
+    /**
+     * Validation operation
+     */
+    public interface ValidationHandler {
+        /**
+         * Validates a migrated document
+         * @param documentItem
+         * @param documentId id of the document found in the target path, null if there is no document
+         * @throws Exception if the validation fails
+         */
+        void validate(DocumentItem documentItem, String documentId) throws Exception;
+
+        void onError(DocumentItem documentItem, Exception e);
+    }
+
+    /**
+     * Validator constructor, the threads start straight away
+     * @param jobParameters every thread validates with its own target session
+     * @param handler
+     * @param threads number of validation threads
+     * @param batchSize max number of documents validated together
+     * @param queueSize max number of documents waiting for validation
+     * @param maxDocuments max number of documents of a folder to list it, larger folders are queried
+     * @param pageSize folder listing page size
+     */
+    public DeferredValidator(JobParameters jobParameters, ValidationHandler handler, int threads, int batchSize, int queueSize, int maxDocuments, int pageSize) {
+        this.jobParameters = jobParameters;
+        this.handler = handler;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxDocuments = maxDocuments;
+        this.pageSize = pageSize;
+        this.documentQueue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+
+        for (int i = 0; i < Math.max(threads, 1); i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processQueue();
+                }
+            }, "migration-validation-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workerList.add(worker);
+        }
+
+        logger.info("Deferred validation started, threads: " + workerList.size() + ", batch size: " + this.batchSize + ", queue size: " + documentQueue.remainingCapacity());
+    }
+
+    /**
+     * Adds a migrated document to validate, it waits if the queue is full
+     * @param documentItem
+     * @throws InterruptedException
+     */
+    public void submit(DocumentItem documentItem) throws InterruptedException {
+        documentQueue.put(documentItem);
+    }
+
+    /**
+     * Waits until all the documents submitted are validated and stops the threads
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        logger.info("Waiting for deferred validation, pending documents: " + documentQueue.size());
+        finished = true;
+
+        for (Thread oneWorker : workerList) {
+            oneWorker.join();
+        }
+    }
+
+    /**
+     * Validates batches of documents until the validator is finished and the queue is empty
+     */
+    private void processQueue() {
+        try {
+            while (true) {
+                DocumentItem documentItem = documentQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+
+                if (documentItem == null) {
+                    if (finished)
+                        return;
+
+                } else {
+                    List<DocumentItem> batch = new ArrayList<>(batchSize);
+                    batch.add(documentItem);
+                    documentQueue.drainTo(batch, batchSize - 1);
+                    validateBatch(batch);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            logger.debug(Thread.currentThread().getName() + " interrupted, pending documents: " + documentQueue.size());
+        }
+    }
+
+    /**
+     * Validates a batch of documents folder by folder
+     * @param batch
+     */
+    private void validateBatch(List<DocumentItem> batch) {
+        Map<String, List<DocumentItem>> folderMap = new LinkedHashMap<>();
+
+        for (DocumentItem oneDocumentItem : batch) {
+            List<DocumentItem> documentList = folderMap.get(oneDocumentItem.getTargetDestinationFolder());
+            if (documentList == null) {
+                documentList = new ArrayList<>();
+                folderMap.put(oneDocumentItem.getTargetDestinationFolder(), documentList);
+            }
+
+            documentList.add(oneDocumentItem);
+        }
+
+        for (Map.Entry<String, List<DocumentItem>> oneFolder : folderMap.entrySet()) {
+            validateFolder(oneFolder.getKey(), oneFolder.getValue());
+        }
+
+        logger.debug("Validated batch, documents: " + batch.size() + ", folders: " + folderMap.size() + ", pending: " + documentQueue.size());
+    }
+
+    /**
+     * Validates the documents migrated into a folder
+     * @param folderPath
+     * @param documentList
+     */
+    private void validateFolder(String folderPath, List<DocumentItem> documentList) {
+        Session session = jobParameters.getSessionTarget();
+        Map<String, String> idMap;
+        boolean complete;
+
+        try {
+            idMap = CmisHelper.getDocumentIdsByName(session, folderPath, pageSize, maxDocuments);
+            complete = idMap != null;
+
+            if (complete) {
+                listings.incrementAndGet();
+
+            } else {
+                Set<String> names = new LinkedHashSet<>();
+                for (DocumentItem oneDocumentItem : documentList) {
+                    names.add(oneDocumentItem.getFilename());
+                }
+
+                idMap = CmisHelper.queryDocumentIdsByName(session, folderPath, names);
+                queries.incrementAndGet();
+            }
+
+        } catch (Exception e) {
+            logger.error("EXCEPTION reading folder to validate documents: " + folderPath + ", exception: " + e.getMessage());
+            for (DocumentItem oneDocumentItem : documentList) {
+                failed.incrementAndGet();
+                handler.onError(oneDocumentItem, e);
+            }
+            return;
+        }
+
+        for (DocumentItem documentItem : documentList) {
+            try {
+                String documentId = idMap.get(documentItem.getFilename());
+                if (documentId == null && !complete)
+                    documentId = getDocumentId(session, folderPath, documentItem.getFilename());
+
+                handler.validate(documentItem, documentId);
+                validated.incrementAndGet();
+
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                handler.onError(documentItem, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the id of a document by path
+     * @param session
+     * @param folderPath
+     * @param documentName
+     * @return null if the document doesn't exist
+     */
+    private String getDocumentId(Session session, String folderPath, String documentName) {
+        try {
+            Document document = CmisHelper.getDocumentByPath(session, folderPath, documentName);
+            return document == null ? null : document.getId();
+
+        } catch (CmisObjectNotFoundException e) {
+            return null;
+        }
+    }
+
+    public long getValidated() {
+        return validated.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "validated: " + getValidated() + ", failed: " + getFailed() + ", folder listings: " + listings.get() + ", queries: " + queries.get() + ", pending: " + documentQueue.size();
+    }
+}
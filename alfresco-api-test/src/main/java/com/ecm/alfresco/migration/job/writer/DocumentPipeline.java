@@ -0,0 +1,252 @@
+package com.ecm.alfresco.migration.job.writer;
+
+import com.ecm.alfresco.migration.bean.document.DocumentItem;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs documents through a sequence of stages. Every stage has its own bounded queue and its own worker threads,
+ * so different documents can be in different stages at the same time (ie. downloading document N+1 while document N
+ * is being uploaded). A full queue blocks the previous stage, which keeps memory and temp disk usage bounded.
+ */
+public class DocumentPipeline {
+    private static final Logger logger = Logger.getLogger(DocumentPipeline.class);
+
+    private final List<Stage> stageList = new ArrayList<>();
+    private final CompletionHandler completionHandler;
+    private final int queueSize;
+    private boolean started = false;
+
+    /**
+     * Stage operation
+     */
+    public interface StageHandler {
+        /**
+         * Processes a document
+         * @param documentItem
+         * @return false if the document doesn't need to go through the following stages
+         * @throws Exception
+         */
+        boolean process(DocumentItem documentItem) throws Exception;
+    }
+
+    /**
+     * Called once a document leaves the pipeline
+     */
+    public interface CompletionHandler {
+        void onSuccess(DocumentItem documentItem) throws Exception;
+
+        void onError(DocumentItem documentItem, Exception e) throws Exception;
+    }
+
+    /**
+     * Pipeline constructor
+     * @param queueSize max number of documents waiting in each stage
+     * @param completionHandler
+     */
+    public DocumentPipeline(int queueSize, CompletionHandler completionHandler) {
+        this.queueSize = Math.max(queueSize, 1);
+        this.completionHandler = completionHandler;
+    }
+
+    /**
+     * Adds a stage at the end of the pipeline
+     * @param name
+     * @param threads
+     * @param handler
+     * @return
+     */
+    public DocumentPipeline addStage(String name, int threads, StageHandler handler) {
+        Stage stage = new Stage(name, Math.max(threads, 1), handler, queueSize);
+        if (!stageList.isEmpty()) {
+            stageList.get(stageList.size() - 1).next = stage;
+        }
+
+        stageList.add(stage);
+        return this;
+    }
+
+    /**
+     * Starts the stage workers
+     */
+    public synchronized void start() {
+        if (!started) {
+            for (Stage oneStage : stageList) {
+                logger.info("Starting pipeline stage " + oneStage.name + ", threads: " + oneStage.threads + ", queue size: " + queueSize);
+                oneStage.start();
+            }
+
+            started = true;
+        }
+    }
+
+    /**
+     * Sends the documents through the pipeline and waits until all of them have been processed
+     * @param documentItemList
+     * @throws InterruptedException
+     */
+    public void process(List<? extends DocumentItem> documentItemList) throws InterruptedException {
+        start();
+        CountDownLatch latch = new CountDownLatch(documentItemList.size());
+
+        for (DocumentItem documentItem : documentItemList) {
+            if (documentItem != null) {
+                stageList.get(0).queue.put(new PipelineTask(documentItem, latch));
+
+            } else {
+                latch.countDown();
+            }
+        }
+
+        latch.await();
+    }
+
+    /**
+     * Stops all the stage workers
+     */
+    public synchronized void shutdown() {
+        for (Stage oneStage : stageList) {
+            for (Thread oneWorker : oneStage.workerList) {
+                oneWorker.interrupt();
+            }
+        }
+
+        started = false;
+    }
+
+    /**
+     * Completes a task successfully
+     * @param task
+     */
+    private void complete(PipelineTask task) {
+        try {
+            completionHandler.onSuccess(task.documentItem);
+
+        } catch (Throwable t) {
+            fail(task, t);
+            return;
+        }
+
+        task.latch.countDown();
+    }
+
+    /**
+     * Completes a task with an error, errors other than exceptions are passed as the cause of an exception
+     * @param task
+     * @param t
+     */
+    private void fail(PipelineTask task, Throwable t) {
+        try {
+            completionHandler.onError(task.documentItem, t instanceof Exception ? (Exception) t : new Exception(t.toString(), t));
+
+        } catch (Throwable ex) {
+            logger.error("EXCEPTION processing pipeline error, document: " + task.documentItem.getDocumentId() + ", exception: " + ex.getMessage());
+
+        } finally {
+            task.latch.countDown();
+        }
+    }
+
+    /**
+     * Document on its way through the pipeline
+     */
+    private static class PipelineTask {
+        private final DocumentItem documentItem;
+        private final CountDownLatch latch;
+
+        private PipelineTask(DocumentItem documentItem, CountDownLatch latch) {
+            this.documentItem = documentItem;
+            this.latch = latch;
+        }
+    }
+
+    /**
+     * Pipeline stage, a bounded queue and a pool of workers
+     */
+    private class Stage {
+        private final String name;
+        private final int threads;
+        private final StageHandler handler;
+        private final BlockingQueue<PipelineTask> queue;
+        private final List<Thread> workerList = new ArrayList<>();
+        private Stage next;
+
+        private Stage(String name, int threads, StageHandler handler, int queueSize) {
+            this.name = name;
+            this.threads = threads;
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        private void start() {
+            workerList.clear();
+
+            for (int i = 0; i < threads; i++) {
+                workerList.add(null);
+                startWorker(i);
+            }
+        }
+
+        /**
+         * Starts a worker, a worker dying unexpectedly is replaced while the pipeline is started
+         * @param index
+         */
+        private void startWorker(final int index) {
+            Thread worker = new Thread("pipeline-" + name.toLowerCase() + "-" + index) {
+                @Override
+                public void run() {
+                    try {
+                        work();
+
+                    } catch (Throwable t) {
+                        logger.error("EXCEPTION in pipeline worker " + getName() + ", it will be replaced, exception: " + t);
+                        replaceWorker(index);
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            workerList.set(index, worker);
+            worker.start();
+        }
+
+        private void replaceWorker(int index) {
+            synchronized (DocumentPipeline.this) {
+                if (started)
+                    startWorker(index);
+            }
+        }
+
+        private void work() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    PipelineTask task = queue.take();
+                    boolean proceed;
+
+                    try {
+                        proceed = handler.process(task.documentItem);
+
+                    } catch (Throwable t) {
+                        fail(task, t);
+                        continue;
+                    }
+
+                    if (proceed && next != null) {
+                        next.queue.put(task);
+
+                    } else {
+                        complete(task);
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                logger.debug(Thread.currentThread().getName() + " interrupted");
+            }
+        }
+    }
+}
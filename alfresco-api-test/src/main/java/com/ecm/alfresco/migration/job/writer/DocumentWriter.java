@@ -1,8 +1,12 @@
 package com.ecm.alfresco.migration.job.writer;
 
-import com.ecm.alfresco.migration.bean.document.DocumentAssociation;
+import com.ecm.alfresco.migration.bean.document.DocumentContent;
 import com.ecm.alfresco.migration.bean.document.DocumentItem;
 import com.ecm.alfresco.migration.bean.document.DocumentProperties;
+import com.ecm.alfresco.migration.bean.document.LedgerEntry;
+import com.ecm.alfresco.migration.bean.document.ReportRow;
+import com.ecm.alfresco.migration.component.ledger.MigrationLedger;
+import com.ecm.alfresco.migration.component.report.MigrationReport;
 import com.ecm.alfresco.migration.job.config.MigrationProperties;
 import com.ecm.alfresco.migration.job.param.JobParameters;
 import com.ecm.alfresco.migration.service.AlfrescoAPIService;
@@ -12,7 +16,6 @@ import com.ecm.alfresco.migration.util.*;
 
 import org.apache.chemistry.opencmis.client.api.*;
 
-import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
 import org.apache.commons.lang3.time.StopWatch;
 
@@ -39,6 +42,16 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
 
     private static final String PROPERTY_NAME = "{http://www.alfresco.org/model/content/1.0}name";
     private static final String FOLDER_DESTINATION = "FOLDER DESTINATION";
+    private static final String STAGE_METADATA = "METADATA";
+    private static final String STAGE_DOWNLOAD = "DOWNLOAD";
+    private static final String STAGE_UPLOAD = "UPLOAD";
+    private static final String STAGE_VALIDATION = "VALIDATION";
+    private static final String VALIDATION_INLINE = "INLINE";
+    private static final String VALIDATION_DEFERRED = "DEFERRED";
+    private static final int DEFAULT_VALIDATION_THREADS = 2;
+    private static final int DEFAULT_VALIDATION_BATCH_SIZE = 200;
+    private static final int DEFAULT_VALIDATION_QUEUE_SIZE = 5000;
+    private static final int DEFAULT_VALIDATION_MAX_DOCUMENTS = 1000;
 
     @Autowired
     private DocumentService documentService;
@@ -46,6 +59,10 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
     private AlfrescoAPIService alfrescoAPIService;
     @Autowired
     private JobParameters jobParameters;
+    private DocumentPipeline documentPipeline;
+    private MetadataPrefetcher metadataPrefetcher;
+    private VersionPrefetcher versionPrefetcher;
+    private ValidationSampler validationSampler;
 
     private static final Logger logger = Logger.getLogger(DocumentWriter.class);
 
@@ -56,6 +73,15 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      */
     @Override
     public void write(List<? extends DocumentItem> documentItemList) throws Exception {
+        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_METADATA_PREFETCH_ENABLED))) {
+            getMetadataPrefetcher().prefetch(documentItemList);
+        }
+
+        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_PIPELINE_ENABLED))) {
+            getDocumentPipeline().process(documentItemList);
+            return;
+        }
+
         for (DocumentItem documentItem : documentItemList) {
 
             if (documentItem != null) {
@@ -66,11 +92,17 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
 
                     if (!SKIPPED.equals(documentItem.getStatus())) {
                         upload(documentItem);
-                        copyAssociations(documentItem);
-                        validateMigration(documentItem);
+                        queueAssociations(documentItem);
+
+                        if (isValidationInline() && getValidationSampler().isSelected(documentItem))
+                            validateMigration(documentItem);
+
+                    } else {
+                        queueAssociations(documentItem);
                     }
 
-                    processSuccess(stopwatch, documentItem);
+                    if (!submitValidation(documentItem))
+                        processSuccess(stopwatch, documentItem);
 
                 } catch (Exception e) {
                     processException(documentItem, e);
@@ -80,25 +112,202 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
     }
 
     /**
-     * Migrates document associations
-     * @param documentItem
-     * @throws Exception
+     * Gets the document pipeline, it's created on the first write
+     * @return
      */
-    private void copyAssociations(DocumentItem documentItem) throws Exception {
-        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_COPY_ASSOCIATIONS))) {
-            OperationContext operationContext = jobParameters.getSessionSource().createOperationContext(null, false, false, false, IncludeRelationships.SOURCE, null, false, null, false, 50);
-            Document document = (Document) jobParameters.getSessionSource().getObject(documentItem.getDocumentId(), operationContext);
-
-            if (document.getRelationships() != null && document.getRelationships().size() > 0) {
-                for (Relationship oneRelation : document.getRelationships()) {
-                    String associationsSourceId = oneRelation.getSourceId().getId();
-                    String associationsTargetId = oneRelation.getTargetId().getId();
-                    String type = oneRelation.getType().getId();
-                    DocumentAssociation association = new DocumentAssociation(associationsSourceId, associationsTargetId, type);
-                    documentItem.getAssociations().add(association);
-                    
+    private synchronized DocumentPipeline getDocumentPipeline() {
+        if (documentPipeline == null) {
+            int numThreads = MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1);
+            int batchSize = MigrationProperties.getInt(MigrationProperties.PROP_SOURCE_BATCH_SIZE, 1);
+            int queueSize = MigrationProperties.getInt(MigrationProperties.PROP_PIPELINE_QUEUE_SIZE, batchSize);
+
+            documentPipeline = new DocumentPipeline(queueSize, new DocumentPipeline.CompletionHandler() {
+                @Override
+                public void onSuccess(DocumentItem documentItem) throws Exception {
+                    if (!submitValidation(documentItem))
+                        processSuccess(null, documentItem);
                 }
+
+                @Override
+                public void onError(DocumentItem documentItem, Exception e) throws Exception {
+                    closeContent(documentItem);
+                    processException(documentItem, e);
+                }
+            });
+
+            documentPipeline.addStage(STAGE_METADATA, getStageThreads(STAGE_METADATA, numThreads), new DocumentPipeline.StageHandler() {
+                @Override
+                public boolean process(DocumentItem documentItem) throws Exception {
+                    setDocumentItemAttributes(documentItem);
+                    skipReplaceDocument(documentItem);// check if the document has to be skipped or replaced
+
+                    if (SKIPPED.equals(documentItem.getStatus())) {
+                        queueAssociations(documentItem);
+                        return false;
+                    }
+                    return true;
+                }
+            });
+
+            documentPipeline.addStage(STAGE_DOWNLOAD, getStageThreads(STAGE_DOWNLOAD, numThreads), new DocumentPipeline.StageHandler() {
+                @Override
+                public boolean process(DocumentItem documentItem) throws Exception {
+                    // all versions are downloaded and uploaded one by one in the upload stage, streamed content is opened
+                    // in the upload stage too so no source connection is held while the document waits in the queue
+                    if (!Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_COPY_ALL_VERSIONS)) && !alfrescoAPIService.isStreamingEnabled()) {
+                        documentItem.setContent(alfrescoAPIService.getVersionContent(documentItem.getSourceNodeRef(), null, documentItem.getFilename(), true));
+                    }
+                    return true;
+                }
+            });
+
+            documentPipeline.addStage(STAGE_UPLOAD, getStageThreads(STAGE_UPLOAD, numThreads), new DocumentPipeline.StageHandler() {
+                @Override
+                public boolean process(DocumentItem documentItem) throws Exception {
+                    upload(documentItem);
+                    queueAssociations(documentItem);
+                    return true;
+                }
+            });
+
+            if (isValidationInline()) {
+                documentPipeline.addStage(STAGE_VALIDATION, getStageThreads(STAGE_VALIDATION, numThreads), new DocumentPipeline.StageHandler() {
+                    @Override
+                    public boolean process(DocumentItem documentItem) throws Exception {
+                        if (getValidationSampler().isSelected(documentItem))
+                            validateMigration(documentItem);
+                        return true;
+                    }
+                });
             }
+
+            jobParameters.setDocumentPipeline(documentPipeline);
+        }
+
+        return documentPipeline;
+    }
+
+    /**
+     * Gets the validation sampler, it's created on the first use
+     * @return
+     */
+    private synchronized ValidationSampler getValidationSampler() {
+        if (validationSampler == null) {
+            validationSampler = new ValidationSampler(MigrationProperties.get(MigrationProperties.PROP_VALIDATION_SAMPLE));
+            logger.info("Validation mode: " + getValidationMode() + ", sample: " + validationSampler);
+        }
+
+        return validationSampler;
+    }
+
+    /**
+     * Gets the deferred validator, it's created on the first migrated document
+     * @return
+     */
+    private synchronized DeferredValidator getDeferredValidator() {
+        if (jobParameters.getDeferredValidator() == null) {
+            int numThreads = MigrationProperties.getInt(MigrationProperties.PROP_VALIDATION_THREADS, DEFAULT_VALIDATION_THREADS);
+            int batchSize = MigrationProperties.getInt(MigrationProperties.PROP_VALIDATION_BATCH_SIZE, DEFAULT_VALIDATION_BATCH_SIZE);
+            int queueSize = MigrationProperties.getInt(MigrationProperties.PROP_VALIDATION_QUEUE_SIZE, DEFAULT_VALIDATION_QUEUE_SIZE);
+            int maxDocuments = MigrationProperties.getInt(MigrationProperties.PROP_VALIDATION_MAX_DOCUMENTS, DEFAULT_VALIDATION_MAX_DOCUMENTS);
+
+            jobParameters.setDeferredValidator(new DeferredValidator(jobParameters, new DeferredValidator.ValidationHandler() {
+                @Override
+                public void validate(DocumentItem documentItem, String documentId) throws Exception {
+                    validateMigration(documentItem, documentId);
+                    jobParameters.getCounter().increaseCounterValidated();
+                    processSuccess(null, documentItem);
+                }
+
+                @Override
+                public void onError(DocumentItem documentItem, Exception e) {
+                    processValidationException(documentItem, e);
+                }
+            }, numThreads, batchSize, queueSize, maxDocuments, jobParameters.getPageSize()));
+        }
+
+        return jobParameters.getDeferredValidator();
+    }
+
+    /**
+     * Adds a migrated document to the deferred validation if it's enabled and the document is selected
+     * @param documentItem
+     * @return true if the document was submitted, it's counted and reported once it's validated
+     * @throws InterruptedException
+     */
+    private boolean submitValidation(DocumentItem documentItem) throws InterruptedException {
+        if (VALIDATION_DEFERRED.equals(getValidationMode()) && !SKIPPED.equals(documentItem.getStatus()) && getValidationSampler().isSelected(documentItem)) {
+            getDeferredValidator().submit(documentItem);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the validation mode: INLINE, DEFERRED or NONE
+     * @return
+     */
+    private String getValidationMode() {
+        String mode = MigrationProperties.get(MigrationProperties.PROP_VALIDATION_MODE);
+        return mode == null || mode.trim().isEmpty() ? VALIDATION_INLINE : mode.trim().toUpperCase();
+    }
+
+    private boolean isValidationInline() {
+        return VALIDATION_INLINE.equals(getValidationMode());
+    }
+
+    /**
+     * Gets the metadata prefetcher, it's created on the first write
+     * @return
+     */
+    private synchronized MetadataPrefetcher getMetadataPrefetcher() {
+        if (metadataPrefetcher == null) {
+            int numThreads = MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1);
+            int prefetchThreads = MigrationProperties.getInt(MigrationProperties.PROP_METADATA_PREFETCH_THREADS, numThreads);
+            logger.info("Starting metadata prefetch, threads: " + prefetchThreads);
+            metadataPrefetcher = new MetadataPrefetcher(alfrescoAPIService, prefetchThreads);
+            jobParameters.setMetadataPrefetcher(metadataPrefetcher);
+        }
+
+        return metadataPrefetcher;
+    }
+
+    /**
+     * Gets the version prefetcher, it's created for the first document migrated with all its versions
+     * @return
+     */
+    private synchronized VersionPrefetcher getVersionPrefetcher() {
+        if (versionPrefetcher == null) {
+            int numThreads = MigrationProperties.getInt(MigrationProperties.PROP_NUM_THREADS, 1);
+            int prefetchThreads = MigrationProperties.getInt(MigrationProperties.PROP_VERSION_PREFETCH_THREADS, numThreads);
+            int depth = MigrationProperties.getInt(MigrationProperties.PROP_VERSION_PREFETCH_DEPTH, 2);
+            logger.info("Starting version prefetch, threads: " + prefetchThreads + ", depth: " + depth);
+            versionPrefetcher = new VersionPrefetcher(alfrescoAPIService, prefetchThreads, depth);
+            jobParameters.setVersionPrefetcher(versionPrefetcher);
+        }
+
+        return versionPrefetcher;
+    }
+
+    /**
+     * Gets the number of threads for a pipeline stage
+     * @param stage
+     * @param defaultThreads
+     * @return
+     */
+    private int getStageThreads(String stage, int defaultThreads) {
+        return MigrationProperties.getInt(MigrationProperties.PROP_PIPELINE_THREADS + stage.toLowerCase(), defaultThreads);
+    }
+
+    /**
+     * Queues a migrated or skipped document for the association step, its associations are read and created once all
+     * the documents are migrated
+     * @param documentItem
+     */
+    private void queueAssociations(DocumentItem documentItem) {
+        if (jobParameters.getAssociationQueue() != null && documentItem.getTargetNodeRef() != null) {
+            jobParameters.getAssociationQueue().add(documentItem.getDocumentId(), NodeRefUtil.removeVersionLabel(documentItem.getTargetNodeRef()));
         }
     }
 
@@ -109,7 +318,13 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      */
     private void setDocumentItemAttributes(DocumentItem documentItem) throws Exception {
         String sourceNodeId = NodeRefUtil.removeVersionLabel(documentItem.getDocumentId());
-        DocumentProperties documentProperties = alfrescoAPIService.getVersionProperties(null, sourceNodeId);
+        DocumentProperties documentProperties;
+
+        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_METADATA_PREFETCH_ENABLED)))
+            documentProperties = getMetadataPrefetcher().get(sourceNodeId);
+        else
+            documentProperties = alfrescoAPIService.getVersionProperties(null, sourceNodeId);
+
         JSONObject metadata = documentProperties.getDocumentProperties();
         String fileName = (String) ((JSONObject) metadata.get("properties")).get(PROPERTY_NAME);
         String targetDestinationFolder = getDestinationPath(metadata, documentItem);
@@ -123,11 +338,20 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      */
     private void validateMigration(DocumentItem documentItem) throws Exception {
         // first validation by path and filename
-        Document document = CmisHelper.getDocumentByPath(jobParameters.getSessionTarget(), documentItem.getTargetDestinationFolder(), documentItem.getFilename());
+        validateMigration(documentItem, getTargetDocumentId(documentItem.getTargetDestinationFolder(), documentItem.getFilename(), true));
+    }
+
+    /**
+     * Validates migration with the id of the document found in the target destination path
+     * @param documentItem
+     * @param documentId null if no document was found in the path
+     * @throws Exception
+     */
+    private void validateMigration(DocumentItem documentItem, String documentId) throws Exception {
         Exception e;
 
-        if (document == null) { // second validation by nodeId
-            document = (Document) jobParameters.getSessionTarget().getObject(documentItem.getTargetNodeRef());
+        if (documentId == null) { // second validation by nodeId
+            Document document = (Document) jobParameters.getSessionTarget().getObject(documentItem.getTargetNodeRef(), OperationContexts.EXISTS_CHECK);
 
             if (document == null)
                 e = new Exception("Document not found in target repository. It has been deleted immediately after being migrated, Target Node ID: " + NodeRefUtil.removeVersionLabel(documentItem.getTargetNodeRef()) + ", Target Destination Path: " + documentItem.getTargetDestinationFolder());
@@ -135,17 +359,55 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
             else
                 e = new Exception("Document is not in the expected destination path. Target Node ID: " + NodeRefUtil.removeVersionLabel(documentItem.getTargetNodeRef()) + ", Expected Destination Path: " + documentItem.getTargetNodeRef());
 
+            invalidateFolderIndex(documentItem);
             rollback(documentItem.getTargetNodeRef(), e);
             throw e;
 
-        } else if (!document.getId().equals(NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()))) {
-            if (!NodeRefUtil.removeVersionLabel(document.getId()).equals(NodeRefUtil.removeWorkSpace(NodeRefUtil.removeVersionLabel(documentItem.getTargetNodeRef())))) {
-                e = new Exception("Document found in the destination path doesn't match the expected nodeId, Expected Node ID: " + NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()) + ", Actual Node ID: " + document.getId() + ", Target Destination Path: " + documentItem.getTargetDestinationFolder());
+        } else if (!documentId.equals(NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()))) {
+            if (!NodeRefUtil.removeVersionLabel(documentId).equals(NodeRefUtil.removeWorkSpace(NodeRefUtil.removeVersionLabel(documentItem.getTargetNodeRef())))) {
+                e = new Exception("Document found in the destination path doesn't match the expected nodeId, Expected Node ID: " + NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()) + ", Actual Node ID: " + documentId + ", Target Destination Path: " + documentItem.getTargetDestinationFolder());
+                invalidateFolderIndex(documentItem);
                 rollback(documentItem.getTargetNodeRef(), e);
                 throw e;
 
             } else // this case is not a failure, it's just a warning
-                documentItem.setMessage("Document exists but version doesn't match, Expected: " + NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()) + ", Found: " + document.getId());
+                documentItem.setMessage("Document exists but version doesn't match, Expected: " + NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()) + ", Found: " + documentId);
+        }
+    }
+
+    /**
+     * Removes the target folder from the folder index, so it's listed again after a document is rolled back
+     * @param documentItem
+     */
+    private void invalidateFolderIndex(DocumentItem documentItem) {
+        if (jobParameters.getFolderIndex() != null)
+            jobParameters.getFolderIndex().invalidate(documentItem.getTargetDestinationFolder());
+    }
+
+    /**
+     * Gets the id of a document in a target folder, from the folder index when it's enabled or by path otherwise
+     * @param folderPath
+     * @param fileName
+     * @param confirmMissing true to look up by path a document missing from the index before it's considered missing
+     * @return null if the document doesn't exist
+     */
+    private String getTargetDocumentId(String folderPath, String fileName, boolean confirmMissing) {
+        FolderIndex folderIndex = jobParameters.getFolderIndex();
+
+        if (folderIndex != null && folderIndex.isIndexed(jobParameters.getSessionTarget(), folderPath)) {
+            String documentId = folderIndex.getDocumentId(jobParameters.getSessionTarget(), folderPath, fileName);
+            if (documentId != null || !confirmMissing)
+                return documentId;
+
+            logger.debug("Document not in the folder index, looking it up by path: " + folderPath + "/" + fileName);
+        }
+
+        try {
+            Document document = CmisHelper.getDocumentByPath(jobParameters.getSessionTarget(), folderPath, fileName);
+            return document == null ? null : document.getId();
+
+        } catch (CmisObjectNotFoundException e) {
+            return null;
         }
     }
 
@@ -158,25 +420,24 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * @throws IllegalAccessException
      */
     private String getDestinationPath(JSONObject documentProperties, DocumentItem documentItem) throws ParseException, IllegalAccessException {
-        TimeUtil.resume(FOLDER_DESTINATION, jobParameters.getStopWatchDestinationFolder());
+        jobParameters.getStageTimer().start(FOLDER_DESTINATION);
         String rootFolder = MigrationProperties.get(MigrationProperties.PROP_TARGET_STRUCTURE_ROOT_PATH);
 
         // migrating entire folder structure, document already has a destination path
         if (documentItem.getFolderPath() != null && !documentItem.getFolderPath().isEmpty()) {
-            TimeUtil.suspend(FOLDER_DESTINATION, jobParameters.getStopWatchDestinationFolder());
+            jobParameters.getStageTimer().stop(FOLDER_DESTINATION);
             return rootFolder + documentItem.getFolderPath();
 
         } else {
             if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_TARGET_STRUCTURE_KEEP_ORIGINAL))) { //for DELTA documents we need to find out the parent folder
-                Document document = (Document) jobParameters.getSessionSource().getObject(documentItem.getDocumentId());
-                List<String> pathList = document.getPaths();
-                String path = pathList.get(0);
-                documentItem.setFolderPath(path.substring(0, path.lastIndexOf("/")));
+                String parentPath = jobParameters.getParentPathCache().getParentPath(jobParameters.getSessionSource(), documentItem.getDocumentId());
+                documentItem.setFolderPath(parentPath == null || "/".equals(parentPath) ? "" : parentPath);
+                jobParameters.getStageTimer().stop(FOLDER_DESTINATION);
                 return rootFolder + documentItem.getFolderPath();
 
             } else { // migrating only documents, destination path hast to be determined based on the migration configuration rules
-                String targetFolderDestination = documentService.getDestinationPath(documentProperties, jobParameters.getItemList(), jobParameters.getReplaceStringInDestinationPath(), rootFolder);
-                TimeUtil.suspend(FOLDER_DESTINATION, jobParameters.getStopWatchDestinationFolder());
+                String targetFolderDestination = jobParameters.getDestinationPathPlan().getDestinationPath(documentProperties, rootFolder);
+                jobParameters.getStageTimer().stop(FOLDER_DESTINATION);
                 return targetFolderDestination;
             }
         }
@@ -206,10 +467,23 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * @throws Exception
      */
     public DocumentItem uploadCurrentVersion(DocumentItem documentItem) throws Exception {
-        File file = alfrescoAPIService.getVersionFile(documentItem.getSourceNodeRef(), null, documentItem.getFilename(), true);
-        logger.debug("Temp file created: " + file.getAbsolutePath());
+        DocumentContent content = documentItem.getContent();
+
+        if (content == null) { // content not downloaded yet
+            content = alfrescoAPIService.getVersionContent(documentItem.getSourceNodeRef(), null, documentItem.getFilename(), true);
+            documentItem.setContent(content);
+        }
+
+        logger.debug("Content retrieved: " + content);
         documentItem.setVersionLabel("1.0");
-        documentItem = uploadDocument(file, documentItem);
+
+        try {
+            documentItem = uploadDocument(content, documentItem);
+
+        } finally {
+            // delete the document once the doc has been uploaded
+            closeContent(documentItem);
+        }
 
         if (!documentItem.getStatus().equals(SKIPPED)) {
             alfrescoAPIService.updateNodeProperties(documentItem, documentItem.getDocumentProperties());
@@ -229,6 +503,10 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
         JSONArray versionArray = alfrescoAPIService.getVersionArray(documentItem);
 
         if (versionArray != null) {
+            VersionPrefetcher.VersionWindow versionWindow = null;
+            if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_VERSION_PREFETCH_ENABLED)))
+                versionWindow = getVersionPrefetcher().open(documentItem, versionArray);
+
             try {
                 boolean currentVersion;
                 //older versions first
@@ -239,13 +517,22 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
                     String versionLabel = (String) currentObject.get("label");
                     currentVersion = (i == 0) ? true : false;
                     documentItem.setVersionAttributes(versionLabel, versionArray.length());
-                    documentItem = uploadVersionFile(documentItem, currentVersionNodeRef, currentVersion);
+                    DocumentProperties versionProperties = null;
+
+                    if (versionWindow != null) {
+                        VersionPrefetcher.Version version = versionWindow.take(i);
+                        versionProperties = version.getProperties();
+                        documentItem = uploadVersionFile(documentItem, version.getContent(), currentVersionNodeRef);
+
+                    } else {
+                        documentItem = uploadVersionFile(documentItem, currentVersionNodeRef, currentVersion);
+                    }
 
                     if (documentItem.getStatus().equals(SKIPPED)) {
                         return documentItem;
 
                     } else {
-                        documentItem = updateProperties(documentItem, currentVersion, nextVersionNodeId);
+                        documentItem = updateProperties(documentItem, currentVersion, nextVersionNodeId, versionProperties);
                         //datasourceService.updateAlfNode(documentItem);
                     }
                 }
@@ -253,6 +540,10 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
             } catch (Exception e) {
                 rollback(documentItem.getTargetNodeRef(), e);
                 throw e;
+
+            } finally {
+                if (versionWindow != null)
+                    versionWindow.close();
             }
         }
 
@@ -264,15 +555,19 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * @param documentItem
      * @param currentVersion
      * @param versionNodeId
+     * @param versionProperties properties already loaded for a previous version, null to load them
      * @return
      * @throws Exception
      */
-    private DocumentItem updateProperties(DocumentItem documentItem, boolean currentVersion, String versionNodeId) throws Exception {
+    private DocumentItem updateProperties(DocumentItem documentItem, boolean currentVersion, String versionNodeId, DocumentProperties versionProperties) throws Exception {
         DocumentProperties documentProperties;
 
         if (currentVersion) { // latest version
             documentProperties = documentItem.getDocumentProperties();
 
+        } else if (versionProperties != null) { // prefetched
+            documentProperties = versionProperties;
+
         } else { // previous versions
             documentProperties = alfrescoAPIService.getVersionProperties(versionNodeId, documentItem.getSourceNodeRef());
         }
@@ -292,20 +587,45 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * @throws Exception
      */
     private DocumentItem uploadVersionFile(DocumentItem documentItem, String currentVersionNodeRef, boolean currentVersion) throws Exception {
+        DocumentContent content = alfrescoAPIService.getVersionContent(documentItem.getSourceNodeRef(), NodeRefUtil.removeWorkSpace(currentVersionNodeRef), documentItem.getFilename(), currentVersion);
+        return uploadVersionFile(documentItem, content, currentVersionNodeRef);
+    }
+
+    /**
+     * Uploads a version document already retrieved, the content is closed once it's uploaded
+     * @param documentItem
+     * @param content
+     * @param currentVersionNodeRef
+     * @return
+     * @throws Exception
+     */
+    private DocumentItem uploadVersionFile(DocumentItem documentItem, DocumentContent content, String currentVersionNodeRef) throws Exception {
         logger.debug("VERSION: " + documentItem.getVersionLabel());
-        File file = alfrescoAPIService.getVersionFile(documentItem.getSourceNodeRef(), NodeRefUtil.removeWorkSpace(currentVersionNodeRef), documentItem.getFilename(), currentVersion);
-        logger.debug("Temp file created: " + file.getAbsolutePath());
+        logger.debug("Content retrieved: " + content);
 
-        documentItem = uploadDocument(file, documentItem);
-        logger.debug("File version uploaded. Version node ref: " + currentVersionNodeRef);
+        try {
+            documentItem = uploadDocument(content, documentItem);
+            logger.debug("File version uploaded. Version node ref: " + currentVersionNodeRef);
 
-        // delete the document once the doc has been uploaded
-        if (!file.delete())
-            logger.warn("File not deleted form temp folder: " + documentItem.getFilename());
+        } finally {
+            // delete the document once the doc has been uploaded
+            content.close();
+        }
 
         return documentItem;
     }
 
+    /**
+     * Closes the content stream of a document or deletes it from the temp folder
+     * @param documentItem
+     */
+    private void closeContent(DocumentItem documentItem) {
+        if (documentItem.getContent() != null) {
+            documentItem.getContent().close();
+            documentItem.setContent(null);
+        }
+    }
+
     /**
      * Removes a document from the target repository
      * @param targetNodeId
@@ -351,32 +671,41 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * Verifies if the document can be skipped
      * @param documentItem
      * @return
+     * @throws Exception
      */
-    private DocumentItem skipReplaceDocument(DocumentItem documentItem) {
+    private DocumentItem skipReplaceDocument(DocumentItem documentItem) throws Exception {
         boolean skip = Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_SKIP_DOCUMENTS));
         boolean replace = Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPLACE_DOCUMENTS));
 
+        if ((skip || replace) && skipReplaceFromLedger(documentItem, skip)) {
+            return documentItem;
+        }
+
         if (skip || replace) {
             StopWatch sw = TimeUtil.startStopWatch();
+            String documentId = getTargetDocumentId(documentItem.getTargetDestinationFolder(), documentItem.getFilename(), false);
 
-            try {
-                Document document = CmisHelper.getDocumentByPath(jobParameters.getSessionTarget(), documentItem.getTargetDestinationFolder(), documentItem.getFilename());
-                documentItem.setTargetNodeRef(WORKSPACE + document.getId());
+            if (documentId != null) {
+                documentItem.setTargetNodeRef(WORKSPACE + documentId);
 
                 if (skip) {
                     documentItem.setStatus(SKIPPED);
-                    logger.debug("Time: " + sw + ", Skipped document that already exists: " + document.getId());
+                    logger.debug("Time: " + sw + ", Skipped document that already exists: " + documentId);
 
                 } else if (replace) {
                     documentItem.setStatus(REPLACE);
                     CmisHelper.deleteDocument(jobParameters.getSessionTarget(), NodeRefUtil.removeVersionLabel(documentItem.getTargetNodeRef()));
                     documentItem.setTargetNodeRef(null);
-                    logger.debug("Time: " + sw + ", Removed document that already exists to replace it: " + document.getId());
+
+                    if (jobParameters.getFolderIndex() != null)
+                        jobParameters.getFolderIndex().remove(documentItem.getTargetDestinationFolder(), documentItem.getFilename());
+
+                    logger.debug("Time: " + sw + ", Removed document that already exists to replace it: " + documentId);
                 }
 
                 return documentItem;
 
-            } catch (CmisObjectNotFoundException e) {
+            } else {
                 logger.debug("Time to check if the document exists: " + sw);
                 // document does not exist, do nothing
             }
@@ -385,6 +714,108 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
         return documentItem;
     }
 
+    /**
+     * Skips or replaces a document using the migration ledger instead of looking it up in the target repository
+     * @param documentItem
+     * @param skip true to skip the document, false to replace it. A document whose content doesn't match the checksum
+     *             recorded is replaced when the content is verified
+     * @return false if the ledger is not enabled or the document was not migrated before
+     * @throws Exception
+     */
+    private boolean skipReplaceFromLedger(DocumentItem documentItem, boolean skip) throws Exception {
+        MigrationLedger migrationLedger = jobParameters.getMigrationLedger();
+        if (migrationLedger == null)
+            return false;
+
+        LedgerEntry entry = migrationLedger.get(documentItem.getSourceNodeRef());
+        if (entry == null || !entry.isMigrated())
+            return false;
+
+        if (skip && entry.getChecksum() != null && Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_LEDGER_VERIFY_CONTENT))) {
+            String checksum = getSourceChecksum(documentItem);
+
+            if (!entry.getChecksum().equals(checksum)) {
+                logger.debug("Document content changed since it was recorded in the migration ledger, checksum: " + checksum + ", it will be replaced: " + entry);
+                skip = false;
+            }
+        }
+
+        if (skip) {
+            documentItem.setTargetNodeRef(entry.getTargetNodeRef());
+            documentItem.setStatus(SKIPPED);
+            logger.debug("Skipped document found in the migration ledger: " + entry);
+
+        } else {
+            try {
+                CmisHelper.deleteDocument(jobParameters.getSessionTarget(), NodeRefUtil.removeWorkSpace(NodeRefUtil.removeVersionLabel(entry.getTargetNodeRef())));
+
+            } catch (CmisObjectNotFoundException e) {
+                logger.debug("Document in the migration ledger not found in target repository, it will be migrated again: " + entry);
+            }
+
+            if (jobParameters.getFolderIndex() != null)
+                jobParameters.getFolderIndex().remove(documentItem.getTargetDestinationFolder(), documentItem.getFilename());
+
+            documentItem.setStatus(REPLACE);
+            documentItem.setTargetNodeRef(null);
+            logger.debug("Removed document found in the migration ledger to replace it: " + entry);
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the checksum of the current version content in the source repository, the content is downloaded and
+     * discarded
+     * @param documentItem
+     * @return
+     * @throws Exception
+     */
+    private String getSourceChecksum(DocumentItem documentItem) throws Exception {
+        DocumentContent content = alfrescoAPIService.getVersionContent(documentItem.getSourceNodeRef(), null, documentItem.getFilename(), true);
+
+        try {
+            content.enableChecksum();
+            if (content.isStream()) {
+                try (InputStream in = content.openStream()) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) != -1) {
+                        // read only to update the checksum
+                    }
+                }
+            }
+
+            return content.getChecksum();
+
+        } finally {
+            content.close();
+        }
+    }
+
+    /**
+     * Records the document in the migration ledger if it's enabled. A skipped document already migrated according to the
+     * ledger keeps its entry, the skip doesn't know its version or checksum
+     * @param documentItem
+     */
+    private void recordLedgerEntry(DocumentItem documentItem) {
+        MigrationLedger migrationLedger = jobParameters.getMigrationLedger();
+
+        if (migrationLedger != null && documentItem.getSourceNodeRef() != null) {
+            try {
+                if (SKIPPED.equals(documentItem.getStatus())) {
+                    LedgerEntry entry = migrationLedger.get(documentItem.getSourceNodeRef());
+                    if (entry != null && entry.isMigrated())
+                        return;
+                }
+
+                migrationLedger.record(new LedgerEntry(documentItem.getSourceNodeRef(), documentItem.getVersionLabel(), documentItem.getTargetNodeRef(), documentItem.getStatus(), documentItem.getChecksum()));
+
+            } catch (Exception e) {
+                logger.error("EXCEPTION recording document in the migration ledger: " + documentItem.getSourceNodeRef() + ", exception: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Uploads a document into a repository
      *
@@ -393,18 +824,26 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * @throws FileNotFoundException
      * @throws ParseException
      */
-    public DocumentItem uploadDocument(File file, DocumentItem documentItem) throws Exception {
-        TimeUtil.resume("UPLOAD", jobParameters.getStopWatchUpload());
+    public DocumentItem uploadDocument(DocumentContent content, DocumentItem documentItem) throws Exception {
+        jobParameters.getStageTimer().start("UPLOAD");
         logger.debug("Uploading document: " + documentItem.getFilename() + ", destination: " + documentItem.getTargetDestinationFolder());
 
-        JSONObject jsonResponse = alfrescoAPIService.upload(documentItem, file);
+        if (jobParameters.getMigrationLedger() != null)
+            content.enableChecksum();
+
+        JSONObject jsonResponse = alfrescoAPIService.upload(documentItem, content);
+        jobParameters.getCounter().addBytes(content.getLength());
+        documentItem.setChecksum(content.getChecksum());
         logger.debug("Document uploaded successfully: " + documentItem.getFilename() + ";" + documentItem.getVersionLabel());
 
         if (!REPLACE.equals(documentItem.getStatus())) // set status SUCCESS except for documents replaced
             documentItem.setStatus(SUCCESS);
 
         documentItem.setTargetNodeRef(jsonResponse.get("nodeRef") + ";" + documentItem.getVersionLabel());
-        TimeUtil.suspend("UPLOAD", jobParameters.getStopWatchUpload());
+
+        if (jobParameters.getFolderIndex() != null)
+            jobParameters.getFolderIndex().put(documentItem.getTargetDestinationFolder(), documentItem.getFilename(), NodeRefUtil.removeWorkSpace(documentItem.getTargetNodeRef()));
+        jobParameters.getStageTimer().stop("UPLOAD");
 
         return documentItem;
     }
@@ -433,9 +872,50 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
      * @throws Exception
      */
     private void processSuccess(StopWatch stopWatch, DocumentItem documentItem) throws Exception {
-        TimeUtil.resume("REPORT", jobParameters.getStopWatchReport());
+        jobParameters.getStageTimer().start("REPORT");
         documentItem.setSuccessFlag("true");
-        TimeUtil.suspend("REPORT", jobParameters.getStopWatchReport());
+        jobParameters.getCounter().increaseCounterProcessed();
+
+        if (SKIPPED.equals(documentItem.getStatus())) {
+            jobParameters.getCounter().increaseCounterSkipped();
+
+        } else {
+            jobParameters.getCounter().increaseCounterMigrated();
+
+            if (REPLACE.equals(documentItem.getStatus()))
+                jobParameters.getCounter().increaseCounterReplaced();
+            else
+                jobParameters.getCounter().increaseCounterNew();
+        }
+
+        recordLedgerEntry(documentItem);
+        addReportRow(documentItem, SUCCESS);
+        jobParameters.getStageTimer().stop("REPORT");
+    }
+
+    /**
+     * Process deferred validation exception, the document was not counted or reported yet
+     * @param documentItem
+     * @param e
+     */
+    private void processValidationException(DocumentItem documentItem, Exception e) {
+        logger.error("VALIDATION EXCEPTION - " + documentItem.getSourceNodeRef() + ", Exception: " + e.getMessage());
+
+        documentItem.setStatus(FAILED);
+        documentItem.setSuccessFlag("false");
+        documentItem.setException(e.getMessage());
+        jobParameters.getCounter().increaseCounterProcessed();
+        jobParameters.getCounter().increaseCounterFailed();
+        jobParameters.getCounter().increaseCounterValidationFailed();
+        recordLedgerEntry(documentItem);
+        addReportRow(documentItem, ERROR);
+
+        if (jobParameters.getAssociationQueue() != null) // rolled back, its associations are not migrated
+            jobParameters.getAssociationQueue().remove(documentItem.getDocumentId());
+
+        if (logger.isDebugEnabled()) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -449,6 +929,11 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
         
         documentItem.setStatus(FAILED);
         documentItem.setSuccessFlag("false");
+        documentItem.setException(e.getMessage());
+        jobParameters.getCounter().increaseCounterProcessed();
+        jobParameters.getCounter().increaseCounterFailed();
+        recordLedgerEntry(documentItem);
+        addReportRow(documentItem, ERROR);
 
         if (e instanceof NullPointerException || logger.isDebugEnabled()) {
             e.printStackTrace();
@@ -457,6 +942,24 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
 
  
 
+    /**
+     * Adds the document result to the file report if there is one, the row is written later by the report thread
+     * @param documentItem
+     * @param type SUCCESS or ERROR
+     */
+    private void addReportRow(DocumentItem documentItem, String type) {
+        MigrationReport migrationReport = jobParameters.getMigrationReport();
+
+        if (migrationReport != null) {
+            String sourceStatus = getSourceStatus(type);
+            String sourceDestinationFolder = "";
+            if ("MOVED".equals(sourceStatus))
+                sourceDestinationFolder = type.equals(SUCCESS) ? jobParameters.getSuccessFolder() : jobParameters.getErrorFolder();
+
+            migrationReport.add(new ReportRow(documentItem, sourceStatus, sourceDestinationFolder));
+        }
+    }
+
     /**
      * Gets document entry status for the source repository
      * @param type
@@ -472,6 +975,9 @@ public class DocumentWriter implements ItemWriter<DocumentItem> {
             action = jobParameters.getErrorAction();
         }
 
+        if (action == null)
+            action = "";
+
         switch (action.toUpperCase()) {
             case MOVE:
                 return "MOVED";
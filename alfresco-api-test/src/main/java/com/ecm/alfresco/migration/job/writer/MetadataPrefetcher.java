@@ -0,0 +1,106 @@
+package com.ecm.alfresco.migration.job.writer;
+
+import com.ecm.alfresco.migration.bean.document.DocumentItem;
+import com.ecm.alfresco.migration.bean.document.DocumentProperties;
+import com.ecm.alfresco.migration.service.AlfrescoAPIService;
+import com.ecm.alfresco.migration.util.NodeRefUtil;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests the metadata of all the documents of a chunk as soon as the chunk reaches the writer, so the metadata of
+ * the following documents is being loaded while the first ones are migrated. The documents pick up their metadata
+ * with get, which waits if it's still loading and loads it directly if it was not prefetched or the prefetch failed.
+ */
+public class MetadataPrefetcher {
+    private static final Logger logger = Logger.getLogger(MetadataPrefetcher.class);
+
+    private final AlfrescoAPIService alfrescoAPIService;
+    private final ExecutorService executorService;
+    private final ConcurrentMap<String, Future<DocumentProperties>> prefetchMap = new ConcurrentHashMap<>();
+
+    /**
+     * Prefetcher constructor
+     * @param alfrescoAPIService
+     * @param threads number of threads loading metadata
+     */
+    public MetadataPrefetcher(AlfrescoAPIService alfrescoAPIService, int threads) {
+        this.alfrescoAPIService = alfrescoAPIService;
+        this.executorService = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger sequence = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metadata-prefetch-" + sequence.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts loading the metadata of the documents
+     * @param documentItemList
+     */
+    public void prefetch(List<? extends DocumentItem> documentItemList) {
+        for (DocumentItem documentItem : documentItemList) {
+            if (documentItem != null) {
+                final String sourceNodeId = NodeRefUtil.removeVersionLabel(documentItem.getDocumentId());
+
+                FutureTask<DocumentProperties> task = new FutureTask<>(new Callable<DocumentProperties>() {
+                    @Override
+                    public DocumentProperties call() throws Exception {
+                        return alfrescoAPIService.getVersionProperties(null, sourceNodeId);
+                    }
+                });
+
+                if (prefetchMap.putIfAbsent(sourceNodeId, task) == null) {
+                    executorService.execute(task);
+                }
+            }
+        }
+
+        logger.debug("Prefetching metadata, documents: " + documentItemList.size() + ", pending: " + prefetchMap.size());
+    }
+
+    /**
+     * Gets the current version metadata of a document, it's removed from the prefetched ones
+     * @param sourceNodeId
+     * @return
+     * @throws Exception
+     */
+    public DocumentProperties get(String sourceNodeId) throws Exception {
+        Future<DocumentProperties> future = prefetchMap.remove(sourceNodeId);
+
+        if (future != null) {
+            try {
+                return future.get();
+
+            } catch (ExecutionException e) {
+                logger.debug("Metadata prefetch failed, loading it again: " + sourceNodeId + ", error: " + e.getCause().getMessage());
+            }
+        }
+
+        return alfrescoAPIService.getVersionProperties(null, sourceNodeId);
+    }
+
+    /**
+     * Stops the prefetch threads
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+        prefetchMap.clear();
+    }
+}
@@ -0,0 +1,91 @@
+package com.ecm.alfresco.migration.job.writer;
+
+import com.ecm.alfresco.migration.bean.document.DocumentItem;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Selects the migrated documents to validate: ALL, a percentage (ie. 10%) or SUSPECT documents only. The percentage is
+ * taken from the source node ref hash, so a document is always selected or not selected on every run. Suspect
+ * documents (replaced, with several versions or with a warning message) are always selected.
+ */
+public class ValidationSampler {
+    private static final Logger logger = Logger.getLogger(ValidationSampler.class);
+    public static final String SAMPLE_ALL = "ALL";
+    public static final String SAMPLE_SUSPECT = "SUSPECT";
+    private static final String REPLACE = "REPLACE";
+
+    private final String sample;
+    private final int percent;
+
+    /**
+     * Sampler constructor
+     * @param sample ALL, SUSPECT or a percentage, ALL if empty or not valid
+     */
+    public ValidationSampler(String sample) {
+        String value = StringUtils.isBlank(sample) ? SAMPLE_ALL : sample.trim().toUpperCase();
+
+        if (SAMPLE_SUSPECT.equals(value)) {
+            this.sample = SAMPLE_SUSPECT;
+            this.percent = 0;
+
+        } else if (value.endsWith("%")) {
+            int parsed = parsePercent(value.substring(0, value.length() - 1));
+            this.sample = parsed >= 100 ? SAMPLE_ALL : value;
+            this.percent = Math.max(parsed, 0);
+
+        } else {
+            if (!SAMPLE_ALL.equals(value))
+                logger.warn("Validation sample not valid: " + sample + ", all documents will be validated");
+
+            this.sample = SAMPLE_ALL;
+            this.percent = 100;
+        }
+    }
+
+    /**
+     * Checks if a migrated document has to be validated
+     * @param documentItem
+     * @return
+     */
+    public boolean isSelected(DocumentItem documentItem) {
+        if (SAMPLE_ALL.equals(sample) || isSuspect(documentItem))
+            return true;
+
+        if (percent == 0 || documentItem.getSourceNodeRef() == null)
+            return false;
+
+        return (documentItem.getSourceNodeRef().hashCode() & Integer.MAX_VALUE) % 100 < percent;
+    }
+
+    /**
+     * Checks if a document is more likely to fail validation
+     * @param documentItem
+     * @return
+     */
+    private boolean isSuspect(DocumentItem documentItem) {
+        return REPLACE.equals(documentItem.getStatus()) || documentItem.getCountVersions() > 1
+                || StringUtils.isNotBlank(documentItem.getMessage()) || StringUtils.isNotBlank(documentItem.getException());
+    }
+
+    /**
+     * Parses a percentage
+     * @param value
+     * @return 100 if the value is not a number
+     */
+    private int parsePercent(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+
+        } catch (NumberFormatException e) {
+            logger.warn("Validation sample percentage not valid: " + value + "%, all documents will be validated");
+            return 100;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sample;
+    }
+}
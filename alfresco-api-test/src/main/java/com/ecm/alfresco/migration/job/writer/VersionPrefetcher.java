@@ -0,0 +1,239 @@
+package com.ecm.alfresco.migration.job.writer;
+
+import com.ecm.alfresco.migration.bean.document.DocumentContent;
+import com.ecm.alfresco.migration.bean.document.DocumentItem;
+import com.ecm.alfresco.migration.bean.document.DocumentProperties;
+import com.ecm.alfresco.migration.service.AlfrescoAPIService;
+import com.ecm.alfresco.migration.util.NodeRefUtil;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the versions of a document ahead of the version being uploaded. Versions are still uploaded one by one from
+ * the oldest, so the target version history keeps the source order, but the content and properties of the next
+ * versions are downloaded while the previous one is uploaded. Contents are loaded into temp files or memory, never as
+ * open streams, so the prefetched versions don't hold source connections while they wait.
+ */
+public class VersionPrefetcher {
+    private static final Logger logger = Logger.getLogger(VersionPrefetcher.class);
+
+    private final AlfrescoAPIService alfrescoAPIService;
+    private final ExecutorService executorService;
+    private final int depth;
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Prefetcher constructor
+     * @param alfrescoAPIService
+     * @param threads number of threads loading versions, shared by all the documents
+     * @param depth number of versions loaded ahead of the version being uploaded
+     */
+    public VersionPrefetcher(AlfrescoAPIService alfrescoAPIService, int threads, int depth) {
+        this.alfrescoAPIService = alfrescoAPIService;
+        this.depth = Math.max(depth, 1);
+        this.executorService = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            private final AtomicInteger sequence = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "version-prefetch-" + sequence.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Opens the version window of a document, nothing is loaded until the first version is taken
+     * @param documentItem
+     * @param versionArray versions of the document, latest version first
+     * @return
+     */
+    public VersionWindow open(DocumentItem documentItem, JSONArray versionArray) {
+        return new VersionWindow(documentItem, versionArray);
+    }
+
+    /**
+     * Stops the prefetch threads
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "depth: " + depth + ", versions prefetched: " + prefetched.get() + ", discarded: " + discarded.get();
+    }
+
+    /**
+     * Content and properties of a version, properties are null for the current version
+     */
+    public static class Version {
+        private final DocumentContent content;
+        private final DocumentProperties properties;
+
+        private Version(DocumentContent content, DocumentProperties properties) {
+            this.content = content;
+            this.properties = properties;
+        }
+
+        public DocumentContent getContent() {
+            return content;
+        }
+
+        public DocumentProperties getProperties() {
+            return properties;
+        }
+    }
+
+    /**
+     * Versions of one document being loaded, it must be closed once the document is migrated or failed
+     */
+    public class VersionWindow {
+        private final DocumentItem documentItem;
+        private final JSONArray versionArray;
+        private final Map<Integer, Future<Version>> futureMap = new HashMap<>();
+        private final List<Version> loadedList = new ArrayList<>();
+        private int nextIndex;
+        private boolean closed = false;
+
+        private VersionWindow(DocumentItem documentItem, JSONArray versionArray) {
+            this.documentItem = documentItem;
+            this.versionArray = versionArray;
+            this.nextIndex = versionArray.length() - 1;
+        }
+
+        /**
+         * Gets a version, it waits if it's still loading and loads it directly if the prefetch failed. The versions
+         * after it are requested up to the window depth
+         * @param index position in the version array, versions must be taken from the last position to the first one
+         * @return
+         * @throws Exception
+         */
+        public Version take(int index) throws Exception {
+            while (nextIndex >= 0 && nextIndex >= index - depth) {
+                schedule(nextIndex--);
+            }
+
+            Future<Version> future = futureMap.remove(index);
+            if (future != null) {
+                try {
+                    Version version = future.get();
+                    if (version != null && unregister(version))
+                        return version;
+
+                } catch (ExecutionException e) {
+                    logger.debug("Version prefetch failed, loading it again: " + documentItem.getSourceNodeRef() + ", version: " + index + ", error: " + e.getCause().getMessage());
+                }
+            }
+
+            return load(index);
+        }
+
+        /**
+         * Starts loading a version
+         * @param index
+         */
+        private void schedule(final int index) {
+            FutureTask<Version> task = new FutureTask<>(new Callable<Version>() {
+                @Override
+                public Version call() throws Exception {
+                    if (isClosed())
+                        return null;
+
+                    Version version = load(index);
+                    if (!register(version)) { // the document finished while the version was loading
+                        version.getContent().close();
+                        discarded.incrementAndGet();
+                        return null;
+                    }
+
+                    prefetched.incrementAndGet();
+                    return version;
+                }
+            });
+
+            futureMap.put(index, task);
+            executorService.execute(task);
+        }
+
+        /**
+         * Loads the content of a version and the properties it gets once it's uploaded
+         * @param index
+         * @return
+         * @throws Exception
+         */
+        private Version load(int index) throws Exception {
+            boolean currentVersion = index == 0;
+            String versionNodeRef = versionArray.getJSONObject(index).getString("nodeRef");
+            DocumentContent content = alfrescoAPIService.getVersionContent(documentItem.getSourceNodeRef(), NodeRefUtil.removeWorkSpace(versionNodeRef), documentItem.getFilename(), currentVersion);
+
+            try {
+                content.buffer();
+                DocumentProperties properties = null;
+
+                if (!currentVersion) { // a version gets the properties of the next one, as in the version history
+                    String nextVersionNodeId = NodeRefUtil.removeVersionLabel(versionArray.getJSONObject(index - 1).getString("nodeRef"));
+                    properties = alfrescoAPIService.getVersionProperties(nextVersionNodeId, documentItem.getSourceNodeRef());
+                }
+
+                return new Version(content, properties);
+
+            } catch (Exception e) {
+                content.close();
+                throw e;
+            }
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        private synchronized boolean register(Version version) {
+            if (closed)
+                return false;
+
+            loadedList.add(version);
+            return true;
+        }
+
+        private synchronized boolean unregister(Version version) {
+            return loadedList.remove(version);
+        }
+
+        /**
+         * Cancels the versions not loaded yet and deletes the contents loaded but not taken
+         */
+        public void close() {
+            for (Future<Version> oneFuture : futureMap.values()) {
+                oneFuture.cancel(false);
+            }
+            futureMap.clear();
+
+            synchronized (this) {
+                closed = true;
+                for (Version oneVersion : loadedList) {
+                    oneVersion.getContent().close();
+                    discarded.incrementAndGet();
+                }
+                loadedList.clear();
+            }
+        }
+    }
+}
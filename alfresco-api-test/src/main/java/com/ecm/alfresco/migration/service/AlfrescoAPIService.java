@@ -1,15 +1,17 @@
 package com.ecm.alfresco.migration.service;
 
+import com.ecm.alfresco.migration.bean.document.DocumentContent;
 import com.ecm.alfresco.migration.bean.document.DocumentItem;
 import com.ecm.alfresco.migration.bean.document.DocumentProperties;
 import com.ecm.alfresco.migration.job.config.MigrationProperties;
 import com.ecm.alfresco.migration.job.param.JobParameters;
 import com.ecm.alfresco.migration.util.*;
 
-import org.apache.chemistry.opencmis.client.api.Folder;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
@@ -27,6 +29,9 @@ public class AlfrescoAPIService {
     private static final Logger logger = Logger.getLogger(AlfrescoAPIService.class);
     private static final String SOURCE = "source";
     private static final String TARGET = "target";
+    private static final long DEFAULT_SPOOL_THRESHOLD = 536870912L;
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+    private MetadataStreamCleaner metadataStreamCleaner;
     private static final String[] REMOVE_PROPERTIES_LIST = {"{http://www.alfresco.org/model/content/1.0}content",
             "{http://www.alfresco.org/model/system/1.0}store-identifier",
             "{http://www.alfresco.org/model/versionstore/2.0}frozenModifier",
@@ -79,7 +84,7 @@ public class AlfrescoAPIService {
      * @throws Exception
      */
     public DocumentProperties getVersionProperties(String versionNodeId, String sourceNodeId) throws Exception {
-        TimeUtil.resume("PROPERTIES", jobParameters.getStopWatchGetProperties());
+        jobParameters.getStageTimer().start("PROPERTIES");
         String store = "version2Store";
         String nodeId = versionNodeId;
 
@@ -90,15 +95,72 @@ public class AlfrescoAPIService {
 
         String url = getHost(SOURCE) + "/alfresco/service/api/metadata?nodeRef=workspace://" + store + "/" + NodeRefUtil.removeWorkSpace(nodeId);
         logger.debug("Get version properties URL: " + url);
-        String result = HttpPoolHelper.get(jobParameters.getAccessDetailsSource(), url, null, null, SOURCE);
-        logger.debug("Properties BEFORE cleaning" + result);
-        DocumentProperties documentProperties = cleanProperties(JsonHelper.getJSONObject(result), versionNodeId);
-        JSONObject metadata = documentProperties.getDocumentProperties();
-        logger.debug("Properties AFTER cleaning" + metadata.toString());
-        TimeUtil.suspend("PROPERTIES", jobParameters.getStopWatchGetProperties());
+        DocumentProperties documentProperties;
+
+        if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_METADATA_STREAMING_ENABLED))) {
+            documentProperties = getStreamVersionProperties(url, versionNodeId);
+            if (logger.isDebugEnabled())
+                logger.debug("Properties AFTER cleaning" + documentProperties.getPayload());
+
+        } else {
+            String result = HttpPoolHelper.get(jobParameters.getAccessDetailsSource(), url, null, null, SOURCE);
+            logger.debug("Properties BEFORE cleaning" + result);
+            documentProperties = cleanProperties(JsonHelper.getJSONObject(result), versionNodeId);
+            JSONObject metadata = documentProperties.getDocumentProperties();
+            logger.debug("Properties AFTER cleaning" + metadata.toString());
+        }
+
+        jobParameters.getStageTimer().stop("PROPERTIES");
+        return documentProperties;
+    }
+
+    /**
+     * Gets version properties cleaned while the response is read, the properties request body is written in the same pass
+     * @param url
+     * @param versionNodeId
+     * @return
+     * @throws Exception
+     */
+    private DocumentProperties getStreamVersionProperties(String url, String versionNodeId) throws Exception {
+        InputStream in = HttpPoolHelper.getStream(jobParameters.getAccessDetailsSource(), url, null, null, SOURCE);
+        if (in == null)
+            throw new JSONException("Metadata not found: " + url);
+
+        DocumentProperties documentProperties;
+        try {
+            documentProperties = getMetadataStreamCleaner().clean(in, versionNodeId);
+
+        } finally {
+            in.close();
+        }
+
+        if (documentProperties == null) { // nodeRef after the properties, cleaned as a JSON object
+            logger.debug("Metadata not cleaned while reading, version node ID: " + versionNodeId);
+            documentProperties = cleanProperties(getMetadataStreamCleaner().getLastInput(), versionNodeId);
+        }
+
         return documentProperties;
     }
 
+    /**
+     * Gets the cleaner of the metadata read as a stream, created once the property filter is loaded
+     * @return
+     */
+    synchronized MetadataStreamCleaner getMetadataStreamCleaner() {
+        if (metadataStreamCleaner == null) {
+            String newContentType = MigrationProperties.get(MigrationProperties.PROP_TARGET_NEW_CONTENT_TYPE);
+            String sourceNodeIdProperty = null;
+
+            if (Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_TARGET_KEEP_SOURCE_NODEID_ENABLED)))
+                sourceNodeIdProperty = MigrationProperties.get(MigrationProperties.PROP_TARGET_KEEP_SOURCE_NODEID_PROPERTY);
+
+            metadataStreamCleaner = new MetadataStreamCleaner(REMOVE_PROPERTIES_LIST, jobParameters.getPropertyFilter(), FALSE_PROPERTIES_LIST,
+                    newContentType != null && newContentType.contains(":") ? newContentType : null, sourceNodeIdProperty, MigrationProperties.getAspectList(), jobParameters);
+        }
+
+        return metadataStreamCleaner;
+    }
+
     /**
      * Gets file for a specific version
      * @param sourceNodeId
@@ -111,14 +173,8 @@ public class AlfrescoAPIService {
      * @throws InterruptedException
      */
     public File getVersionFile(String sourceNodeId, String versionNodeId, String fileName, boolean currentVersion) throws IOException, URISyntaxException, InterruptedException {
-        TimeUtil.resume("FILE", jobParameters.getStopWatchGetFile());
-        String url; 
-        boolean searchFromVersionStore = false;
-        
-        if (versionNodeId != null && !currentVersion) {
-			searchFromVersionStore = true;
-		}
-        url = getHost(SOURCE) + "/alfresco/service/api/node/workspace/" + getStore(currentVersion) + "/" + (currentVersion ? sourceNodeId : versionNodeId) + "/content";
+        jobParameters.getStageTimer().start("FILE");
+        String url = getContentUrl(sourceNodeId, versionNodeId, currentVersion);
 
         logger.debug("Get Version File URL: " + url);
         InputStream in = HttpPoolHelper.getStream(jobParameters.getAccessDetailsSource(), url, null, null, SOURCE);
@@ -126,25 +182,98 @@ public class AlfrescoAPIService {
             throw new FileNotFoundException("Couldn't get file " + fileName + " from source repository");
 
         File documentFile = createTempFile(fileName, in);
-        TimeUtil.suspend("FILE", jobParameters.getStopWatchGetFile());
+        jobParameters.getStageTimer().stop("FILE");
         return documentFile;
     }
 
+    /**
+     * Gets content for a specific version. When streaming is enabled the source stream is returned open so it can be
+     * piped into the upload, the content is only spooled into a temp file if its length is unknown or above the threshold
+     * @param sourceNodeId
+     * @param versionNodeId
+     * @param fileName
+     * @param currentVersion
+     * @return
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    public DocumentContent getVersionContent(String sourceNodeId, String versionNodeId, String fileName, boolean currentVersion) throws IOException, URISyntaxException, InterruptedException {
+        if (!isStreamingEnabled()) {
+            return new DocumentContent(getVersionFile(sourceNodeId, versionNodeId, fileName, currentVersion));
+        }
+
+        jobParameters.getStageTimer().start("FILE");
+        String url = getContentUrl(sourceNodeId, versionNodeId, currentVersion);
+
+        logger.debug("Get Version Stream URL: " + url);
+        HttpEntity entity = HttpPoolHelper.getStreamEntity(jobParameters.getAccessDetailsSource(), url, null, null, SOURCE);
+        if (entity == null)
+            throw new FileNotFoundException("Couldn't get file " + fileName + " from source repository");
+
+        DocumentContent documentContent;
+        long length = entity.getContentLength();
+        long threshold = getSpoolThreshold();
+
+        if (length < 0 || length > threshold) {
+            logger.debug("Spooling content into a temp file, file: " + fileName + ", length: " + length + ", threshold: " + threshold);
+            documentContent = new DocumentContent(createTempFile(fileName, entity.getContent()));
+
+        } else {
+            documentContent = new DocumentContent(entity.getContent(), length);
+        }
+
+        jobParameters.getStageTimer().stop("FILE");
+        return documentContent;
+    }
+
+    /**
+     * Verifies if content is streamed from source to target
+     * @return
+     */
+    public boolean isStreamingEnabled() {
+        return Boolean.valueOf(MigrationProperties.get(MigrationProperties.PROP_CONTENT_STREAMING_ENABLED));
+    }
+
+    /**
+     * Gets the content url of a specific version
+     * @param sourceNodeId
+     * @param versionNodeId
+     * @param currentVersion
+     * @return
+     */
+    private String getContentUrl(String sourceNodeId, String versionNodeId, boolean currentVersion) {
+        return getHost(SOURCE) + "/alfresco/service/api/node/workspace/" + getStore(currentVersion) + "/" + (currentVersion ? sourceNodeId : versionNodeId) + "/content";
+    }
+
+    /**
+     * Gets the max content length streamed without spooling it into a temp file
+     * @return
+     */
+    private long getSpoolThreshold() {
+        String threshold = MigrationProperties.get(MigrationProperties.PROP_CONTENT_SPOOL_THRESHOLD);
+
+        if (threshold != null && StringUtils.isNumeric(threshold.trim()))
+            return Long.parseLong(threshold.trim());
+        else
+            return DEFAULT_SPOOL_THRESHOLD;
+    }
+
     /**
      * Uploads a document into the repository
      * @param documentItem
-     * @param file
+     * @param documentContent
      * @return JSON status message
      * @throws Exception
      */
-    public JSONObject upload(DocumentItem documentItem, File file) throws Exception {
+    public JSONObject upload(DocumentItem documentItem, DocumentContent documentContent) throws Exception {
         String response = null;
 
         try {
 
             String url = getHost(TARGET) + "/alfresco/service/api/upload";
 
-            HttpEntity entity = getEntity(file, documentItem);
+            HttpEntity entity = getEntity(documentContent, documentItem);
             logger.debug("Upload document URL: " + url);
             response = HttpPoolHelper.post(jobParameters.getAccessDetailsTarget(), url, null, null, entity, null, null, TARGET);
             logger.debug("API Upload response: " + response);
@@ -153,12 +282,12 @@ public class AlfrescoAPIService {
             return jsonResponse;
 
         } catch (JSONException e) {
-            TimeUtil.suspend("UPLOAD", jobParameters.getStopWatchUpload());
+            jobParameters.getStageTimer().stop("UPLOAD");
             logger.error("Upload failed: " + documentItem.getFilename() + ", Response: " + response);
             throw new Exception("Upload Response: " + response + ", Version Label: " + documentItem.getVersionLabel());
 
         } catch (Exception e) {
-            TimeUtil.suspend("UPLOAD", jobParameters.getStopWatchUpload());
+            jobParameters.getStageTimer().stop("UPLOAD");
             logger.error("Upload failed: " + documentItem.getFilename());
 
             if (logger.isDebugEnabled()) {
@@ -171,16 +300,23 @@ public class AlfrescoAPIService {
 
     /**
      * Gets an http entity based on a document
-     * @param file
+     * @param documentContent
      * @param documentItem
      * @return
      * @throws Exception
      */
-    private HttpEntity getEntity(File file, DocumentItem documentItem) throws Exception {
-        Folder destinationFolder = getDestinationFolder(documentItem);
-        String destinationNodeId = NodeRefUtil.removeWorkSpace(destinationFolder.getId());
+    private HttpEntity getEntity(DocumentContent documentContent, DocumentItem documentItem) throws Exception {
+        String destinationNodeId = NodeRefUtil.removeWorkSpace(getDestinationFolderId(documentItem));
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-        builder.addBinaryBody("filedata", file, ContentType.APPLICATION_OCTET_STREAM, documentItem.getFilename());
+
+        if (documentContent.isStream()) {
+            int bufferSize = MigrationProperties.getInt(MigrationProperties.PROP_CONTENT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+            builder.addPart("filedata", new StreamContentBody(documentContent.openStream(), documentContent.getLength(), ContentType.APPLICATION_OCTET_STREAM, documentItem.getFilename(), bufferSize));
+
+        } else {
+            builder.addBinaryBody("filedata", documentContent.getFile(), ContentType.APPLICATION_OCTET_STREAM, documentItem.getFilename());
+        }
+
         builder.addTextBody("contenttype ", documentItem.getContentType(), ContentType.MULTIPART_FORM_DATA);
 
         if (documentItem.getTargetNodeRef() == null) {
@@ -204,22 +340,31 @@ public class AlfrescoAPIService {
             }
         }
 
+        if (documentContent.isStream()) { // the stream can only be read once, the request must not be sent again
+            return new HttpEntityWrapper(builder.build()) {
+                @Override
+                public boolean isRepeatable() {
+                    return false;
+                }
+            };
+        }
+
         return builder.build();
     }
 
     /**
-     * Gets destination folder for a specific document
+     * Gets destination folder id for a specific document, the folder is created if it doesn't exist
      * @param documentItem
      * @return
      */
-    private Folder getDestinationFolder(DocumentItem documentItem) {
-        Folder destinationFolder = CmisHelper.createFolder(jobParameters.getSessionTarget(), documentItem.getTargetDestinationFolder(), new HashMap<String, Object>());
-        if (destinationFolder == null) {
-            TimeUtil.suspend("UPLOAD", jobParameters.getStopWatchUpload());
-            throw new RuntimeException("Unable to create folder " + documentItem.getTargetDestinationFolder());
-        }
+    private String getDestinationFolderId(DocumentItem documentItem) {
+        try {
+            return jobParameters.getFolderCache().getFolderId(jobParameters.getSessionTarget(), documentItem.getTargetDestinationFolder());
 
-        return destinationFolder;
+        } catch (RuntimeException e) {
+            jobParameters.getStageTimer().stop("UPLOAD");
+            throw new RuntimeException("Unable to create folder " + documentItem.getTargetDestinationFolder() + ", error: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -235,17 +380,29 @@ public class AlfrescoAPIService {
         try {
             String url = getHost(TARGET) + "/alfresco/service/api/metadata/node/workspace/SpacesStore/" + NodeRefUtil.removeVersionLabel(targetNodeId);
             logger.debug("Update document properties URL: " + url);
-            response = HttpPoolHelper.post(jobParameters.getAccessDetailsTarget(), url, null, null, null, null, documentProperties.getDocumentProperties().toString(), TARGET);
+            response = HttpPoolHelper.post(jobParameters.getAccessDetailsTarget(), url, null, null, null, null, getPropertiesBody(documentProperties), TARGET);
             logger.debug("API Update properties response: " + response);
             JsonHelper.getJSONObject(response); //verify if the response is a JSON
 
         } catch (JSONException e) {
-            TimeUtil.suspend("UPLOAD", jobParameters.getStopWatchUpload());
+            jobParameters.getStageTimer().stop("UPLOAD");
             logger.error("Update Node failed: " + targetNodeId + ", Response: " + response);
             throw new Exception("Update Node Response: " + response);
         }
     }
 
+    /**
+     * Gets the properties request body, written while the metadata was read or from the document properties
+     * @param documentProperties
+     * @return
+     */
+    private String getPropertiesBody(DocumentProperties documentProperties) {
+        if (documentProperties.getPayload() != null)
+            return documentProperties.getPayload();
+        else
+            return documentProperties.getDocumentProperties().toString();
+    }
+
     /**
      * Sets node permissions
      * @param sourceNodeId
@@ -258,11 +415,7 @@ public class AlfrescoAPIService {
         try {
             JSONObject sourcePermissions = getNodePermissions(sourceNodeId, jobParameters);
             JSONObject targetPermissions = getTargetPermissions(sourcePermissions);
-            String url = getHost(TARGET) + "/alfresco/service/slingshot/doclib/permissions/workspace/SpacesStore/" + NodeRefUtil.removeWorkSpace(targetNodeId);
-            logger.debug("POST node permission URL: " + url);
-            String response = HttpPoolHelper.post(jobParameters.getAccessDetailsTarget(), url, null, null, null, null, targetPermissions.toString(),TARGET);
-            logger.debug("API set node permissions response: " + response);
-            JsonHelper.getJSONObject(response); // create a json from the response to verify if the response is a JSON
+            postNodePermissions(targetNodeId, targetPermissions.toString(), jobParameters);
 
             if(((JSONArray)(targetPermissions.get("permissions"))).length() > 0)
                 logger.info("Permissions set for: " + folderPath + ",  JSON: " + targetPermissions.toString());
@@ -273,6 +426,21 @@ public class AlfrescoAPIService {
         }
     }
 
+    /**
+     * Sends permissions to a target node
+     * @param targetNodeId
+     * @param targetPermissions permissions in JSON format, see getTargetPermissions
+     * @param jobParameters
+     * @throws Exception
+     */
+    public void postNodePermissions(String targetNodeId, String targetPermissions, JobParameters jobParameters) throws Exception {
+        String url = getHost(TARGET) + "/alfresco/service/slingshot/doclib/permissions/workspace/SpacesStore/" + NodeRefUtil.removeWorkSpace(targetNodeId);
+        logger.debug("POST node permission URL: " + url);
+        String response = HttpPoolHelper.post(jobParameters.getAccessDetailsTarget(), url, null, null, null, null, targetPermissions, TARGET);
+        logger.debug("API set node permissions response: " + response);
+        JsonHelper.getJSONObject(response); // create a json from the response to verify if the response is a JSON
+    }
+
     /**
      * Gets node permissions
      * @param nodeRef
@@ -299,7 +467,7 @@ public class AlfrescoAPIService {
      * @param sourcePermissions
      * @return
      */
-    private JSONObject getTargetPermissions(JSONObject sourcePermissions) {
+    public JSONObject getTargetPermissions(JSONObject sourcePermissions) {
         JSONObject targetPermissions = new JSONObject();
         JSONArray targetPermissionsArray = new JSONArray();
         boolean isInherited = (boolean) sourcePermissions.get("isInherited");
@@ -333,19 +501,26 @@ public class AlfrescoAPIService {
     private File createTempFile(String fileName, InputStream in) throws IOException {
         File documentFile = File.createTempFile(fileName, "");
         OutputStream out = new FileOutputStream(documentFile);
-        IOUtils.copy(in, out);
-        out.close();
+
+        try {
+            IOUtils.copy(in, out);
+
+        } finally {
+            out.close();
+            in.close();
+        }
+
         return documentFile;
     }
 
     /**
-     * Cleans metadata properties, removes unnecessary entries, adds extra information
+     * Cleans metadata properties, removes unnecessary entries, adds extra information. Package-private for the benchmarks
      * @param metadata
      * @param versionNodeId
      * @return
      * @throws Exception
      */
-    private DocumentProperties cleanProperties(JSONObject metadata, String versionNodeId) throws Exception {
+    DocumentProperties cleanProperties(JSONObject metadata, String versionNodeId) throws Exception {
         if (metadata.isNull("properties"))
             throw new Exception("Metadata is empty: " + metadata + ", version node ID: " + versionNodeId);
 
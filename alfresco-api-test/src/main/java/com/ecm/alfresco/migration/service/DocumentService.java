@@ -27,7 +27,8 @@ public class DocumentService {
     private static final String TARGET = "target";
 
     /**
-     * Gets destination path for a specific document property
+     * Gets destination path for a specific document property. The migration uses DestinationPathPlan instead, this is
+     * only kept as the reference DestinationPathBenchmark measures the plan against
      *
      * @param documentProperties document properties
      * @param itemList
@@ -232,14 +233,14 @@ public class DocumentService {
     }
 
     /**
-     * Gets a clean property value
+     * Gets a clean property value. Package-private for the benchmarks
      * @param propertyValue
      * @param lastLevel
      * @param dateFormat
      * @return
      * @throws ParseException
      */
-    private String getValidPropertyValueFolderLevel(Object propertyValue, boolean lastLevel, String dateFormat) throws ParseException {
+    String getValidPropertyValueFolderLevel(Object propertyValue, boolean lastLevel, String dateFormat) throws ParseException {
         String stringValue = "";
 
         if (dateFormat != null && !dateFormat.isEmpty()) {
@@ -1,17 +1,27 @@
 package com.ecm.alfresco.migration.service;
 
 import com.ecm.alfresco.migration.bean.counter.Counter;
+import com.ecm.alfresco.migration.bean.counter.LatencyHistogram;
+import com.ecm.alfresco.migration.bean.counter.StageTimer;
 import com.ecm.alfresco.migration.job.config.MigrationProperties;
+import com.ecm.alfresco.migration.job.param.JobParameters;
 
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 
+import java.text.DecimalFormat;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class LoggerService {
     private static final Logger logger = Logger.getLogger(LoggerService.class);
+    private static final String[] STAGE_ORDER = {"NODEREF", "PROPERTIES", "FILE", "UPLOAD", "FOLDER DESTINATION", "REPORT"};
+    private ScheduledExecutorService progressReporter;
 
     /**
      * Prints final results
@@ -38,10 +48,135 @@ public class LoggerService {
             logger.info("Report batchId -" + batchId + "- Documents Migrated Skipped: " + counter.getCounterSkipped());
             logger.info("Report batchId -" + batchId + "- Documents Migrated Replaced: " + counter.getCounterReplaced());
             logger.info("Report batchId -" + batchId + "- Documents Migrated Failed: " + counter.getCounterFailed());
+            logger.info("Report batchId -" + batchId + "- Documents Validated: " + counter.getCounterValidated());
+            logger.info("Report batchId -" + batchId + "- Documents Validation Failed: " + counter.getCounterValidationFailed());
+            logger.info("Report batchId -" + batchId + "- Associations Created: " + counter.getCounterAssociationsCreated());
+            logger.info("Report batchId -" + batchId + "- Associations Skipped: " + counter.getCounterAssociationsSkipped());
+            logger.info("Report batchId -" + batchId + "- Associations Failed: " + counter.getCounterAssociationsFailed());
+            logger.info("Report batchId -" + batchId + "- Content Transferred: " + counter.getCounterBytes() + " bytes");
+            logger.info("Report batchId -" + batchId + "- Average Rate: " + formatRate(counter.getAverageDocsRate()) + " docs/s, " + formatRate(counter.getAverageBytesRate()) + " bytes/s");
+            logger.info("Report batchId -" + batchId + "- Last " + counter.getRateWindow() + "s Rate: " + formatRate(counter.getDocsRate()) + " docs/s, " + formatRate(counter.getBytesRate()) + " bytes/s");
             logger.info("");
         }
     }
 
+    /**
+     * Prints final results including the stage latencies
+     *
+     * @param status     migration status
+     * @param batchId    batch ID
+     * @param time       completion time
+     * @param counter    counter
+     * @param stageTimer stage timer
+     */
+    public void printResults(String status, String batchId, String time, Counter counter, StageTimer stageTimer) {
+        printResults(status, batchId, time, counter);
+
+        if (batchId != null) {
+            printStageTimes(stageTimer);
+            logger.info("");
+        }
+    }
+
+    /**
+     * Prints the latency percentiles of every stage
+     *
+     * @param stageTimer stage timer
+     */
+    public void printStageTimes(StageTimer stageTimer) {
+        Map<String, LatencyHistogram> histogramMap = stageTimer.getHistogramMap();
+
+        for (String oneStage : STAGE_ORDER) {
+            printStageTime(oneStage, histogramMap.remove(oneStage));
+        }
+
+        for (Map.Entry<String, LatencyHistogram> oneEntry : histogramMap.entrySet()) {
+            printStageTime(oneEntry.getKey(), oneEntry.getValue());
+        }
+    }
+
+    /**
+     * Prints the current counters, rates and stage latencies
+     *
+     * @param counter    counter
+     * @param stageTimer stage timer
+     */
+    public void printProgress(Counter counter, StageTimer stageTimer) {
+        logger.info("Progress - Extracted: " + counter.getCounterExtractedDocs() + ", Processed: " + counter.getCounterProcessed() + ", Failed: " + counter.getCounterFailed() + ", Rate: " + formatRate(counter.getDocsRate()) + " docs/s, " + formatRate(counter.getBytesRate()) + " bytes/s");
+        printStageTimes(stageTimer);
+    }
+
+    /**
+     * Starts printing the progress periodically
+     *
+     * @param jobParameters   job parameters
+     * @param intervalSeconds seconds between reports, 0 to disable it
+     */
+    public synchronized void startProgressReport(final JobParameters jobParameters, int intervalSeconds) {
+        if (intervalSeconds <= 0 || progressReporter != null)
+            return;
+
+        progressReporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "progress-report");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        progressReporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    printProgress(jobParameters.getCounter(), jobParameters.getStageTimer());
+
+                } catch (Exception e) {
+                    logger.warn("Unable to print progress: " + e.getMessage());
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops printing the progress
+     */
+    public synchronized void stopProgressReport() {
+        if (progressReporter != null) {
+            progressReporter.shutdownNow();
+            progressReporter = null;
+        }
+    }
+
+    /**
+     * Prints the latency percentiles of a stage
+     * @param stage
+     * @param histogram
+     */
+    private void printStageTime(String stage, LatencyHistogram histogram) {
+        if (histogram != null && histogram.getCount() > 0) {
+            logger.info("Stage " + stage + " - count: " + histogram.getCount() + ", mean: " + formatMillis(histogram.getMean()) + ", p50: " + formatMillis(histogram.getPercentile(50)) + ", p95: " + formatMillis(histogram.getPercentile(95)) + ", p99: " + formatMillis(histogram.getPercentile(99)) + ", max: " + formatMillis(histogram.getMax()));
+        }
+    }
+
+    /**
+     * Formats microseconds as milliseconds
+     * @param micros
+     * @return
+     */
+    private String formatMillis(long micros) {
+        return new DecimalFormat("0.##").format(micros / 1000d) + " ms";
+    }
+
+    /**
+     * Formats a rate with two decimals
+     * @param rate
+     * @return
+     */
+    private String formatRate(double rate) {
+        return new DecimalFormat("0.##").format(rate);
+    }
+
     /**
      * Initializes log4J configuration for a particular batch
      */
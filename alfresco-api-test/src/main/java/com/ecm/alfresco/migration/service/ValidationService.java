@@ -54,6 +54,9 @@ public class ValidationService {
             throw new IllegalArgumentException("Property " + MigrationProperties.PROP_SOURCE_SUCCESS_ACTION + " is invalid. It must be either 'KEEP' or 'MOVE' or 'DELETE'");
         }
 
+        if ("DATABASE".equalsIgnoreCase(MigrationProperties.get(MigrationProperties.PROP_MIGRATION_REPORT_TYPE)))
+            validateParam(MigrationProperties.PROP_DB_URL, "Property '" + MigrationProperties.PROP_DB_URL + "' is required by the DATABASE report and the migration ledger");
+
         if (MigrationProperties.get(MigrationProperties.PROP_SOURCE_ERROR_ACTION).equals(DELETE))
             logger.warn("Source documents will be deleted after migration. Property: " + MigrationProperties.PROP_SOURCE_ERROR_ACTION);
 
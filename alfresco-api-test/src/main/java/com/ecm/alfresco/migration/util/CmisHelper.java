@@ -9,9 +9,11 @@ import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.SessionParameter;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
+import org.apache.chemistry.opencmis.commons.data.ObjectParentData;
 import org.apache.chemistry.opencmis.commons.data.PropertyData;
 import org.apache.chemistry.opencmis.commons.enums.BaseTypeId;
 import org.apache.chemistry.opencmis.commons.enums.BindingType;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
 import org.apache.chemistry.opencmis.commons.enums.VersioningState;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisConstraintException;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisContentAlreadyExistsException;
@@ -21,6 +23,7 @@ import org.apache.log4j.Logger;
 
 import javax.activation.MimetypesFileTypeMap;
 import java.io.*;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -40,11 +43,35 @@ public class CmisHelper {
      * @return session
      */
     public static Session getSession(String hostUrl, String user, String password, String cmisUrl) {
-        Map<String, String> parameter = getBasicParameter(hostUrl, cmisUrl);
+        return getFactorySession(getSessionParameter(hostUrl, user, password, cmisUrl, null, 0, 0));
+    }
+
+    /**
+     * Gets the session factory parameters
+     *
+     * @param hostUrl   alfresco URL domain
+     * @param user      username
+     * @param password  password
+     * @param cmisUrl   CMIS service URL, the AtomPub or the Browser one depending on the binding
+     * @param binding   ATOMPUB or BROWSER, ATOMPUB if null
+     * @param cacheSize max number of objects cached by the session, 0 to keep the default
+     * @param cacheTtl  time objects are cached by the session in milliseconds, 0 to keep the default
+     * @return session parameters
+     */
+    public static Map<String, String> getSessionParameter(String hostUrl, String user, String password, String cmisUrl, String binding, int cacheSize, long cacheTtl) {
+        Map<String, String> parameter = getBasicParameter(hostUrl, cmisUrl, binding);
         parameter.put(SessionParameter.USER, user);
         parameter.put(SessionParameter.PASSWORD, password);
 
-        return getFactorySession(parameter);
+        if (cacheSize > 0)
+            parameter.put(SessionParameter.CACHE_SIZE_OBJECTS, String.valueOf(cacheSize));
+
+        if (cacheTtl > 0) {
+            parameter.put(SessionParameter.CACHE_TTL_OBJECTS, String.valueOf(cacheTtl));
+            parameter.put(SessionParameter.CACHE_TTL_PATHTOID, String.valueOf(cacheTtl));
+        }
+
+        return parameter;
     }
 
     /**
@@ -109,7 +136,7 @@ public class CmisHelper {
      * @return the document if it's found and null if doesn't exist
      */
     public static Document getDocumentByPath(Session session, String folderPath, String documentName) {
-        return (Document) session.getObjectByPath(folderPath + "/" + documentName);
+        return (Document) session.getObjectByPath(folderPath + "/" + documentName, OperationContexts.EXISTS_CHECK);
     }
 
     /**
@@ -169,6 +196,22 @@ public class CmisHelper {
         }
     }
 
+    /**
+     * creates a folder under a parent folder
+     *
+     * @param session        active session
+     * @param parentFolderId parent folder id
+     * @param folderName     the new folder name
+     * @return the id of the new folder
+     */
+    public static String createChildFolder(Session session, String parentFolderId, String folderName) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(PropertyIds.OBJECT_TYPE_ID, "cmis:folder");
+        properties.put(PropertyIds.NAME, folderName);
+
+        return session.createFolder(properties, new ObjectIdImpl(parentFolderId)).getId();
+    }
+
     /**
      * Gets document library folder
      * @param session
@@ -176,7 +219,7 @@ public class CmisHelper {
      * @return
      */
     public static Folder getDocumentLibrary(Session session, String siteId) {
-        return (Folder) session.getObjectByPath(getSiteFolderPath(siteId, ""));
+        return (Folder) session.getObjectByPath(getSiteFolderPath(siteId, ""), OperationContexts.PATH_RESOLVE);
     }
 
     /**
@@ -184,7 +227,7 @@ public class CmisHelper {
      * @param folderPath
      * @return
      */
-    private static String getParentFolderPath(String folderPath) {
+    public static String getParentFolderPath(String folderPath) {
         if (folderPath != null && folderPath.contains("/")) {
             logger.debug("FolderPath: " + folderPath + ", ParentFolder: " + folderPath.substring(0, folderPath.lastIndexOf('/')));
             String parentFolder = folderPath.substring(0, folderPath.lastIndexOf('/'));
@@ -204,7 +247,7 @@ public class CmisHelper {
      * @param folderPath
      * @return
      */
-    private static String getFolderNameFromPath(String folderPath) {
+    public static String getFolderNameFromPath(String folderPath) {
         if (folderPath != null && folderPath.contains("/") && folderPath.lastIndexOf('/') != folderPath.length() - 1)
             return folderPath.substring(folderPath.lastIndexOf('/') + 1);
         else
@@ -221,7 +264,7 @@ public class CmisHelper {
      */
     public static Folder getFolder(Session session, String siteId, String folderPath) {
         logger.debug("Retrieving folder " + getSiteFolderPath(siteId, folderPath));
-        return (Folder) session.getObjectByPath(getSiteFolderPath(siteId, folderPath));
+        return (Folder) session.getObjectByPath(getSiteFolderPath(siteId, folderPath), OperationContexts.PATH_RESOLVE);
     }
 
     /**
@@ -232,7 +275,7 @@ public class CmisHelper {
      */
     public static Folder getFolder(Session session, String folderPath) {
         logger.debug("Retrieving folder " + folderPath);
-        return (Folder) session.getObjectByPath(folderPath);
+        return (Folder) session.getObjectByPath(folderPath, OperationContexts.PATH_RESOLVE);
     }
 
     /**
@@ -245,7 +288,7 @@ public class CmisHelper {
     public static List<CmisObject> getDocumentsByFolderPath(Session session, String siteId, String folderPath) {
         List<CmisObject> documentList = new ArrayList<>();
         Folder folder = getFolder(session, siteId, folderPath);
-        Iterator<CmisObject> iterator = folder.getChildren().iterator();
+        Iterator<CmisObject> iterator = folder.getChildren(OperationContexts.FOLDER_LISTING).iterator();
 
         while (iterator.hasNext()) {
             CmisObject object = iterator.next();
@@ -273,7 +316,246 @@ public class CmisHelper {
      */
     public static ItemIterable<CmisObject> getDocumentsByFolderPath(Session session, String folderPath, int pageNumber, int pageSize) {
         Folder folder = getFolder(session, folderPath);
-        return folder.getChildren().skipTo(pageNumber * pageSize).getPage(pageSize);
+        return folder.getChildren(OperationContexts.withPaging(OperationContexts.FOLDER_LISTING, pageSize, null)).skipTo(pageNumber * pageSize).getPage(pageSize);
+    }
+
+    /**
+     * Gets the names and ids of the documents in a folder, the children are listed in pages and only the name and
+     * id properties are requested
+     * @param session
+     * @param folderPath
+     * @param pageSize
+     * @param maxDocuments max number of documents to list
+     * @return document ids by name, null if the folder has more documents than maxDocuments
+     */
+    public static Map<String, String> getDocumentIdsByName(Session session, String folderPath, int pageSize, int maxDocuments) {
+        Folder folder = getFolder(session, folderPath);
+
+        Map<String, String> documentMap = new HashMap<>();
+        for (CmisObject oneObject : folder.getChildren(OperationContexts.withPaging(OperationContexts.EXISTS_CHECK, pageSize, null))) {
+            if (oneObject.getBaseTypeId() == BaseTypeId.CMIS_DOCUMENT) {
+                if (documentMap.size() >= maxDocuments)
+                    return null;
+
+                documentMap.put(oneObject.getName(), oneObject.getId());
+            }
+        }
+
+        return documentMap;
+    }
+
+    /**
+     * Gets the ids of the parent folders of an object, only the object id property of the parents is requested
+     * @param session
+     * @param objectId
+     * @return
+     */
+    public static List<String> getParentIds(Session session, String objectId) {
+        List<ObjectParentData> parentList = session.getBinding().getNavigationService().getObjectParents(session.getRepositoryInfo().getId(), objectId, PropertyIds.OBJECT_ID, false, IncludeRelationships.NONE, "cmis:none", false, null);
+
+        List<String> parentIdList = new ArrayList<>();
+        if (parentList != null) {
+            for (ObjectParentData oneParent : parentList) {
+                parentIdList.add(oneParent.getObject().getId());
+            }
+        }
+
+        return parentIdList;
+    }
+
+    /**
+     * Gets the path of a folder by id, only the id and path properties are requested
+     * @param session
+     * @param folderId
+     * @return
+     */
+    public static String getFolderPathById(Session session, String folderId) {
+        return ((Folder) session.getObject(folderId, OperationContexts.PATH_RESOLVE)).getPath();
+    }
+
+    /**
+     * Gets the ids of all the folders with a name, ignoring case. Alfresco compares names ignoring case, the name is
+     * queried in its usual spellings too in case the repository doesn't
+     * @param session
+     * @param folderName
+     * @return
+     */
+    public static List<String> getFolderIdsByName(Session session, String folderName) {
+        QueryStatement queryStatement = session.createQueryStatement("SELECT " + PropertyIds.OBJECT_ID + ", " + PropertyIds.NAME + " FROM cmis:folder WHERE " + PropertyIds.NAME + " IN (?, ?, ?)");
+        queryStatement.setString(1, folderName);
+        queryStatement.setString(2, folderName.toLowerCase());
+        queryStatement.setString(3, folderName.toUpperCase());
+
+        List<String> folderIdList = new ArrayList<>();
+        for (QueryResult oneResult : queryStatement.query(false)) {
+            String name = oneResult.getPropertyValueById(PropertyIds.NAME);
+            String folderId = oneResult.getPropertyValueById(PropertyIds.OBJECT_ID);
+
+            if (folderName.equalsIgnoreCase(name) && !folderIdList.contains(folderId))
+                folderIdList.add(folderId);
+        }
+
+        return folderIdList;
+    }
+
+    /**
+     * Checks if a path is inside a folder with a name, at any level, ignoring case
+     * @param path
+     * @param folderName
+     * @return
+     */
+    public static boolean isInFolderNamed(String path, String folderName) {
+        for (String oneFolder : path.split("/")) {
+            if (folderName.equalsIgnoreCase(oneFolder))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds a NOT IN_TREE predicate for every folder to a single table CMIS query
+     * @param query
+     * @param folderIdList folders excluded with all their subfolders
+     * @return null if the query can't be rewritten (ie. it has a join)
+     */
+    public static String excludeFolders(String query, List<String> folderIdList) {
+        if (folderIdList.isEmpty())
+            return query;
+
+        if (query.toUpperCase().contains(" JOIN "))
+            return null;
+
+        StringBuilder predicates = new StringBuilder();
+        for (String oneFolderId : folderIdList) {
+            if (predicates.length() > 0)
+                predicates.append(" AND ");
+            predicates.append("NOT IN_TREE(").append(getQueryLiteral(oneFolderId)).append(")");
+        }
+
+        return addQueryCondition(query, predicates.toString());
+    }
+
+    /**
+     * Adds a condition to a CMIS query, the original conditions are kept between brackets and the ORDER BY clause is
+     * kept at the end
+     * @param query
+     * @param condition
+     * @return
+     */
+    public static String addQueryCondition(String query, String condition) {
+        int orderByIndex = query.toUpperCase().lastIndexOf(" ORDER BY ");
+        String selectWhere = orderByIndex < 0 ? query : query.substring(0, orderByIndex);
+        String orderBy = orderByIndex < 0 ? "" : query.substring(orderByIndex);
+        int whereIndex = selectWhere.toUpperCase().indexOf(" WHERE ");
+
+        if (whereIndex < 0)
+            return selectWhere.trim() + " WHERE " + condition + orderBy;
+        else
+            return selectWhere.substring(0, whereIndex) + " WHERE " + condition + " AND (" + selectWhere.substring(whereIndex + " WHERE ".length()).trim() + ")" + orderBy;
+    }
+
+    /**
+     * Replaces the ORDER BY clause of a CMIS query
+     * @param query
+     * @param orderBy ie. cmis:name ASC
+     * @return
+     */
+    public static String setQueryOrderBy(String query, String orderBy) {
+        int orderByIndex = query.toUpperCase().lastIndexOf(" ORDER BY ");
+        String selectWhere = orderByIndex < 0 ? query : query.substring(0, orderByIndex);
+
+        return selectWhere.trim() + " ORDER BY " + orderBy;
+    }
+
+    /**
+     * Adds a property to the SELECT clause of a CMIS query if it's not selected yet
+     * @param query
+     * @param propertyId
+     * @return
+     */
+    public static String addQuerySelect(String query, String propertyId) {
+        String upperQuery = query.toUpperCase();
+        int selectIndex = upperQuery.indexOf("SELECT ");
+        int fromIndex = upperQuery.indexOf(" FROM ");
+
+        if (selectIndex < 0 || fromIndex < 0)
+            return query;
+
+        String selectList = upperQuery.substring(selectIndex + "SELECT ".length(), fromIndex);
+        if (selectList.trim().equals("*") || selectList.contains(propertyId.toUpperCase()))
+            return query;
+
+        int insertIndex = selectIndex + "SELECT ".length();
+        return query.substring(0, insertIndex) + propertyId + ", " + query.substring(insertIndex);
+    }
+
+    /**
+     * Formats a property value as a CMIS query literal
+     * @param value string, number, boolean or date
+     * @return
+     */
+    public static String getQueryLiteral(Object value) {
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+
+        } else if (value instanceof Calendar) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return "TIMESTAMP '" + dateFormat.format(((Calendar) value).getTime()) + "'";
+
+        } else {
+            return "'" + String.valueOf(value).replace("\\", "\\\\").replace("'", "\\'") + "'";
+        }
+    }
+
+    /**
+     * Gets a page of the folders or documents of a folder ordered by name, starting after a name. The repository
+     * doesn't have to skip the previous pages, so all the pages cost the same whatever the size of the folder
+     * @param session
+     * @param folderId
+     * @param baseTypeId cmis:folder or cmis:document
+     * @param afterName null to get the first page
+     * @param pageSize
+     * @return
+     */
+    public static ItemIterable<CmisObject> getChildrenAfterName(Session session, String folderId, String baseTypeId, String afterName, int pageSize) {
+        // folders need their path to be crawled, documents only their id
+        OperationContext operationContext = BaseTypeId.CMIS_FOLDER.value().equals(baseTypeId) ? OperationContexts.FOLDER_LISTING : OperationContexts.EXISTS_CHECK;
+        operationContext = OperationContexts.withPaging(operationContext, pageSize, PropertyIds.NAME + " ASC");
+
+        String where = "IN_FOLDER(" + getQueryLiteral(folderId) + ")";
+        if (afterName != null)
+            where += " AND " + PropertyIds.NAME + " > " + getQueryLiteral(afterName);
+
+        return session.queryObjects(baseTypeId, where, false, operationContext).getPage(pageSize);
+    }
+
+    /**
+     * Gets the ids of some documents of a folder by name with a CMIS query, the query only returns documents already
+     * indexed by the repository, so a missing name doesn't mean the document doesn't exist
+     * @param session
+     * @param folderPath
+     * @param names document names
+     * @return document ids by name
+     */
+    public static Map<String, String> queryDocumentIdsByName(Session session, String folderPath, Collection<String> names) {
+        Map<String, String> documentMap = new HashMap<>();
+        if (names.isEmpty())
+            return documentMap;
+
+        Folder folder = getFolder(session, folderPath);
+        QueryStatement queryStatement = session.createQueryStatement("SELECT " + PropertyIds.OBJECT_ID + ", " + PropertyIds.NAME + " FROM cmis:document WHERE IN_FOLDER(?) AND " + PropertyIds.NAME + " IN (?)");
+        queryStatement.setString(1, folder.getId());
+        queryStatement.setString(2, names.toArray(new String[names.size()]));
+
+        for (QueryResult oneResult : queryStatement.query(false)) {
+            String name = oneResult.getPropertyValueById(PropertyIds.NAME);
+            String id = oneResult.getPropertyValueById(PropertyIds.OBJECT_ID);
+            documentMap.put(name, id);
+        }
+
+        return documentMap;
     }
 
     /**
@@ -291,6 +573,8 @@ public class CmisHelper {
 
         while (onePage.iterator().hasNext()) {
             CmisObject object = onePage.iterator().next();
+            folderChildren.increaseItemCount();
+
             if (object.getBaseTypeId() == BaseTypeId.CMIS_FOLDER) {
                 folderChildren.addFolder((Folder) object);
 
@@ -326,11 +610,20 @@ public class CmisHelper {
      * @param hostUrl Alfresco URL domain
      * @return basic parameters
      */
-    private static Map<String, String> getBasicParameter(String hostUrl, String cmisUrl) {
+    private static Map<String, String> getBasicParameter(String hostUrl, String cmisUrl, String binding) {
         Map<String, String> parameter = new HashMap<String, String>();
-        parameter.put(SessionParameter.ATOMPUB_URL, hostUrl + cmisUrl);
-        parameter.put(SessionParameter.BINDING_TYPE, BindingType.ATOMPUB.value());
-        logger.debug("URL: " + hostUrl + cmisUrl);
+
+        if (BindingType.BROWSER.name().equalsIgnoreCase(binding)) {
+            parameter.put(SessionParameter.BROWSER_URL, hostUrl + cmisUrl);
+            parameter.put(SessionParameter.BINDING_TYPE, BindingType.BROWSER.value());
+            parameter.put(SessionParameter.BROWSER_SUCCINCT, "true");
+
+        } else {
+            parameter.put(SessionParameter.ATOMPUB_URL, hostUrl + cmisUrl);
+            parameter.put(SessionParameter.BINDING_TYPE, BindingType.ATOMPUB.value());
+        }
+
+        logger.debug("URL: " + hostUrl + cmisUrl + ", binding: " + parameter.get(SessionParameter.BINDING_TYPE));
         return parameter;
     }
 
@@ -340,8 +633,11 @@ public class CmisHelper {
      * @param parameter factory parameters
      * @return an active session
      */
-    private static Session getFactorySession(Map<String, String> parameter) {
+    static Session getFactorySession(Map<String, String> parameter) {
         SessionFactory factory = SessionFactoryImpl.newInstance();
+        if (parameter.containsKey(SessionParameter.REPOSITORY_ID))
+            return factory.createSession(parameter);
+
         List<Repository> repositories = factory.getRepositories(parameter);
 
         return repositories.get(0).createSession();
@@ -389,7 +685,7 @@ public class CmisHelper {
      * @return the document found and null if it doesn't exist any
      */
     public static void downloadDocument(Session session, String objectId, OutputStream out) {
-        Document document = (Document) session.getObject(objectId);
+        Document document = (Document) session.getObject(objectId, OperationContexts.EXISTS_CHECK);
         downloadDocument(document, out);
     }
 
@@ -443,8 +739,8 @@ public class CmisHelper {
      */
     public static void moveDocument(Session session, String objectId, String destinationFolder) {
         try {
-            Document document = (Document) session.getObject(objectId);
-            Folder sourceFolder = document.getParents().get(0);
+            Document document = (Document) session.getObject(objectId, OperationContexts.EXISTS_CHECK);
+            Folder sourceFolder = document.getParents(OperationContexts.PATH_RESOLVE).get(0);
             Folder targetFolder = getFolder(session, destinationFolder);
             ObjectId sourceNodeId = new ObjectIdImpl((String) sourceFolder.getProperty(PropertyIds.OBJECT_ID).getFirstValue());
             ObjectId targetNodeId = new ObjectIdImpl((String) targetFolder.getProperty(PropertyIds.OBJECT_ID).getFirstValue());
@@ -466,7 +762,7 @@ public class CmisHelper {
      * @param objectId
      */
     public static void deleteDocument(Session session, String objectId) {
-        Document document = (Document) session.getObject(objectId);
+        Document document = (Document) session.getObject(objectId, OperationContexts.EXISTS_CHECK);
         document.delete();
     }
 
@@ -0,0 +1,117 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.SessionParameter;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of CMIS sessions for one repository. Every thread is bound to one session of the pool the first time it asks for
+ * a session (round robin), so the threads don't all share the caches of a single session. Sessions are created when
+ * they are first needed and replaced once they are older than the session ttl, if any.
+ *
+ * @author Miguel Sanchez
+ */
+public class CmisSessionPool {
+    private static final Logger logger = Logger.getLogger(CmisSessionPool.class);
+
+    private final String type;
+    private final Map<String, String> parameter;
+    private final int size;
+    private final long ttl;
+    private final AtomicReferenceArray<PooledSession> sessionArray;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final ThreadLocal<Integer> threadSlot = new ThreadLocal<>();
+
+    /**
+     * Session pool constructor, no session is created until it's needed
+     * @param type source or target
+     * @param parameter session factory parameters
+     * @param size number of sessions
+     * @param ttl max age of a session in milliseconds, 0 or less to keep sessions forever
+     */
+    public CmisSessionPool(String type, Map<String, String> parameter, int size, long ttl) {
+        this.type = type;
+        this.parameter = new HashMap<>(parameter);
+        this.size = Math.max(size, 1);
+        this.ttl = ttl;
+        this.sessionArray = new AtomicReferenceArray<>(this.size);
+    }
+
+    /**
+     * Gets the session bound to the current thread
+     * @return
+     */
+    public Session getSession() {
+        Integer slot = threadSlot.get();
+
+        if (slot == null) {
+            slot = (nextSlot.getAndIncrement() & Integer.MAX_VALUE) % size;
+            threadSlot.set(slot);
+        }
+
+        PooledSession pooledSession = sessionArray.get(slot);
+        if (pooledSession == null || pooledSession.isExpired())
+            pooledSession = createSession(slot, pooledSession);
+
+        return pooledSession.session;
+    }
+
+    /**
+     * Creates the session of a slot, only one thread creates it, the others wait and get the same session
+     * @param slot
+     * @param expiredSession session being replaced, null if the slot is empty
+     * @return
+     */
+    private PooledSession createSession(int slot, PooledSession expiredSession) {
+        synchronized (sessionArray) {
+            PooledSession pooledSession = sessionArray.get(slot);
+            if (pooledSession != null && pooledSession != expiredSession && !pooledSession.isExpired())
+                return pooledSession;
+
+            pooledSession = new PooledSession(CmisHelper.getFactorySession(parameter));
+            sessionArray.set(slot, pooledSession);
+            created.incrementAndGet();
+            logger.debug("CMIS session " + type + " created, slot: " + slot + (expiredSession != null ? ", replacing expired session" : ""));
+
+            if (!parameter.containsKey(SessionParameter.REPOSITORY_ID)) // skip the repository lookup for the next sessions
+                parameter.put(SessionParameter.REPOSITORY_ID, pooledSession.session.getRepositoryInfo().getId());
+
+            return pooledSession;
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCreated() {
+        return created.get();
+    }
+
+    @Override
+    public String toString() {
+        return "type: " + type + ", sessions: " + size + ", created: " + getCreated() + ", ttl: " + ttl + " ms";
+    }
+
+    /**
+     * Session and its creation time
+     */
+    private class PooledSession {
+        private final Session session;
+        private final long createdTime = System.currentTimeMillis();
+
+        private PooledSession(Session session) {
+            this.session = session;
+        }
+
+        private boolean isExpired() {
+            return ttl > 0 && System.currentTimeMillis() - createdTime > ttl;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.ecm.alfresco.migration.util;
+
+import com.ecm.alfresco.migration.bean.folderStructure.FolderStructureItem;
+import com.ecm.alfresco.migration.bean.folderStructure.FolderStructureProperty;
+
+import org.json.JSONObject;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Destination path rules of the target folder structure, compiled once from the folder structure configuration and
+ * shared by all the threads. The property levels, date formats, invalid characters and string replacements are
+ * prepared up front, so a document only reads the property values driving its path. The path is a function of those
+ * values, dates once they are formatted, the paths already resolved are cached by them and the least recently used ones
+ * are evicted first.
+ *
+ * @author Miguel Sanchez
+ */
+public class DestinationPathPlan {
+    private static final Pattern INVALID_CHARS = Pattern.compile("[:.\"*?<>|]+");
+    private static final String INPUT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final char KEY_NULL = '\u0001';
+
+    private final PropertyRule[] ruleArray;
+    private final String[][] replaceArray;
+    private final String defaultDestination;
+    private final Map<String, String> pathMap;
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Compiles the folder structure configuration
+     * @param itemList folder structure items, only PROPERTY items are supported
+     * @param replaceList strings replaced in the destination path
+     * @param defaultDestination folder used when the path can't be determined, null if not set
+     * @param maxSize max number of paths kept
+     */
+    public DestinationPathPlan(List<FolderStructureItem> itemList, List<String[]> replaceList, String defaultDestination, final int maxSize) {
+        List<PropertyRule> ruleList = new ArrayList<>();
+        for (FolderStructureItem oneItem : itemList) {
+            if (oneItem instanceof FolderStructureProperty)
+                ruleList.add(new PropertyRule((FolderStructureProperty) oneItem));
+        }
+
+        List<String[]> validReplaceList = new ArrayList<>();
+        for (String[] oneReplaceArray : replaceList) {
+            if (oneReplaceArray[0] != null && !oneReplaceArray[0].isEmpty() && oneReplaceArray[1] != null && !oneReplaceArray[1].isEmpty())
+                validReplaceList.add(oneReplaceArray);
+        }
+
+        this.ruleArray = ruleList.toArray(new PropertyRule[ruleList.size()]);
+        this.replaceArray = validReplaceList.toArray(new String[validReplaceList.size()][]);
+        this.defaultDestination = defaultDestination == null || defaultDestination.isEmpty() ? null : defaultDestination;
+        this.maxSize = maxSize;
+        this.pathMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > DestinationPathPlan.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the destination path of a document
+     * @param documentProperties
+     * @param rootFolder
+     * @return
+     * @throws ParseException if a date property doesn't match its format
+     * @throws IllegalArgumentException if the path can't be determined and there's no default folder
+     */
+    public String getDestinationPath(JSONObject documentProperties, String rootFolder) throws ParseException {
+        if (ruleArray.length == 0)
+            return rootFolder;
+
+        String[] valueArray = getValues(documentProperties);
+        String key = getKey(rootFolder, valueArray);
+        String destinationPath;
+
+        synchronized (pathMap) {
+            destinationPath = pathMap.get(key);
+        }
+
+        if (destinationPath != null) {
+            hits.incrementAndGet();
+            return destinationPath;
+        }
+
+        misses.incrementAndGet();
+        destinationPath = replace(buildPath(rootFolder, valueArray));
+
+        synchronized (pathMap) {
+            pathMap.put(key, destinationPath);
+        }
+
+        return destinationPath;
+    }
+
+    /**
+     * Reads the property value of every rule, in order, until a rule gives no folder and there's no folder before it
+     * @param documentProperties
+     * @return values by rule, formatted as they are used in the path, null if a rule has no value or it's not read
+     * @throws ParseException
+     */
+    private String[] getValues(JSONObject documentProperties) throws ParseException {
+        String[] valueArray = new String[ruleArray.length];
+        boolean emptyPath = true;
+
+        for (int i = 0; i < ruleArray.length; i++) {
+            valueArray[i] = ruleArray[i].getValue(documentProperties);
+            emptyPath = emptyPath && valueArray[i] == null;
+
+            if (emptyPath)
+                break; // default destination, no more values needed
+        }
+
+        return valueArray;
+    }
+
+    /**
+     * Builds the cache key of a path
+     * @param rootFolder
+     * @param valueArray
+     * @return
+     */
+    private String getKey(String rootFolder, String[] valueArray) {
+        StringBuilder key = new StringBuilder(rootFolder == null ? "" : rootFolder);
+
+        for (String oneValue : valueArray) {
+            key.append(KEY_SEPARATOR);
+            if (oneValue == null)
+                key.append(KEY_NULL);
+            else
+                key.append(oneValue);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Builds the destination path from the property values
+     * @param rootFolder
+     * @param valueArray
+     * @return
+     */
+    private String buildPath(String rootFolder, String[] valueArray) {
+        StringBuilder destinationPath = new StringBuilder();
+
+        for (int i = 0; i < ruleArray.length; i++) {
+            if (valueArray[i] != null)
+                ruleArray[i].appendFolders(destinationPath, valueArray[i]);
+
+            if (destinationPath.length() == 0)
+                return getDefaultDestination(rootFolder);
+        }
+
+        return rootFolder + destinationPath;
+    }
+
+    /**
+     * Gets the default destination folder
+     * @param rootFolder
+     * @return
+     */
+    private String getDefaultDestination(String rootFolder) {
+        if (defaultDestination == null)
+            throw new IllegalArgumentException("It's not possible to determine the destination path for the document. If there's no default path configured the document migration will fail");
+
+        return rootFolder + defaultDestination;
+    }
+
+    /**
+     * Replaces the configured strings in a path
+     * @param destinationPath
+     * @return
+     */
+    private String replace(String destinationPath) {
+        for (String[] oneReplaceArray : replaceArray)
+            destinationPath = destinationPath.replace(oneReplaceArray[0], oneReplaceArray[1]);
+
+        return destinationPath;
+    }
+
+    public int getSize() {
+        synchronized (pathMap) {
+            return pathMap.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "rules: " + ruleArray.length + ", size: " + getSize() + "/" + maxSize + ", hits: " + hits.get() + ", misses: " + misses.get();
+    }
+
+    /**
+     * Folders created from a list of properties, the first one with a value is used
+     */
+    private static class PropertyRule {
+        private final String[] propertyList;
+        private final int levels;
+        private final boolean includeLastLevel;
+        private final ThreadLocal<SimpleDateFormat[]> dateFormat;
+
+        private PropertyRule(FolderStructureProperty itemProperty) {
+            this.propertyList = itemProperty.getPropertyList() == null ? new String[0] : itemProperty.getPropertyList().clone();
+            this.levels = itemProperty.getLevels();
+            this.includeLastLevel = itemProperty.isIncludeLastLevelEnabled();
+
+            final String outputFormat = itemProperty.getDateFormat();
+            if (outputFormat == null || outputFormat.isEmpty()) {
+                this.dateFormat = null;
+
+            } else {
+                new SimpleDateFormat(outputFormat); // fails on start up if the format is not valid
+                this.dateFormat = new ThreadLocal<SimpleDateFormat[]>() {
+                    @Override
+                    protected SimpleDateFormat[] initialValue() {
+                        return new SimpleDateFormat[]{new SimpleDateFormat(INPUT_DATE_FORMAT), new SimpleDateFormat(outputFormat)};
+                    }
+                };
+            }
+        }
+
+        /**
+         * Gets the value of the first property set, formatted as a date if the rule has a date format
+         * @param documentProperties
+         * @return null if no property is set or the rule creates no folders
+         * @throws ParseException
+         */
+        private String getValue(JSONObject documentProperties) throws ParseException {
+            if (levels <= 0 && !includeLastLevel)
+                return null;
+
+            for (String onePropertyId : propertyList) {
+                String propertyValue = (String) documentProperties.get(onePropertyId);
+                if (propertyValue != null)
+                    return getStringValue(propertyValue).trim();
+            }
+
+            return null;
+        }
+
+        /**
+         * Appends the folders of a value, one per level plus the whole value if the last level is enabled
+         * @param destinationPath
+         * @param stringValue value returned by getValue
+         */
+        private void appendFolders(StringBuilder destinationPath, String stringValue) {
+            String levelValue = INVALID_CHARS.matcher(stringValue.replace(' ', '_')).replaceAll("_");
+
+            for (int i = 0; i < levels; i++)
+                destinationPath.append('/').append(levelValue, 0, i + 1);
+
+            if (includeLastLevel)
+                destinationPath.append('/').append(INVALID_CHARS.matcher(stringValue).replaceAll("_"));
+        }
+
+        /**
+         * Gets the property value formatted as a date if the rule has a date format
+         * @param propertyValue
+         * @return
+         * @throws ParseException
+         */
+        private String getStringValue(String propertyValue) throws ParseException {
+            if (dateFormat != null) {
+                SimpleDateFormat[] formatArray = dateFormat.get();
+                return formatArray[1].format(formatArray[0].parse(propertyValue));
+            }
+
+            return propertyValue.startsWith("/") ? propertyValue.substring(1) : propertyValue;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisContentAlreadyExistsException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches target folder ids by path, shared by all the threads. When a path is missing only one thread looks it up or
+ * creates it, the other threads asking for the same path wait for that result. Missing parent folders are resolved
+ * through the cache too. The number of paths kept is bounded, the least recently used paths are evicted first.
+ *
+ * @author Miguel Sanchez
+ */
+public class FolderCache {
+    private static final Logger logger = Logger.getLogger(FolderCache.class);
+
+    private final Map<String, String> folderIdMap;
+    private final ConcurrentMap<String, FutureTask<String>> inFlightMap = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final int maxSize;
+
+    /**
+     * Folder cache constructor
+     * @param maxSize max number of paths kept
+     */
+    public FolderCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.folderIdMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() > FolderCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the id of a folder, creates the folder and its missing parents if it doesn't exist
+     * @param session target session
+     * @param folderPath folder path
+     * @return folder id
+     */
+    public String getFolderId(final Session session, final String folderPath) {
+        String folderId = getCached(folderPath);
+
+        if (folderId != null) {
+            hits.incrementAndGet();
+            return folderId;
+        }
+
+        misses.incrementAndGet();
+        FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return loadFolderId(session, folderPath);
+            }
+        });
+
+        FutureTask<String> inFlightTask = inFlightMap.putIfAbsent(folderPath, task);
+
+        if (inFlightTask == null) { // this thread resolves the folder
+            try {
+                task.run();
+                folderId = getResult(task, folderPath);
+                putCached(folderPath, folderId);
+                return folderId;
+
+            } finally {
+                inFlightMap.remove(folderPath, task);
+            }
+
+        } else { // another thread is already resolving the folder
+            logger.trace("Waiting for folder being resolved by another thread: " + folderPath);
+            return getResult(inFlightTask, folderPath);
+        }
+    }
+
+    /**
+     * Gets the folder id from the repository, creates the folder if it doesn't exist
+     * @param session
+     * @param folderPath
+     * @return
+     */
+    private String loadFolderId(Session session, String folderPath) {
+        try {
+            return CmisHelper.getFolder(session, folderPath).getId();
+
+        } catch (CmisObjectNotFoundException e) {
+            logger.debug("Folder does not exists: '" + folderPath + "'");
+            String parentFolderId = getFolderId(session, CmisHelper.getParentFolderPath(folderPath));
+
+            try {
+                String folderId = CmisHelper.createChildFolder(session, parentFolderId, CmisHelper.getFolderNameFromPath(folderPath));
+                created.incrementAndGet();
+                logger.info("New folder created: " + folderPath);
+                return folderId;
+
+            } catch (CmisContentAlreadyExistsException ex) {
+                logger.debug("Folder already exists, it was created before by another process: " + folderPath);
+                return CmisHelper.getFolder(session, folderPath).getId();
+            }
+        }
+    }
+
+    /**
+     * Waits for a folder task result
+     * @param task
+     * @param folderPath
+     * @return
+     */
+    private String getResult(FutureTask<String> task, String folderPath) {
+        try {
+            String folderId = task.get();
+            if (folderId == null)
+                throw new RuntimeException("Unable to create folder " + folderPath);
+
+            return folderId;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while resolving folder " + folderPath, e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            else
+                throw new RuntimeException("Unable to create folder " + folderPath + ", error: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private String getCached(String folderPath) {
+        synchronized (folderIdMap) {
+            return folderIdMap.get(folderPath);
+        }
+    }
+
+    private void putCached(String folderPath, String folderId) {
+        synchronized (folderIdMap) {
+            folderIdMap.put(folderPath, folderId);
+        }
+    }
+
+    public int getSize() {
+        synchronized (folderIdMap) {
+            return folderIdMap.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + getSize() + "/" + maxSize + ", hits: " + getHits() + ", misses: " + getMisses() + ", created: " + getCreated() + ", evictions: " + getEvictions();
+    }
+}
@@ -0,0 +1,286 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of the documents in the target folders. The first time a folder is asked for, all its documents are listed
+ * once and kept by name, the following questions about that folder are answered from memory. Documents uploaded or
+ * deleted by the migration update the index, also while their folder is being listed: those updates are kept and
+ * applied to the listing before it's cached, so a listing started before an upload doesn't hide it. The number of
+ * folders kept is bounded, the least recently used folders are evicted first, and folders with too many documents are
+ * not indexed at all.
+ *
+ * @author Miguel Sanchez
+ */
+public class FolderIndex {
+    private static final Logger logger = Logger.getLogger(FolderIndex.class);
+    private static final Map<String, String> NOT_INDEXED = Collections.emptyMap();
+
+    private final Map<String, Map<String, String>> folderMap;
+    private final ConcurrentMap<String, FutureTask<Map<String, String>>> inFlightMap = new ConcurrentHashMap<>();
+    private final Map<String, List<String[]>> pendingMap = new HashMap<>(); // updates of folders being listed, guarded by folderMap
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong listings = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final int maxFolders;
+    private final int maxDocuments;
+    private final int pageSize;
+
+    /**
+     * Folder index constructor
+     * @param maxFolders max number of folders kept
+     * @param maxDocuments folders with more documents than this are not indexed
+     * @param pageSize number of children listed per request
+     */
+    public FolderIndex(final int maxFolders, int maxDocuments, int pageSize) {
+        this.maxFolders = maxFolders;
+        this.maxDocuments = maxDocuments;
+        this.pageSize = pageSize;
+        this.folderMap = new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+                return size() > FolderIndex.this.maxFolders;
+            }
+        };
+    }
+
+    /**
+     * Checks if a folder can be answered by the index, it lists the folder if it's not indexed yet
+     * @param session target session
+     * @param folderPath
+     * @return false if the folder has too many documents to be indexed
+     */
+    public boolean isIndexed(Session session, String folderPath) {
+        return getFolder(session, folderPath) != NOT_INDEXED;
+    }
+
+    /**
+     * Gets the id of a document in a folder
+     * @param session target session
+     * @param folderPath
+     * @param documentName
+     * @return null if the document doesn't exist, call isIndexed first to know if the answer comes from the index
+     */
+    public String getDocumentId(Session session, String folderPath, String documentName) {
+        Map<String, String> documentMap = getFolder(session, folderPath);
+
+        if (documentMap == NOT_INDEXED)
+            fallbacks.incrementAndGet();
+        else
+            hits.incrementAndGet();
+
+        return documentMap.get(documentName);
+    }
+
+    /**
+     * Adds a document uploaded into a folder, it does nothing if the folder is not indexed
+     * @param folderPath
+     * @param documentName
+     * @param documentId
+     */
+    public void put(String folderPath, String documentName, String documentId) {
+        update(folderPath, documentName, documentId);
+    }
+
+    /**
+     * Removes a document deleted from a folder, it does nothing if the folder is not indexed
+     * @param folderPath
+     * @param documentName
+     */
+    public void remove(String folderPath, String documentName) {
+        update(folderPath, documentName, null);
+    }
+
+    /**
+     * Updates a document of a folder, the update is kept until the listing is cached if the folder is being listed
+     * @param folderPath
+     * @param documentName
+     * @param documentId null if the document was deleted
+     */
+    private void update(String folderPath, String documentName, String documentId) {
+        synchronized (folderMap) {
+            Map<String, String> documentMap = folderMap.get(folderPath);
+
+            if (documentMap != null && documentMap != NOT_INDEXED)
+                apply(documentMap, documentName, documentId);
+            else if (documentMap == null && pendingMap.containsKey(folderPath))
+                pendingMap.get(folderPath).add(new String[]{documentName, documentId});
+        }
+    }
+
+    private static void apply(Map<String, String> documentMap, String documentName, String documentId) {
+        if (documentId == null)
+            documentMap.remove(documentName);
+        else
+            documentMap.put(documentName, documentId);
+    }
+
+    /**
+     * Removes a folder from the index, it will be listed again on the next lookup
+     * @param folderPath
+     */
+    public void invalidate(String folderPath) {
+        synchronized (folderMap) {
+            folderMap.remove(folderPath);
+        }
+    }
+
+    /**
+     * Gets the documents of a folder, only one thread lists a folder, the others wait for its result
+     * @param session
+     * @param folderPath
+     * @return
+     */
+    private Map<String, String> getFolder(final Session session, final String folderPath) {
+        Map<String, String> documentMap = getCached(folderPath);
+
+        if (documentMap != null)
+            return documentMap;
+
+        FutureTask<Map<String, String>> task = new FutureTask<>(new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() throws Exception {
+                return listFolder(session, folderPath);
+            }
+        });
+
+        FutureTask<Map<String, String>> inFlightTask;
+        synchronized (folderMap) {
+            inFlightTask = inFlightMap.putIfAbsent(folderPath, task);
+            if (inFlightTask == null)
+                pendingMap.put(folderPath, new ArrayList<String[]>());
+        }
+
+        if (inFlightTask == null) {
+            try {
+                task.run();
+                documentMap = getResult(task, folderPath);
+                putCached(folderPath, documentMap);
+                return documentMap;
+
+            } finally {
+                synchronized (folderMap) {
+                    pendingMap.remove(folderPath);
+                    inFlightMap.remove(folderPath, task);
+                }
+            }
+
+        } else {
+            return getResult(inFlightTask, folderPath);
+        }
+    }
+
+    /**
+     * Lists the documents of a folder
+     * @param session
+     * @param folderPath
+     * @return
+     */
+    private Map<String, String> listFolder(Session session, String folderPath) {
+        listings.incrementAndGet();
+
+        try {
+            Map<String, String> documentMap = CmisHelper.getDocumentIdsByName(session, folderPath, pageSize, maxDocuments);
+
+            if (documentMap == null) {
+                logger.debug("Folder has more than " + maxDocuments + " documents, it won't be indexed: " + folderPath);
+                return NOT_INDEXED;
+            }
+
+            logger.debug("Folder indexed: " + folderPath + ", documents: " + documentMap.size());
+            return new ConcurrentHashMap<>(documentMap);
+
+        } catch (CmisObjectNotFoundException e) { // the folder will be created by the first upload
+            logger.debug("Folder does not exist yet, indexed as empty: " + folderPath);
+            return new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Waits for a folder listing result
+     * @param task
+     * @param folderPath
+     * @return
+     */
+    private Map<String, String> getResult(FutureTask<Map<String, String>> task, String folderPath) {
+        try {
+            return task.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while listing folder " + folderPath, e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            else
+                throw new RuntimeException("Unable to list folder " + folderPath + ", error: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private Map<String, String> getCached(String folderPath) {
+        synchronized (folderMap) {
+            return folderMap.get(folderPath);
+        }
+    }
+
+    /**
+     * Caches a folder listing with the updates received while it was listed
+     * @param folderPath
+     * @param documentMap
+     */
+    private void putCached(String folderPath, Map<String, String> documentMap) {
+        synchronized (folderMap) {
+            List<String[]> pendingList = pendingMap.remove(folderPath);
+
+            if (pendingList != null && documentMap != NOT_INDEXED) {
+                for (String[] oneUpdate : pendingList)
+                    apply(documentMap, oneUpdate[0], oneUpdate[1]);
+            }
+
+            folderMap.put(folderPath, documentMap);
+        }
+    }
+
+    public int getSize() {
+        synchronized (folderMap) {
+            return folderMap.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getListings() {
+        return listings.get();
+    }
+
+    /**
+     * Gets the number of lookups in folders not indexed
+     * @return
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "folders: " + getSize() + "/" + maxFolders + ", hits: " + getHits() + ", listings: " + getListings() + ", not indexed lookups: " + getFallbacks();
+    }
+}
@@ -3,24 +3,35 @@ package com.ecm.alfresco.migration.util;
 import org.apache.http.*;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import com.ecm.alfresco.migration.bean.access.AccessDetails;
+import com.ecm.alfresco.migration.job.config.MigrationProperties;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,14 +48,30 @@ import java.util.concurrent.TimeUnit;
  * @author Miguel Sanchez
  */
 public class HttpPoolHelper {
-    private static PoolingHttpClientConnectionManager poolHttpClientSource;
-    private static PoolingHttpClientConnectionManager poolHttpClientTarget;
-    private static CloseableHttpClient httpClientSource;
-    private static CloseableHttpClient httpClientTarget;
-    private static IdleConnectionMonitorThread staleMonitorSource;
-    private static IdleConnectionMonitorThread staleMonitorTarget;
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+    private static final int DEFAULT_MIN_POOL_SIZE = 16;
+    private static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+    private static final long DEFAULT_TTL = -1;
+    private static final long DEFAULT_KEEP_ALIVE = 30000;
+    private static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    private static final long DEFAULT_STATS_INTERVAL = 60;
+    private static volatile HttpPool httpPoolSource;
+    private static volatile HttpPool httpPoolTarget;
     private static final Logger logger = Logger.getLogger(HttpPoolHelper.class);
 
+    /**
+     * Creates the source and target pools, it should be called once before the migration starts
+     * @param accessDetailsSource
+     * @param accessDetailsTarget
+     */
+    public static synchronized void init(AccessDetails accessDetailsSource, AccessDetails accessDetailsTarget) {
+        if (httpPoolSource == null)
+            httpPoolSource = new HttpPool(SOURCE, getCredentialsProvider(accessDetailsSource));
+        if (httpPoolTarget == null)
+            httpPoolTarget = new HttpPool(TARGET, getCredentialsProvider(accessDetailsTarget));
+    }
+
     /**
      * Closes all HTTP connections
      */
@@ -57,119 +84,105 @@ public class HttpPoolHelper {
     /**
      * Closes all source HTTP connections
      */
-    public static void closeAllConnectionsSource() {
-        if (poolHttpClientSource != null && httpClientSource != null) {
-            try {
-                httpClientSource.close();
-                poolHttpClientSource.close();
-                staleMonitorSource.shutdown();
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    public static synchronized void closeAllConnectionsSource() {
+        if (httpPoolSource != null) {
+            httpPoolSource.close();
+            httpPoolSource = null;
         }
     }
 
     /**
      * Closes all target HTTP connections
      */
-    public static void closeAllConnectionsTarget() {
-        if (poolHttpClientTarget != null && httpClientTarget != null) {
-            try {
-                httpClientTarget.close();
-                poolHttpClientTarget.close();
-                staleMonitorTarget.shutdown();
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    public static synchronized void closeAllConnectionsTarget() {
+        if (httpPoolTarget != null) {
+            httpPoolTarget.close();
+            httpPoolTarget = null;
         }
     }
 
     /**
-     * Gets an HTTP client
-     * @param credentialsProvider
-     * @param type
-     * @return
-     * @throws InterruptedException
+     * Gets the current pool stats
+     * @param type source or target
+     * @return leased, pending, available and max connections, null if the pool doesn't exist
      */
-    public static CloseableHttpClient getHttpClient(CredentialsProvider credentialsProvider, String type) throws InterruptedException {
-        switch (type) {
-            case "source":
-                return getHttpClientSource(credentialsProvider);
-
-            case "target":
-                return getHttpClientTarget(credentialsProvider);
+    public static PoolStats getPoolStats(String type) {
+        HttpPool httpPool = SOURCE.equals(type) ? httpPoolSource : httpPoolTarget;
 
-            default:
-                return null;
-        }
+        if (httpPool != null)
+            return httpPool.connectionManager.getTotalStats();
+        else
+            return null;
     }
 
     /**
-     * Gets an HTTP client for source repository
-     * @param credentialsProvider
-     * @return
-     * @throws InterruptedException
+     * Logs the current stats of both pools
      */
-    public static CloseableHttpClient getHttpClientSource(CredentialsProvider credentialsProvider) throws InterruptedException {
-        if (poolHttpClientSource == null) {
-            poolHttpClientSource = new PoolingHttpClientConnectionManager();
-            poolHttpClientSource.setDefaultMaxPerRoute(16);
-            poolHttpClientSource.setMaxTotal(16);
+    public static void logPoolStats() {
+        logPoolStats(SOURCE, httpPoolSource);
+        logPoolStats(TARGET, httpPoolTarget);
+    }
 
-            staleMonitorSource = new IdleConnectionMonitorThread(poolHttpClientSource);
-            staleMonitorSource.start();
+    /**
+     * Gets the pool of a repository, the pool is created if init was not called before
+     * @param accessDetails
+     * @param type source or target
+     * @return null if the type is unknown
+     */
+    private static HttpPool getHttpPool(AccessDetails accessDetails, String type) {
+        switch (type) {
+            case SOURCE:
+                if (httpPoolSource == null) {
+                    synchronized (HttpPoolHelper.class) {
+                        if (httpPoolSource == null)
+                            httpPoolSource = new HttpPool(SOURCE, getCredentialsProvider(accessDetails));
+                    }
+                }
+                return httpPoolSource;
 
-            try {
-                staleMonitorSource.join(1000);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage());
-                throw e;
-            }
-        }
+            case TARGET:
+                if (httpPoolTarget == null) {
+                    synchronized (HttpPoolHelper.class) {
+                        if (httpPoolTarget == null)
+                            httpPoolTarget = new HttpPool(TARGET, getCredentialsProvider(accessDetails));
+                    }
+                }
+                return httpPoolTarget;
 
-        if (httpClientSource == null) {
-            if (credentialsProvider != null)
-                httpClientSource = HttpClients.custom().setConnectionManager(poolHttpClientSource).setDefaultCredentialsProvider(credentialsProvider).build();
-            else
-                httpClientSource = HttpClients.custom().setConnectionManager(poolHttpClientSource).build();
+            default:
+                return null;
         }
-
-        return httpClientSource;
     }
 
     /**
-     * Gets an HTTP client for target repository
-     * @param credentialsProvider
-     * @return
-     * @throws InterruptedException
+     * Gets a credentials provider for the access details
+     * @param accessDetails
+     * @return null if there are no credentials
      */
-    public static CloseableHttpClient getHttpClientTarget(CredentialsProvider credentialsProvider) throws InterruptedException {
-        if (poolHttpClientTarget == null) {
-            poolHttpClientTarget = new PoolingHttpClientConnectionManager();
-            poolHttpClientTarget.setDefaultMaxPerRoute(16);
-            poolHttpClientTarget.setMaxTotal(16);
+    private static CredentialsProvider getCredentialsProvider(AccessDetails accessDetails) {
+        if (accessDetails == null || accessDetails.getUser() == null || accessDetails.getPassword() == null)
+            return null;
 
-            staleMonitorTarget = new IdleConnectionMonitorThread(poolHttpClientTarget);
-            staleMonitorTarget.start();
+        CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(accessDetails.getUser(), accessDetails.getPassword()));
+        return credentialsProvider;
+    }
 
-            try {
-                staleMonitorTarget.join(1000);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage());
-                throw e;
-            }
-        }
+    /**
+     * Logs the stats of a pool
+     * @param type
+     * @param httpPool
+     */
+    private static void logPoolStats(String type, HttpPool httpPool) {
+        if (httpPool != null) {
+            PoolStats stats = httpPool.connectionManager.getTotalStats();
+            String message = "HTTP pool " + type + " - leased: " + stats.getLeased() + ", pending: " + stats.getPending() + ", available: " + stats.getAvailable() + ", max: " + stats.getMax();
 
-        if (httpClientTarget == null) {
-            if (credentialsProvider != null)
-                httpClientTarget = HttpClients.custom().setConnectionManager(poolHttpClientTarget).setDefaultCredentialsProvider(credentialsProvider).build();
+            if (stats.getPending() > 0)
+                logger.warn(message + ". Threads are waiting for a connection, consider increasing " + type + "." + MigrationProperties.PROP_HTTP_POOL_MAX_TOTAL);
             else
-                httpClientTarget = HttpClients.custom().setConnectionManager(poolHttpClientTarget).build();
+                logger.info(message);
         }
-
-        return httpClientTarget;
     }
 
     /**
@@ -214,26 +227,19 @@ public class HttpPoolHelper {
     public static String get(AccessDetails accessDetails, String url, List<NameValuePair> params, String cookie, String type) throws Exception {
         logParams(url, params);
         String responseString = "";
-        CredentialsProvider credentialsProvider = null;
         URI uri = getURL(url, params);
         HttpGet getMethod = new HttpGet(uri);
-        CloseableHttpClient client = null;
 
         if (cookie != null)
             getMethod.setHeader("Cookie", cookie);
 
         try {
-            if (accessDetails.getUser() != null && accessDetails.getPassword() != null) {
-                credentialsProvider = new BasicCredentialsProvider();
-                credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(accessDetails.getUser(), accessDetails.getPassword()));
-            }
-
-            client = getHttpClient(credentialsProvider, type);
-            if (client == null) {
-                throw new Exception("Http Client is NULL, Type: " + type + ", Credentials: " + credentialsProvider);
+            HttpPool httpPool = getHttpPool(accessDetails, type);
+            if (httpPool == null) {
+                throw new Exception("Http Client is NULL, Type: " + type);
             }
 
-            HttpResponse response = client.execute(getMethod);
+            HttpResponse response = httpPool.execute(getMethod);
 
             if (response != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
                 responseString = EntityUtils.toString(response.getEntity());
@@ -268,10 +274,27 @@ public class HttpPoolHelper {
      * @return
      */
     public static InputStream getStream(AccessDetails accessDetails, String url, List<NameValuePair> params, String cookie, String type) throws URISyntaxException, IOException, InterruptedException {
+        HttpEntity entity = getStreamEntity(accessDetails, url, params, cookie, type);
+
+        if (entity != null)
+            return entity.getContent();
+        else
+            return null;
+    }
+
+    /**
+     * Performs a GET request and returns the response entity without consuming it, the connection is released once
+     * the entity content is fully read or closed
+     *
+     * @param accessDetails
+     * @param url
+     * @param params
+     * @param cookie
+     * @return null if the response is not OK
+     */
+    public static HttpEntity getStreamEntity(AccessDetails accessDetails, String url, List<NameValuePair> params, String cookie, String type) throws URISyntaxException, IOException, InterruptedException {
         logParams(url, params);
-        InputStream responseStream = null;
-        String responseString = "";
-        CredentialsProvider credentialsProvider = null;
+        HttpEntity responseEntity = null;
         URI uri = getURL(url, params);
         HttpGet getMethod = new HttpGet(uri);
 
@@ -279,15 +302,10 @@ public class HttpPoolHelper {
             getMethod.setHeader("Cookie", cookie);
 
         try {
-            if (accessDetails.getUser() != null && accessDetails.getPassword() != null) {
-                credentialsProvider = new BasicCredentialsProvider();
-                credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(accessDetails.getUser(), accessDetails.getPassword()));
-            }
-
-            HttpResponse response = getHttpClient(credentialsProvider, type).execute(getMethod);
+            HttpResponse response = getHttpPool(accessDetails, type).execute(getMethod);
 
             if (response != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                responseStream = response.getEntity().getContent();
+                responseEntity = response.getEntity();
 
             } else {
                 logger.error("URL GET STREAM:" + url + ", ERROR: " + response.getStatusLine().getStatusCode() + ", " + EntityUtils.toString(response.getEntity()));
@@ -300,7 +318,7 @@ public class HttpPoolHelper {
 
         //getMethod.releaseConnection();
 
-        return responseStream;
+        return responseEntity;
     }
 
     /**
@@ -318,7 +336,6 @@ public class HttpPoolHelper {
     public static String post(AccessDetails accessDetails, String url, List<NameValuePair> params, List<NameValuePair> headerParams, HttpEntity multipartEntity, String cookie, String json, String type) throws URISyntaxException, IOException, InterruptedException {
         String responseString = "";
         logParams(url, params);
-        CredentialsProvider credentialsProvider = null;
         URI uri = getURL(url, params);
         HttpPost postMethod = new HttpPost(uri);
 
@@ -347,12 +364,7 @@ public class HttpPoolHelper {
         }
         CloseableHttpResponse response;
         try {
-            if (accessDetails.getUser() != null && accessDetails.getPassword() != null) {
-                credentialsProvider = new BasicCredentialsProvider();
-                credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(accessDetails.getUser(), accessDetails.getPassword()));
-            }
-
-            response = getHttpClient(credentialsProvider, type).execute(postMethod);
+            response = getHttpPool(accessDetails, type).execute(postMethod);
 
             if (response != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
                 responseString = EntityUtils.toString(response.getEntity());
@@ -385,18 +397,12 @@ public class HttpPoolHelper {
      */
     public static String delete(AccessDetails accessDetails, String url, String type) throws URISyntaxException, IOException, InterruptedException {
         String responseString = "";
-        CredentialsProvider credentialsProvider = null;
         URI uri = getURL(url, null);
         HttpDelete deleteMethod = new HttpDelete(uri);
         CloseableHttpResponse response;
 
         try {
-            if (accessDetails.getUser() != null && accessDetails.getPassword() != null) {
-                credentialsProvider = new BasicCredentialsProvider();
-                credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(accessDetails.getUser(), accessDetails.getPassword()));
-            }
-
-            response = getHttpClient(credentialsProvider, type).execute(deleteMethod);
+            response = getHttpPool(accessDetails, type).execute(deleteMethod);
 
             if (response != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
                 responseString = EntityUtils.toString(response.getEntity());
@@ -447,24 +453,142 @@ public class HttpPoolHelper {
         return paramArray;
     }
 
+    /**
+     * Connection pool and client of a repository, configured with the repository properties
+     */
+    private static class HttpPool {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final CloseableHttpClient httpClient;
+        private final CredentialsProvider credentialsProvider;
+        private final AuthCache authCache;
+        private final boolean preemptiveAuth;
+        private final IdleConnectionMonitorThread staleMonitor;
+
+        private HttpPool(String type, CredentialsProvider credentialsProvider) {
+            int threads = MigrationProperties.getStepConcurrency();
+            int maxTotal = MigrationProperties.getInt(type + "." + MigrationProperties.PROP_HTTP_POOL_MAX_TOTAL, Math.max(DEFAULT_MIN_POOL_SIZE, threads * 2));
+            int maxPerRoute = MigrationProperties.getInt(type + "." + MigrationProperties.PROP_HTTP_POOL_MAX_PER_ROUTE, maxTotal);
+            int validateAfterInactivity = MigrationProperties.getInt(type + "." + MigrationProperties.PROP_HTTP_POOL_VALIDATE_AFTER_INACTIVITY, DEFAULT_VALIDATE_AFTER_INACTIVITY);
+            long ttl = MigrationProperties.getLong(type + "." + MigrationProperties.PROP_HTTP_POOL_TTL, DEFAULT_TTL);
+            final long keepAlive = MigrationProperties.getLong(type + "." + MigrationProperties.PROP_HTTP_POOL_KEEP_ALIVE, DEFAULT_KEEP_ALIVE);
+            long statsInterval = MigrationProperties.getLong(MigrationProperties.PROP_HTTP_POOL_STATS_INTERVAL, DEFAULT_STATS_INTERVAL);
+            String preemptive = MigrationProperties.get(type + "." + MigrationProperties.PROP_HTTP_AUTH_PREEMPTIVE);
+
+            connectionManager = new PoolingHttpClientConnectionManager(ttl, TimeUnit.MILLISECONDS);
+            connectionManager.setMaxTotal(maxTotal);
+            connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+            connectionManager.setValidateAfterInactivity(validateAfterInactivity);
+
+            // uses the keep alive sent by the server, or the configured one if the server doesn't send any
+            ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                    long duration = super.getKeepAliveDuration(response, context);
+                    return duration > 0 ? duration : keepAlive;
+                }
+            };
+
+            httpClient = HttpClients.custom().setConnectionManager(connectionManager).setKeepAliveStrategy(keepAliveStrategy).build();
+            this.credentialsProvider = credentialsProvider;
+            this.preemptiveAuth = preemptive == null || preemptive.trim().isEmpty() || Boolean.valueOf(preemptive.trim());
+            this.authCache = createAuthCache(type);
+            staleMonitor = new IdleConnectionMonitorThread(type, connectionManager, Math.max(keepAlive, DEFAULT_IDLE_TIMEOUT), statsInterval * 1000);
+            staleMonitor.start();
+
+            logger.info("HTTP pool " + type + " created - max total: " + maxTotal + ", max per route: " + maxPerRoute + ", validate after inactivity: " + validateAfterInactivity + " ms, ttl: " + ttl + " ms, keep alive: " + keepAlive + " ms, preemptive auth: " + preemptiveAuth);
+        }
+
+        /**
+         * Executes a request with the repository credentials. When preemptive auth is enabled all the requests share
+         * the same auth cache, so the credentials are sent with the request instead of waiting for a 401 challenge
+         * @param request
+         * @return
+         * @throws IOException
+         */
+        private CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+            HttpClientContext context = HttpClientContext.create();
+
+            if (credentialsProvider != null) {
+                context.setCredentialsProvider(credentialsProvider);
+                if (preemptiveAuth)
+                    context.setAuthCache(authCache);
+            }
+
+            return httpClient.execute(request, context);
+        }
+
+        /**
+         * Creates the auth cache with a Basic scheme for the repository host. Any other host that asks for Basic auth
+         * is added to the cache after its first challenge
+         * @param type
+         * @return
+         */
+        private AuthCache createAuthCache(String type) {
+            AuthCache cache = new BasicAuthCache();
+            String hostUrl = MigrationProperties.get(type + "." + MigrationProperties.PROP_ALFRESCO_HOST_URL);
+
+            if (credentialsProvider != null && hostUrl != null && !hostUrl.trim().isEmpty()) {
+                try {
+                    HttpHost host = URIUtils.extractHost(new URI(hostUrl.trim()));
+                    if (host != null)
+                        cache.put(host, new BasicScheme());
+
+                } catch (URISyntaxException e) {
+                    logger.warn("Invalid host url " + type + ": " + hostUrl + ", credentials will be sent after the first challenge");
+                }
+            }
+
+            return cache;
+        }
+
+        private void close() {
+            staleMonitor.shutdown();
+
+            try {
+                httpClient.close();
+                connectionManager.close();
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes expired and idle connections, and logs the pool stats periodically
+     */
     public static class IdleConnectionMonitorThread extends Thread {
         private final HttpClientConnectionManager connMgr;
+        private final String type;
+        private final long idleTimeout;
+        private final long statsInterval;
         private volatile boolean shutdown;
 
         public IdleConnectionMonitorThread
-                (PoolingHttpClientConnectionManager connMgr) {
-            super();
+                (String type, PoolingHttpClientConnectionManager connMgr, long idleTimeout, long statsInterval) {
+            super("http-pool-monitor-" + type);
+            this.type = type;
             this.connMgr = connMgr;
+            this.idleTimeout = idleTimeout;
+            this.statsInterval = statsInterval;
+            setDaemon(true);
         }
 
         @Override
         public void run() {
+            long lastStats = System.currentTimeMillis();
+
             try {
                 while (!shutdown) {
                     synchronized (this) {
                         wait(1000);
                         connMgr.closeExpiredConnections();
-                        connMgr.closeIdleConnections(30, TimeUnit.SECONDS);
+                        connMgr.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+                    }
+
+                    if (statsInterval > 0 && System.currentTimeMillis() - lastStats >= statsInterval) {
+                        logPoolStats(type, SOURCE.equals(type) ? httpPoolSource : httpPoolTarget);
+                        lastStats = System.currentTimeMillis();
                     }
                 }
             } catch (InterruptedException ex) {
@@ -487,7 +611,8 @@ public class HttpPoolHelper {
         logger.debug("Closing idle http threads to let the job exits");
         Set<Thread> threadSet = Thread.getAllStackTraces().keySet();
         for (Thread t : threadSet) {
-            if (t.getState().equals(Thread.State.TIMED_WAITING)) {
+            // daemon threads don't keep the job running, they are the job's own workers (report, validation, pipeline)
+            if (t.getState().equals(Thread.State.TIMED_WAITING) && !t.isDaemon()) {
                 t.interrupt();
                 logger.debug("Thread : " + t.getName() + ", Closed");
             }
@@ -0,0 +1,151 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.QueryResult;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pages a CMIS query by key instead of by offset: the query is ordered by the key property and every page starts at
+ * the last key read, so the repository never skips the previous pages. The key doesn't need to be unique, the page
+ * starts at the last key included (>=) and the documents already read with that key are discarded, the page size is
+ * increased by the number of documents discarded so every page returns new documents. Documents without the key can't
+ * be paged by it, they are read by offset once all the documents with the key have been read.
+ *
+ * @author Miguel Sanchez
+ */
+public class KeysetQueryPager {
+    private static final Logger logger = Logger.getLogger(KeysetQueryPager.class);
+
+    private final String query;
+    private final String key;
+    private final int pageSize;
+    private final Set<String> lastKeyIds = new HashSet<>();
+    private String lastKeyLiteral;
+    private long nullKeyOffset = 0;
+    private boolean keyFinished = false;
+    private boolean finished = false;
+
+    /**
+     * Pager constructor
+     * @param query source query, its ORDER BY clause is replaced by the key
+     * @param key property to order and page by, ie. cmis:lastModificationDate
+     * @param pageSize
+     */
+    public KeysetQueryPager(String query, String key, int pageSize) {
+        this.query = CmisHelper.addQuerySelect(CmisHelper.addQuerySelect(query, PropertyIds.OBJECT_ID), key);
+        this.key = key;
+        this.pageSize = Math.max(pageSize, 1);
+
+        if (query.toUpperCase().contains(" ORDER BY "))
+            logger.warn("Source query ORDER BY is replaced by the paging key: " + key);
+    }
+
+    /**
+     * Gets the next page of the query, documents with the key are read first
+     * @param session
+     * @return an empty list when there are no more documents
+     */
+    public synchronized List<QueryResult> nextPage(Session session) {
+        List<QueryResult> resultList = new ArrayList<>();
+        if (finished)
+            return resultList;
+
+        if (!keyFinished) {
+            resultList = nextKeyPage(session);
+            if (!resultList.isEmpty())
+                return resultList;
+
+            keyFinished = true;
+        }
+
+        resultList = nextNullKeyPage(session);
+        if (resultList.isEmpty())
+            finished = true;
+
+        return resultList;
+    }
+
+    /**
+     * Gets the next page of documents with the key, starting at the last key read
+     * @param session
+     * @return an empty list when there are no more documents with the key
+     */
+    private List<QueryResult> nextKeyPage(Session session) {
+        List<QueryResult> resultList = new ArrayList<>();
+        String pageQuery = CmisHelper.addQueryCondition(query, lastKeyLiteral == null ? key + " IS NOT NULL" : key + " >= " + lastKeyLiteral);
+        pageQuery = CmisHelper.setQueryOrderBy(pageQuery, key + " ASC");
+        int requested = pageSize + lastKeyIds.size();
+
+        OperationContext operationContext = session.createOperationContext();
+        operationContext.setMaxItemsPerPage(requested);
+        logger.debug("Keyset page query: " + pageQuery + ", items: " + requested);
+
+        int count = 0;
+        for (QueryResult oneResult : session.query(pageQuery, false, operationContext).getPage(requested)) {
+            count++;
+            String documentId = oneResult.getPropertyValueByQueryName(PropertyIds.OBJECT_ID);
+            Object keyValue = oneResult.getPropertyValueByQueryName(key);
+
+            if (keyValue == null) { // excluded by the query, read with the documents without key
+                logger.warn("Document without paging key " + key + " in keyset page: " + documentId);
+                continue;
+            }
+
+            String keyLiteral = CmisHelper.getQueryLiteral(keyValue);
+            if (keyLiteral.equals(lastKeyLiteral)) {
+                if (!lastKeyIds.add(documentId))
+                    continue; // already read in the previous page
+
+            } else {
+                lastKeyLiteral = keyLiteral;
+                lastKeyIds.clear();
+                lastKeyIds.add(documentId);
+            }
+
+            resultList.add(oneResult);
+        }
+
+        if (count == requested && resultList.isEmpty()) // no progress, the next page would be the same one
+            logger.warn("Keyset page without new documents, paging by " + key + " stopped at: " + lastKeyLiteral);
+
+        if (count < requested)
+            keyFinished = true;
+
+        return resultList;
+    }
+
+    /**
+     * Gets the next page of documents without the key, they can't be paged by key so they are paged by offset
+     * @param session
+     * @return an empty list when there are no more documents without the key
+     */
+    private List<QueryResult> nextNullKeyPage(Session session) {
+        List<QueryResult> resultList = new ArrayList<>();
+        String pageQuery = CmisHelper.addQueryCondition(query, key + " IS NULL");
+
+        OperationContext operationContext = session.createOperationContext();
+        operationContext.setMaxItemsPerPage(pageSize);
+        logger.debug("Null key page query: " + pageQuery + ", skip: " + nullKeyOffset + ", items: " + pageSize);
+
+        for (QueryResult oneResult : session.query(pageQuery, false, operationContext).skipTo(nullKeyOffset).getPage(pageSize)) {
+            resultList.add(oneResult);
+        }
+
+        if (!resultList.isEmpty())
+            logger.warn("Documents without paging key " + key + ": " + resultList.size());
+
+        nullKeyOffset += resultList.size();
+        return resultList;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,345 @@
+package com.ecm.alfresco.migration.util;
+
+import com.ecm.alfresco.migration.bean.document.DocumentProperties;
+import com.ecm.alfresco.migration.job.param.JobParameters;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cleans the metadata of a document while it's read, token by token: unnecessary and filtered properties are dropped,
+ * collection values are captured and the properties request body for the target is written in the same pass. Only the
+ * scalar values are kept as JSON objects, collections and nested values go straight into the request body, so large
+ * multi-valued properties are not parsed into a tree and serialised again. The response and the request body are
+ * written into buffers reused by every thread.
+ *
+ * @author Miguel Sanchez
+ */
+public class MetadataStreamCleaner {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final int MAX_RETAINED_BUFFER = 4194304; // larger buffers are not kept by the thread
+    private static final String NODE_REF = "nodeRef";
+    private static final String TYPE = "type";
+    private static final String ASPECTS = "aspects";
+    private static final String PROPERTIES = "properties";
+
+    private final Set<String> skipSet = new HashSet<>();
+    private final String[] falseList;
+    private final String newContentType;
+    private final String sourceNodeIdProperty;
+    private final List<String> aspectList;
+    private final JobParameters jobParameters;
+    private final ThreadLocal<Buffer> inputBuffer = new ThreadLocal<>();
+    private final ThreadLocal<Buffer> outputBuffer = new ThreadLocal<>();
+
+    /**
+     * Metadata cleaner constructor
+     * @param removeList properties removed
+     * @param propertyFilter properties removed, set in migration.properties
+     * @param falseList properties set to false
+     * @param newContentType content type of the target documents, null to keep the source one
+     * @param sourceNodeIdProperty property keeping the source nodeRef, null if not kept
+     * @param aspectList aspects added, null if none
+     * @param jobParameters
+     */
+    public MetadataStreamCleaner(String[] removeList, String[] propertyFilter, String[] falseList, String newContentType, String sourceNodeIdProperty, List<String> aspectList, JobParameters jobParameters) {
+        this.falseList = falseList.clone();
+        this.newContentType = newContentType;
+        this.sourceNodeIdProperty = sourceNodeIdProperty;
+        this.aspectList = aspectList == null ? new ArrayList<String>() : new ArrayList<>(aspectList);
+        this.jobParameters = jobParameters;
+
+        // properties written at the end are skipped when they are read
+        skipSet.addAll(Arrays.asList(removeList));
+        skipSet.addAll(Arrays.asList(propertyFilter));
+        skipSet.addAll(Arrays.asList(falseList));
+        if (sourceNodeIdProperty != null)
+            skipSet.add(sourceNodeIdProperty);
+    }
+
+    /**
+     * Reads and cleans the metadata of a document, the stream is read to the end but not closed
+     * @param in metadata response
+     * @param versionNodeId
+     * @return null if it can't be cleaned while reading (the source nodeRef is kept and comes after the properties),
+     * the metadata is then available with getLastInput
+     * @throws Exception
+     */
+    public DocumentProperties clean(InputStream in, String versionNodeId) throws Exception {
+        Buffer input = getBuffer(inputBuffer);
+        IOUtils.copy(in, input);
+
+        DocumentProperties documentProperties = clean(input, versionNodeId);
+        if (documentProperties != null)
+            release(inputBuffer, input);
+
+        return documentProperties;
+    }
+
+    /**
+     * Gets the last metadata read by the thread, used when it couldn't be cleaned while reading
+     * @return
+     */
+    public JSONObject getLastInput() {
+        Buffer input = inputBuffer.get();
+        if (input == null)
+            throw new IllegalStateException("No metadata read by the thread " + Thread.currentThread().getName());
+
+        try {
+            return JsonHelper.getJSONObject(input.getString());
+
+        } finally {
+            release(inputBuffer, input);
+        }
+    }
+
+    /**
+     * Cleans the metadata in the input buffer and writes the request body
+     * @param input
+     * @param versionNodeId
+     * @return null if the source nodeRef comes after the properties
+     * @throws Exception
+     */
+    private DocumentProperties clean(Buffer input, String versionNodeId) throws Exception {
+        Buffer output = getBuffer(outputBuffer);
+        DocumentProperties documentProperties = new DocumentProperties();
+        JSONObject metadata = new JSONObject();
+        JSONObject properties = null;
+        String nodeRef = null;
+        boolean nodeRefFound = false;
+        boolean typeFound = false;
+        boolean aspectsFound = false;
+
+        try (JsonParser parser = jsonFactory.createParser(input.getBytes(), 0, input.size());
+             JsonGenerator generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8)) {
+
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JSONException("A JSONObject text must begin with '{'");
+
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (NODE_REF.equals(field)) { // removed, only kept in the source node id property
+                    nodeRefFound = true;
+                    nodeRef = parser.getValueAsString();
+                    parser.skipChildren();
+
+                } else if (PROPERTIES.equals(field) && token == JsonToken.START_OBJECT) {
+                    if (sourceNodeIdProperty != null && nodeRef == null)
+                        return null;
+
+                    generator.writeFieldName(PROPERTIES);
+                    properties = copyProperties(parser, generator, documentProperties, nodeRef);
+
+                } else if (TYPE.equals(field) && newContentType != null) {
+                    typeFound = true;
+                    parser.skipChildren();
+                    generator.writeStringField(TYPE, newContentType);
+                    metadata.put(TYPE, newContentType);
+
+                } else if (ASPECTS.equals(field) && token == JsonToken.START_ARRAY && !aspectList.isEmpty()) {
+                    aspectsFound = true;
+                    generator.writeFieldName(ASPECTS);
+                    generator.writeStartArray();
+                    while (parser.nextToken() != JsonToken.END_ARRAY)
+                        generator.copyCurrentStructure(parser);
+                    for (String oneAspect : aspectList)
+                        generator.writeString(oneAspect);
+                    generator.writeEndArray();
+
+                } else {
+                    generator.writeFieldName(field);
+                    copyValue(parser, generator, metadata, field);
+                }
+            }
+
+            if (properties == null)
+                throw new Exception("Metadata is empty: " + input.getString() + ", version node ID: " + versionNodeId);
+            if (!nodeRefFound)
+                throw new JSONException("JSONObject[\"" + NODE_REF + "\"] not found.");
+            if (!aspectList.isEmpty() && !aspectsFound)
+                throw new JSONException("JSONObject[\"" + ASPECTS + "\"] not found.");
+
+            if (newContentType != null && !typeFound) {
+                generator.writeStringField(TYPE, newContentType);
+                metadata.put(TYPE, newContentType);
+            }
+
+            generator.writeEndObject();
+        }
+
+        metadata.put(PROPERTIES, properties);
+        documentProperties.setDocumentProperties(metadata);
+        documentProperties.setPayload(output.getString());
+        release(outputBuffer, output);
+
+        return documentProperties;
+    }
+
+    /**
+     * Copies the properties into the request body, except the removed ones and the null ones. Collections are added to
+     * the document properties and sent empty
+     * @param parser positioned at the start of the properties
+     * @param generator
+     * @param documentProperties
+     * @param nodeRef
+     * @return properties with a scalar value
+     * @throws IOException
+     */
+    private JSONObject copyProperties(JsonParser parser, JsonGenerator generator, DocumentProperties documentProperties, String nodeRef) throws IOException {
+        JSONObject properties = new JSONObject();
+        generator.writeStartObject();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String property = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if (token == JsonToken.VALUE_NULL || skipSet.contains(property)) {
+                parser.skipChildren();
+
+            } else if (token == JsonToken.START_ARRAY) { //capture collections and empty the value to avoid issues with the API
+                documentProperties.addList(property, readList(parser), jobParameters);
+                generator.writeStringField(property, "");
+                properties.put(property, "");
+
+            } else {
+                generator.writeFieldName(property);
+                copyValue(parser, generator, properties, property);
+            }
+        }
+
+        for (String oneProperty : falseList) {
+            if (!oneProperty.equals(sourceNodeIdProperty)) {
+                generator.writeBooleanField(oneProperty, false);
+                properties.put(oneProperty, false);
+            }
+        }
+
+        if (sourceNodeIdProperty != null) {
+            generator.writeStringField(sourceNodeIdProperty, nodeRef);
+            properties.put(sourceNodeIdProperty, nodeRef);
+        }
+
+        generator.writeEndObject();
+        return properties;
+    }
+
+    /**
+     * Reads the values of a collection
+     * @param parser positioned at the start of the collection
+     * @return
+     * @throws IOException
+     */
+    private List<String> readList(JsonParser parser) throws IOException {
+        List<String> list = new ArrayList<>();
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() != JsonToken.VALUE_STRING)
+                throw new JSONException("JSONArray[" + list.size() + "] not a string.");
+            list.add(parser.getText());
+        }
+
+        return list;
+    }
+
+    /**
+     * Copies the current value into the request body, scalar values are kept in the JSON object too
+     * @param parser
+     * @param generator
+     * @param object
+     * @param field
+     * @throws IOException
+     */
+    private void copyValue(JsonParser parser, JsonGenerator generator, JSONObject object, String field) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_STRING:
+                object.put(field, parser.getText());
+                break;
+
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                object.put(field, parser.getNumberValue());
+                break;
+
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                object.put(field, parser.getBooleanValue());
+                break;
+
+            case VALUE_NULL:
+                object.put(field, JSONObject.NULL);
+                break;
+
+            default:
+                // objects and arrays only go into the request body
+                break;
+        }
+
+        generator.copyCurrentStructure(parser);
+    }
+
+    /**
+     * Gets the thread buffer, empty
+     * @param threadBuffer
+     * @return
+     */
+    private static Buffer getBuffer(ThreadLocal<Buffer> threadBuffer) {
+        Buffer buffer = threadBuffer.get();
+        if (buffer == null) {
+            buffer = new Buffer();
+            threadBuffer.set(buffer);
+        }
+
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Drops the thread buffer if it has grown too much, so a large document doesn't keep its memory
+     * @param threadBuffer
+     * @param buffer
+     */
+    private static void release(ThreadLocal<Buffer> threadBuffer, Buffer buffer) {
+        if (buffer.getCapacity() > MAX_RETAINED_BUFFER)
+            threadBuffer.remove();
+    }
+
+    /**
+     * Byte buffer read in place
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(65536);
+        }
+
+        private byte[] getBytes() {
+            return buf;
+        }
+
+        private int getCapacity() {
+            return buf.length;
+        }
+
+        private String getString() {
+            return new String(buf, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.runtime.OperationContextImpl;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-built CMIS operation contexts shared by all the threads. Every context only requests the properties its lookups
+ * read, without ACLs, allowable actions, policies or renditions, so the repository responses are much smaller than with
+ * the session default context. They must not be modified, use withPaging to get a copy with another page size or order.
+ *
+ * @author Miguel Sanchez
+ */
+public final class OperationContexts {
+    private static final Set<String> NO_RENDITIONS = Collections.singleton("cmis:none");
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Checks if an object exists and gets its id and name, never cached so it always reflects the repository
+     */
+    public static final OperationContext EXISTS_CHECK = create(IncludeRelationships.NONE, false, PropertyIds.NAME);
+
+    /**
+     * Lists folder children, enough to crawl subfolders (path) and to read documents later by id
+     */
+    public static final OperationContext FOLDER_LISTING = create(IncludeRelationships.NONE, false, PropertyIds.NAME, PropertyIds.PATH);
+
+    /**
+     * Resolves folders by path or id, folders are read again and again (ie. parents of new folders) so they are cached
+     */
+    public static final OperationContext PATH_RESOLVE = create(IncludeRelationships.NONE, true, PropertyIds.NAME, PropertyIds.PATH, PropertyIds.PARENT_ID);
+
+    /**
+     * Gets the relationships where the object is the source
+     */
+    public static final OperationContext RELATIONSHIPS = create(IncludeRelationships.SOURCE, false, PropertyIds.NAME);
+
+    private static final ConcurrentMap<String, OperationContext> pagingMap = new ConcurrentHashMap<>();
+
+    private OperationContexts() {
+    }
+
+    /**
+     * Gets a copy of a context with another page size and order, copies are kept so they are only created once
+     * @param operationContext
+     * @param pageSize
+     * @param orderBy null to keep the repository order
+     * @return
+     */
+    public static OperationContext withPaging(OperationContext operationContext, int pageSize, String orderBy) {
+        String key = System.identityHashCode(operationContext) + "|" + pageSize + "|" + orderBy;
+        OperationContext pagingContext = pagingMap.get(key);
+
+        if (pagingContext == null) {
+            pagingContext = new OperationContextImpl(operationContext.getFilter(), operationContext.isIncludeAcls(),
+                    operationContext.isIncludeAllowableActions(), operationContext.isIncludePolicies(),
+                    operationContext.getIncludeRelationships(), operationContext.getRenditionFilter(),
+                    operationContext.isIncludePathSegments(), orderBy, operationContext.isCacheEnabled(), pageSize);
+
+            OperationContext previous = pagingMap.putIfAbsent(key, pagingContext);
+            if (previous != null)
+                pagingContext = previous;
+        }
+
+        return pagingContext;
+    }
+
+    /**
+     * Creates a context, object id, base type and object type are always requested
+     * @param includeRelationships
+     * @param cacheEnabled
+     * @param propertyIds
+     * @return
+     */
+    private static OperationContext create(IncludeRelationships includeRelationships, boolean cacheEnabled, String... propertyIds) {
+        Set<String> filter = new HashSet<>(Arrays.asList(PropertyIds.OBJECT_ID, PropertyIds.BASE_TYPE_ID, PropertyIds.OBJECT_TYPE_ID));
+        filter.addAll(Arrays.asList(propertyIds));
+
+        return new OperationContextImpl(filter, false, false, false, includeRelationships, NO_RENDITIONS, false, null, cacheEnabled, DEFAULT_PAGE_SIZE);
+    }
+}
@@ -0,0 +1,102 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches source folder paths by folder id, shared by all the threads. The parent folder path of a document is resolved
+ * with a parents request that only returns the parent ids, so the folder path is requested once per folder instead of
+ * fetching the document and its paths for every document. The least recently used folders are evicted first.
+ *
+ * @author Miguel Sanchez
+ */
+public class ParentPathCache {
+    private static final Logger logger = Logger.getLogger(ParentPathCache.class);
+
+    private final Map<String, String> pathMap;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final int maxSize;
+
+    /**
+     * Parent path cache constructor
+     * @param maxSize max number of folders kept
+     */
+    public ParentPathCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.pathMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > ParentPathCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the path of the first parent folder of a document
+     * @param session source session
+     * @param documentId
+     * @return null if the document has no parent
+     */
+    public String getParentPath(Session session, String documentId) {
+        List<String> parentIdList = CmisHelper.getParentIds(session, documentId);
+        if (parentIdList.isEmpty())
+            return null;
+
+        return getFolderPath(session, parentIdList.get(0));
+    }
+
+    /**
+     * Gets the path of a folder
+     * @param session source session
+     * @param folderId
+     * @return
+     */
+    public String getFolderPath(Session session, String folderId) {
+        String folderPath;
+
+        synchronized (pathMap) {
+            folderPath = pathMap.get(folderId);
+        }
+
+        if (folderPath != null) {
+            hits.incrementAndGet();
+            return folderPath;
+        }
+
+        // two threads may load the same folder, both get the same path
+        misses.incrementAndGet();
+        folderPath = CmisHelper.getFolderPathById(session, folderId);
+        logger.trace("Folder path loaded: " + folderId + ", path: " + folderPath);
+
+        synchronized (pathMap) {
+            pathMap.put(folderId, folderPath);
+        }
+
+        return folderPath;
+    }
+
+    public int getSize() {
+        synchronized (pathMap) {
+            return pathMap.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + getSize() + "/" + maxSize + ", hits: " + getHits() + ", misses: " + getMisses();
+    }
+}
@@ -0,0 +1,76 @@
+package com.ecm.alfresco.migration.util;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Multipart body that copies an input stream of known length straight into the request, using a fixed size buffer.
+ * The copy runs at the speed of the slowest side, nothing is kept in memory or on disk. The stream can only be written
+ * once, so the entity sending it must not be repeatable.
+ *
+ * @author Miguel Sanchez
+ */
+public class StreamContentBody extends AbstractContentBody {
+    private final InputStream in;
+    private final long length;
+    private final String filename;
+    private final int bufferSize;
+
+    /**
+     * Stream body constructor
+     * @param in content stream
+     * @param length content length in bytes
+     * @param contentType
+     * @param filename
+     * @param bufferSize copy buffer size in bytes
+     */
+    public StreamContentBody(InputStream in, long length, ContentType contentType, String filename, int bufferSize) {
+        super(contentType);
+        this.in = in;
+        this.length = length;
+        this.filename = filename;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long remaining = length;
+
+        try {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1)
+                    throw new IOException("Content stream ended before the expected length, missing bytes: " + remaining + " of " + length);
+
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+
+            out.flush();
+
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+}
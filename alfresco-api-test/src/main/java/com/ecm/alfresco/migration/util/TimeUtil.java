@@ -101,50 +101,4 @@ public class TimeUtil {
         SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyyMMdd");
         return simpleDateFormat.format(new Date());
     }
-
-    /**
-     * Resumes a stopwatch
-     * @param type
-     * @param stopWatch
-     */
-    public static void resume(String type, StopWatch stopWatch) {
-        if (Integer.parseInt(MigrationProperties.get(MigrationProperties.PROP_NUM_THREADS)) == 1) {
-            if (stopWatch.isStopped()) {
-                logger.trace(type + ", StopWatch is stopped");
-                stopWatch.reset();
-                stopWatch.start();
-
-            } else if (stopWatch.isSuspended()) {
-                logger.trace(type + ", StopWatch is suspended");
-                stopWatch.resume();
-
-            } else {
-                logger.trace(type + ", Stopwatch was running but it should have been stopped");
-            }
-        }
-    }
-
-    /**
-     * Suspends a stopwatch
-     * @param type
-     * @param stopWatch
-     */
-    public static void suspend(String type, StopWatch stopWatch) {
-        if (Integer.parseInt(MigrationProperties.get(MigrationProperties.PROP_NUM_THREADS)) == 1) {
-            if (stopWatch.isStopped()) {
-                logger.trace(type + ", StopWatch is stopped");
-
-            } else if (stopWatch.isSuspended()) {
-                logger.trace(type + ", StopWatch is suspended");
-
-            } else if (stopWatch.isStarted()) {
-                stopWatch.suspend();
-                logger.trace(type + ", Stopwatch has been suspended");
-
-            } else {
-                stopWatch.suspend();
-                logger.trace(type + ", Stopwatch has been suspended");
-            }
-        }
-    }
 }